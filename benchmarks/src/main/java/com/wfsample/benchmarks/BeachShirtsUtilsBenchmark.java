@@ -0,0 +1,104 @@
+package com.wfsample.benchmarks;
+
+import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.FaultInjectionConfig;
+import com.wfsample.common.FaultInjector;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the helpers every service calls on each request to pick its simulated latency and
+ * whether to fail it. The contended benchmarks draw from 4 threads at once, latencies from a
+ * {@link Random} they share as the services used to and from a {@link LatencyDistribution}, and
+ * faults from a {@link FaultInjector}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeachShirtsUtilsBenchmark {
+  private final Random rand = new Random(42);
+
+  @Benchmark
+  public long getRequestLatency() {
+    return BeachShirtsUtils.getRequestLatency(20, 10, rand);
+  }
+
+  @Benchmark
+  public long latencyModel(Shared shared) {
+    return BeachShirtsUtils.getRequestLatency(shared.latency);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long sharedRandomContended(Shared shared) {
+    return BeachShirtsUtils.getRequestLatency(20, 10, shared.rand);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long latencyModelContended(Shared shared) {
+    return BeachShirtsUtils.getRequestLatency(shared.latency);
+  }
+
+  @Benchmark
+  public boolean faultDecision(Shared shared) {
+    return shared.fault.nextError();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean faultDecisionContended(Shared shared) {
+    return shared.fault.nextError();
+  }
+
+  /**
+   * Latency sources and faults shared by all benchmark threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Shared {
+    final Random rand = new Random(42);
+    final LatencyModel latency = LatencyDistribution.normal(20, 10, new PerThreadRandom(42));
+    FaultInjector injector;
+    FaultInjector.Fault fault;
+
+    @Setup
+    public void setUp() throws IOException {
+      File rules = File.createTempFile("faults", ".yaml");
+      rules.deleteOnExit();
+      Files.write(rules.toPath(), Arrays.asList("rules:", "  Printing:", "    errorRate: 0.02"),
+          StandardCharsets.UTF_8);
+      injector = new FaultInjector(new FaultInjectionConfig(rules.getPath(), 0));
+      fault = injector.forRoute("Printing", "Printing/printShirts");
+    }
+
+    @TearDown
+    public void tearDown() {
+      injector.close();
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.wfsample.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module with the GC profiler enabled, so every result is reported
+ * along with the bytes allocated per operation and the GC time it caused. Takes the usual JMH
+ * command line, e.g. a regex selecting the benchmarks to run:
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks-0.9.0-SNAPSHOT.jar DtoSerialization -p shirts=1000
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp() || commandLine.shouldList() ||
+        commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+      // nothing to run, JMH prints what was asked for.
+      Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (commandLine.getProfilers().stream().noneMatch(profiler ->
+        profiler.getKlass().equals("gc") ||
+            profiler.getKlass().equals(GCProfiler.class.getName()))) {
+      options.addProfiler(GCProfiler.class);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,94 @@
+package com.wfsample.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.wfsample.common.dto.OrderDTO;
+import com.wfsample.common.dto.PackedShirtsDTO;
+import com.wfsample.common.dto.ShirtDTO;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.jackson.Jackson;
+
+/**
+ * Measures the JSON encoding and decoding of the DTOs exchanged between shopping and styling,
+ * with the object mapper Dropwizard configures for the services. The order sizes are those of
+ * the load generator's orders plus a large one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DtoSerializationBenchmark {
+
+  @Param({"8", "35", "45", "1000"})
+  int shirts;
+
+  private ObjectWriter orderWriter;
+  private ObjectReader orderReader;
+  private ObjectWriter packedShirtsWriter;
+  private ObjectReader packedShirtsReader;
+  private OrderDTO order;
+  private PackedShirtsDTO packedShirts;
+  private byte[] orderJson;
+  private byte[] packedShirtsJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    ObjectMapper mapper = Jackson.newObjectMapper();
+    orderWriter = mapper.writerFor(OrderDTO.class);
+    orderReader = mapper.readerFor(OrderDTO.class);
+    packedShirtsWriter = mapper.writerFor(PackedShirtsDTO.class);
+    packedShirtsReader = mapper.readerFor(PackedShirtsDTO.class);
+
+    order = new OrderDTO();
+    order.setStyleName("style" + shirts);
+    order.setQuantity(shirts);
+    List<ShirtDTO> shirtList = new ArrayList<>(shirts);
+    for (int i = 0; i < shirts; i++) {
+      shirtList.add(new ShirtDTO(new ShirtStyleDTO("style" + shirts, "style" + shirts + "Image")));
+    }
+    packedShirts = new PackedShirtsDTO(shirtList);
+    orderJson = orderWriter.writeValueAsBytes(order);
+    packedShirtsJson = packedShirtsWriter.writeValueAsBytes(packedShirts);
+  }
+
+  @Benchmark
+  public byte[] serializeOrder() throws IOException {
+    return orderWriter.writeValueAsBytes(order);
+  }
+
+  @Benchmark
+  public OrderDTO deserializeOrder() throws IOException {
+    return orderReader.readValue(orderJson);
+  }
+
+  @Benchmark
+  public byte[] serializePackedShirts() throws IOException {
+    return packedShirtsWriter.writeValueAsBytes(packedShirts);
+  }
+
+  @Benchmark
+  public PackedShirtsDTO deserializePackedShirts() throws IOException {
+    return packedShirtsReader.readValue(packedShirtsJson);
+  }
+}
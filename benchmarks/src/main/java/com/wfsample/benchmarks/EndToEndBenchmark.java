@@ -0,0 +1,290 @@
+package com.wfsample.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+import com.wfsample.common.BeachShirtsUtils;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Measures the whole order path, shopping to styling to printing and packaging to delivery, with
+ * every service running in this JVM, see {@link InProcessServices}. A fixed number of clients
+ * order shirts back to back through /api/shop/order, first to warm up and then for the measured
+ * period, after which the throughput, latency percentiles, bytes allocated per order by all
+ * threads of the JVM and the GC activity are printed. The results can also be written as JSON,
+ * to compare a change against a baseline run with the same options.
+ *
+ * Run it from the root directory of the project, which holds the services' configuration:
+ *
+ * <pre>
+ * java -cp ./benchmarks/target/benchmarks-0.9.0-SNAPSHOT.jar \
+ *     com.wfsample.benchmarks.EndToEndBenchmark --concurrency=32 --no-latency
+ * </pre>
+ *
+ * Options are {@code --concurrency=<clients>} (default 16), {@code --shirts=<per order>}
+ * (default 8), {@code --warmup=<seconds>} (default 10), {@code --duration=<seconds>} (default
+ * 30), {@code --no-latency} to skip the latencies the services simulate, so only their own cost
+ * is measured, and {@code --json-report=<file>}. Errors the services inject are left on and
+ * counted separately. The services' own output is discarded while they run.
+ */
+public class EndToEndBenchmark {
+  private static final MediaType JSON = MediaType.get("application/json");
+  private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50Ms", "p90Ms", "p99Ms", "p999Ms"};
+
+  private final OkHttpClient client;
+  private final String orderUrl;
+  private final String orderBody;
+  private final Recorder latencies = new Recorder(3);
+  // failed orders by HTTP status, 0 when no response was received.
+  private final ConcurrentMap<Integer, LongAdder> failures = new ConcurrentHashMap<>();
+  private volatile boolean running = true;
+
+  EndToEndBenchmark(String shoppingUrl, int concurrency, int shirts) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(concurrency);
+    dispatcher.setMaxRequestsPerHost(concurrency);
+    this.client = new OkHttpClient.Builder().
+        dispatcher(dispatcher).
+        connectionPool(new ConnectionPool(concurrency, 5, TimeUnit.MINUTES)).
+        readTimeout(2, TimeUnit.MINUTES).
+        build();
+    this.orderUrl = shoppingUrl + "/shop/order";
+    this.orderBody = "{\"styleName\" : \"style1\",\"quantity\" : " + shirts + "}";
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parseOptions(args);
+    int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+    int shirts = Integer.parseInt(options.getOrDefault("shirts", "8"));
+    long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "10"));
+    long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+    boolean latencyInjected = !options.containsKey("no-latency");
+    BeachShirtsUtils.setLatencyInjected(latencyInjected);
+
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+    out.println("starting services");
+    Result result;
+    try (InProcessServices services = new InProcessServices(new File("."))) {
+      EndToEndBenchmark benchmark = new EndToEndBenchmark(services.getShoppingUrl(),
+          concurrency, shirts);
+      out.println("ordering " + shirts + " shirts from " + concurrency + " clients, latency " +
+          "injection " + (latencyInjected ? "on" : "off") + ", warming up for " + warmupSeconds +
+          "s");
+      result = benchmark.run(concurrency, warmupSeconds, durationSeconds);
+    } finally {
+      System.setOut(out);
+    }
+    result.print(out);
+    if (options.containsKey("json-report")) {
+      ObjectNode report = result.toJson();
+      report.put("concurrency", concurrency);
+      report.put("shirts", shirts);
+      report.put("latencyInjected", latencyInjected);
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(
+          new File(options.get("json-report")), report);
+    }
+  }
+
+  /**
+   * Parses {@code --name=value} (or bare {@code --name}) options.
+   */
+  static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("unrecognized argument: " + arg);
+      }
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        options.put(arg.substring(2), "true");
+      } else {
+        options.put(arg.substring(2, eq), arg.substring(eq + 1));
+      }
+    }
+    return options;
+  }
+
+  Result run(int concurrency, long warmupSeconds, long durationSeconds)
+      throws InterruptedException {
+    List<Thread> clients = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      Thread thread = new Thread(this::orderShirts, "e2e-client-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      clients.add(thread);
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+    latencies.reset();
+    failures.clear();
+    long startAllocated = allocatedBytes();
+    long[] startGc = gcCountAndMillis();
+    long startNanos = System.nanoTime();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+    Histogram histogram = latencies.getIntervalHistogram();
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long allocated = allocatedBytes() - startAllocated;
+    long[] endGc = gcCountAndMillis();
+    Map<Integer, Long> failed = new HashMap<>();
+    failures.forEach((status, count) -> failed.put(status, count.sum()));
+    running = false;
+    for (Thread client : clients) {
+      client.join(TimeUnit.MINUTES.toMillis(2));
+    }
+    return new Result(histogram, failed, elapsedNanos, allocated, endGc[0] - startGc[0],
+        endGc[1] - startGc[1]);
+  }
+
+  private void orderShirts() {
+    Request request = new Request.Builder().url(orderUrl).
+        post(RequestBody.create(orderBody, JSON)).build();
+    while (running) {
+      long start = System.nanoTime();
+      int status;
+      try (Response response = client.newCall(request).execute()) {
+        ByteStreams.exhaust(response.body().byteStream());
+        status = response.code();
+      } catch (IOException e) {
+        status = 0;
+      }
+      if (status >= 200 && status < 300) {
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      } else {
+        failures.computeIfAbsent(status, s -> new LongAdder()).increment();
+      }
+    }
+  }
+
+  /**
+   * @return bytes allocated so far by the live threads of the JVM, or -1 if not measurable.
+   * Threads come and go little once the services are warmed up, so the difference over the
+   * measured period is close to what was allocated meanwhile.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) ||
+        !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    long total = 0;
+    for (long allocated : ((com.sun.management.ThreadMXBean) threadMXBean).
+        getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+      if (allocated > 0) {
+        total += allocated;
+      }
+    }
+    return total;
+  }
+
+  private static long[] gcCountAndMillis() {
+    long[] gc = new long[2];
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gc[0] += Math.max(0, collector.getCollectionCount());
+      gc[1] += Math.max(0, collector.getCollectionTime());
+    }
+    return gc;
+  }
+
+  /**
+   * Outcome of the measured period.
+   */
+  static class Result {
+    private final Histogram latencies;
+    private final Map<Integer, Long> failures;
+    private final long elapsedNanos;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    Result(Histogram latencies, Map<Integer, Long> failures, long elapsedNanos,
+           long allocatedBytes, long gcCount, long gcMillis) {
+      this.latencies = latencies;
+      this.failures = failures;
+      this.elapsedNanos = elapsedNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.gcCount = gcCount;
+      this.gcMillis = gcMillis;
+    }
+
+    long getOrders() {
+      return latencies.getTotalCount();
+    }
+
+    double getOrdersPerSecond() {
+      return getOrders() * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+    }
+
+    /**
+     * @return bytes allocated per successful order, or -1 if not measurable.
+     */
+    long getAllocatedBytesPerOrder() {
+      return allocatedBytes < 0 || getOrders() == 0 ? -1 : allocatedBytes / getOrders();
+    }
+
+    void print(PrintStream out) {
+      out.println(String.format("%9s %9s %9s %9s %9s %9s %9s %9s", "orders", "orders/s",
+          "failed", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+      long failed = 0;
+      for (long count : failures.values()) {
+        failed += count;
+      }
+      out.println(String.format("%9d %9.1f %9d %9.1f %9.1f %9.1f %9.1f %9.1f", getOrders(),
+          getOrdersPerSecond(), failed,
+          latencies.getValueAtPercentile(50.0) / 1000.0,
+          latencies.getValueAtPercentile(90.0) / 1000.0,
+          latencies.getValueAtPercentile(99.0) / 1000.0,
+          latencies.getValueAtPercentile(99.9) / 1000.0,
+          latencies.getMaxValue() / 1000.0));
+      if (!failures.isEmpty()) {
+        out.println("failed orders by status (0 is no response): " + failures);
+      }
+      out.println("allocated per order: " + (getAllocatedBytesPerOrder() < 0 ? "n/a" :
+          getAllocatedBytesPerOrder() / 1024 + " KB") + ", gc: " + gcCount + " collections, " +
+          gcMillis + " ms");
+    }
+
+    ObjectNode toJson() {
+      ObjectNode node = new ObjectMapper().createObjectNode();
+      node.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+      node.put("orders", getOrders());
+      node.put("ordersPerSecond", getOrdersPerSecond());
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        node.put(PERCENTILE_NAMES[i], latencies.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+      }
+      node.put("maxMs", latencies.getMaxValue() / 1000.0);
+      ObjectNode failed = node.putObject("failures");
+      failures.forEach((status, count) -> failed.put(String.valueOf(status), count));
+      node.put("allocatedBytesPerOrder", getAllocatedBytesPerOrder());
+      node.put("gcCount", gcCount);
+      node.put("gcMillis", gcMillis);
+      return node;
+    }
+  }
+}
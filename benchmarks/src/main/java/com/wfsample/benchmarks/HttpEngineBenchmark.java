@@ -0,0 +1,114 @@
+package com.wfsample.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wfsample.common.HttpClientConfig;
+import com.wfsample.common.HttpClientPool;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Compares the apache and okhttp_h2c engines of {@link HttpClientPool} by having a number of
+ * threads make REST calls through a shared proxy against a local {@link EchoServer}, and prints
+ * the peak number of connections the server saw along with the call latency percentiles. Start it
+ * with
+ *
+ * <pre>
+ * java -cp ./benchmarks/target/benchmarks-0.9.0-SNAPSHOT.jar \
+ *     com.wfsample.benchmarks.HttpEngineBenchmark [threads] [callsPerThread] [serverDelayMs]
+ * </pre>
+ */
+public class HttpEngineBenchmark {
+
+  /**
+   * The echo endpoint of {@link EchoServer}.
+   */
+  public interface EchoApi {
+    @POST
+    @Path("echo")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    ShirtStyleDTO echo(ShirtStyleDTO style);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int callsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+    try (EchoServer server = new EchoServer(delayMillis)) {
+      for (HttpClientConfig.Engine engine : HttpClientConfig.Engine.values()) {
+        // a first round warms up the client, the server and the JIT.
+        run(server, engine, threads, Math.max(1, callsPerThread / 10));
+        System.out.println(engine + ": " + run(server, engine, threads, callsPerThread));
+      }
+    }
+  }
+
+  private static String run(EchoServer server, HttpClientConfig.Engine engine, int threads,
+                            int callsPerThread) throws Exception {
+    HttpClientConfig config = new ObjectMapper().readValue(
+        "{\"engine\": \"" + engine + "\", \"maxConnTotal\": " + threads * 2 +
+            ", \"maxConnPerRoute\": " + threads * 2 + "}", HttpClientConfig.class);
+    HttpClientPool pool = new HttpClientPool(config);
+    ResteasyClient client = new ResteasyClientBuilderImpl().
+        register(ResteasyJackson2Provider.class).httpEngine(pool.newEngine()).build();
+    EchoApi echoApi = client.target(server.url()).proxy(EchoApi.class);
+    AtomicInteger peakConnections = new AtomicInteger(0);
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    sampler.scheduleAtFixedRate(() -> peakConnections.accumulateAndGet(server.connections(),
+        Math::max), 0, 10, TimeUnit.MILLISECONDS);
+    long[] latencies = new long[threads * callsPerThread];
+    AtomicInteger errors = new AtomicInteger(0);
+    CountDownLatch done = new CountDownLatch(threads);
+    ShirtStyleDTO style = new ShirtStyleDTO("style1", "style1Image");
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      int offset = t * callsPerThread;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < callsPerThread; i++) {
+          long callStart = System.nanoTime();
+          try {
+            echoApi.echo(style);
+          } catch (RuntimeException e) {
+            errors.incrementAndGet();
+          }
+          latencies[offset + i] = System.nanoTime() - callStart;
+        }
+        done.countDown();
+      });
+      thread.start();
+    }
+    done.await();
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    sampler.shutdownNow();
+    client.close();
+    pool.close();
+    // let the server notice the closed connections before the next round.
+    Thread.sleep(500);
+    Arrays.sort(latencies);
+    return String.format("%d calls in %d ms, %d errors, peak connections %d, " +
+            "latency ms p50 %.1f p99 %.1f p99.9 %.1f max %.1f", latencies.length, elapsedMillis,
+        errors.get(), peakConnections.get(), percentile(latencies, 0.5),
+        percentile(latencies, 0.99), percentile(latencies, 0.999),
+        latencies[latencies.length - 1] / 1e6);
+  }
+
+  private static double percentile(long[] sorted, double quantile) {
+    return sorted[(int) Math.min(sorted.length - 1, sorted.length * quantile)] / 1e6;
+  }
+}
@@ -0,0 +1,196 @@
+package com.wfsample.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.io.ByteStreams;
+import com.wfsample.common.DropwizardServiceConfig;
+import com.wfsample.common.GrpcServiceConfig;
+import com.wfsample.delivery.DeliveryService;
+import com.wfsample.packaging.PackagingService;
+import com.wfsample.printing.PrintingService;
+import com.wfsample.shopping.ShoppingService;
+import com.wfsample.styling.GrpcChannelPool;
+import com.wfsample.styling.StylingService;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.Application;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+/**
+ * Runs every beachshirts service in this JVM: printing and packaging on in-process gRPC servers
+ * that styling calls through {@link GrpcChannelPool#IN_PROCESS_PREFIX} addresses, and shopping,
+ * styling and delivery on ephemeral loopback ports. Each service is configured by the same files
+ * as when deployed, which are looked up relative to the root directory of the project, except
+ * for its ports and telemetry. Telemetry is reported through a Wavefront proxy connection to a
+ * local sink discarding it, so its cost is included without anything being sent.
+ */
+class InProcessServices implements Closeable {
+  private final TelemetrySink telemetrySink;
+  private final File wfReportingConfig;
+  private final Server printing;
+  private final Server packaging;
+  private final ConfigurableApplicationContext delivery;
+  private final DropwizardTestSupport<DropwizardServiceConfig> styling;
+  private final DropwizardTestSupport<DropwizardServiceConfig> shopping;
+
+  /**
+   * Starts the services in order of their dependencies, shopping last.
+   *
+   * @param root root directory of the project.
+   */
+  InProcessServices(File root) throws Exception {
+    telemetrySink = new TelemetrySink();
+    wfReportingConfig = File.createTempFile("wfReportingConfig", ".yaml");
+    wfReportingConfig.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(wfReportingConfig, "UTF-8")) {
+      writer.println("reportingMechanism: proxy");
+      writer.println("proxyHost: " + InetAddress.getLoopbackAddress().getHostAddress());
+      writer.println("proxyMetricsPort: " + telemetrySink.getPort());
+      writer.println("proxyDistributionsPort: " + telemetrySink.getPort());
+      writer.println("proxyTracingPort: " + telemetrySink.getPort());
+      writer.println("reportTraces: true");
+    }
+    String printingName = "printing-" + InProcessServerBuilder.generateName();
+    printing = PrintingService.newServer(grpcConfig(root, "printing"),
+        InProcessServerBuilder.forName(printingName)).start();
+    String packagingName = "packaging-" + InProcessServerBuilder.generateName();
+    packaging = PackagingService.newServer(grpcConfig(root, "packaging"),
+        InProcessServerBuilder.forName(packagingName)).start();
+    // as arguments, so they take precedence over delivery's application.yml.
+    delivery = new SpringApplicationBuilder(DeliveryService.class).
+        bannerMode(Banner.Mode.OFF).
+        run("--server.port=0",
+            "--logging.level.root=WARN",
+            "--applicationTagsYamlFile=" + new File(root, "delivery/applicationTags.yaml"),
+            "--wfReportingConfigYamlFile=" + wfReportingConfig,
+            "--faults.rules.file=" + new File(root, "delivery/faults.yaml"));
+    int deliveryPort = ((WebServerApplicationContext) delivery).getWebServer().getPort();
+    styling = dropwizardService(root, StylingService.class, "styling",
+        ConfigOverride.config("styling", "printingAddresses",
+            GrpcChannelPool.IN_PROCESS_PREFIX + printingName),
+        ConfigOverride.config("styling", "packagingAddresses",
+            GrpcChannelPool.IN_PROCESS_PREFIX + packagingName));
+    shopping = dropwizardService(root, ShoppingService.class, "shopping",
+        ConfigOverride.config("shopping", "stylingHost", "localhost"),
+        ConfigOverride.config("shopping", "stylingPort",
+            String.valueOf(styling.getLocalPort())),
+        ConfigOverride.config("shopping", "deliveryHost", "localhost"),
+        ConfigOverride.config("shopping", "deliveryPort", String.valueOf(deliveryPort)));
+  }
+
+  /**
+   * @return base URL of the shopping API.
+   */
+  String getShoppingUrl() {
+    return "http://localhost:" + shopping.getLocalPort() + "/api";
+  }
+
+  private GrpcServiceConfig grpcConfig(File root, String service) throws IOException {
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    ObjectNode config = (ObjectNode) mapper.readTree(new File(root, service + "/app.yaml"));
+    config.put("applicationTagsYamlFile",
+        new File(root, service + "/applicationTags.yaml").getPath());
+    config.put("wfReportingConfigYamlFile", wfReportingConfig.getPath());
+    config.putObject("faultInjection").put("rulesFile",
+        new File(root, service + "/faults.yaml").getPath());
+    return mapper.treeToValue(config, GrpcServiceConfig.class);
+  }
+
+  private DropwizardTestSupport<DropwizardServiceConfig> dropwizardService(
+      File root, Class<? extends Application<DropwizardServiceConfig>> service,
+      String name, ConfigOverride... overrides) throws Exception {
+    ConfigOverride[] all = new ConfigOverride[overrides.length + 6];
+    all[0] = ConfigOverride.config(name, "server.applicationConnectors[0].port", "0");
+    all[1] = ConfigOverride.config(name, "server.adminConnectors[0].port", "0");
+    all[2] = ConfigOverride.config(name, "logging.level", "WARN");
+    all[3] = ConfigOverride.config(name, "applicationTagsYamlFile",
+        new File(root, name + "/applicationTags.yaml").getPath());
+    all[4] = ConfigOverride.config(name, "wfReportingConfigYamlFile",
+        wfReportingConfig.getPath());
+    all[5] = ConfigOverride.config(name, "faultInjection.rulesFile",
+        new File(root, name + "/faults.yaml").getPath());
+    System.arraycopy(overrides, 0, all, 6, overrides.length);
+    DropwizardTestSupport<DropwizardServiceConfig> support = new DropwizardTestSupport<>(service,
+        new File(root, name + "/app.yaml").getPath(), name, all);
+    support.before();
+    return support;
+  }
+
+  @Override
+  public void close() throws IOException {
+    shopping.after();
+    styling.after();
+    delivery.close();
+    printing.shutdownNow();
+    packaging.shutdownNow();
+    try {
+      printing.awaitTermination(5, TimeUnit.SECONDS);
+      packaging.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    telemetrySink.close();
+  }
+
+  /**
+   * Accepts connections from the services' Wavefront senders and discards what they send.
+   */
+  private static class TelemetrySink implements Closeable {
+    private final ServerSocket serverSocket;
+
+    TelemetrySink() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread acceptor = new Thread(this::accept, "telemetry-sink");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          Thread reader = new Thread(() -> discard(socket), "telemetry-sink-reader");
+          reader.setDaemon(true);
+          reader.start();
+        } catch (IOException e) {
+          // closed.
+        }
+      }
+    }
+
+    private static void discard(Socket socket) {
+      try (InputStream in = socket.getInputStream()) {
+        ByteStreams.exhaust(in);
+      } catch (IOException e) {
+        // the sender went away.
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
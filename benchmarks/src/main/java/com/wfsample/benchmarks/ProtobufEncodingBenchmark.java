@@ -0,0 +1,76 @@
+package com.wfsample.benchmarks;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.Shirt;
+import com.wfsample.beachshirts.ShirtStyle;
+import com.wfsample.beachshirts.WrapRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the protobuf encoding and decoding of the messages carrying the shirts of an order
+ * from styling to packaging and back. Building the message is measured along with encoding it,
+ * as styling builds a new one for every order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtobufEncodingBenchmark {
+
+  @Param({"8", "35", "45", "1000"})
+  int shirts;
+
+  private List<Shirt> shirtList;
+  private byte[] wrapRequestBytes;
+  private byte[] packedShirtsBytes;
+
+  @Setup
+  public void setUp() {
+    ShirtStyle style = ShirtStyle.newBuilder().setName("style" + shirts).
+        setImageUrl("style" + shirts + "Image").build();
+    shirtList = new ArrayList<>(shirts);
+    for (int i = 0; i < shirts; i++) {
+      shirtList.add(Shirt.newBuilder().setStyle(style).build());
+    }
+    wrapRequestBytes = encodeWrapRequest();
+    packedShirtsBytes = encodePackedShirts();
+  }
+
+  @Benchmark
+  public byte[] encodeWrapRequest() {
+    return WrapRequest.newBuilder().addAllShirts(shirtList).build().toByteArray();
+  }
+
+  @Benchmark
+  public WrapRequest decodeWrapRequest() throws InvalidProtocolBufferException {
+    return WrapRequest.parseFrom(wrapRequestBytes);
+  }
+
+  @Benchmark
+  public byte[] encodePackedShirts() {
+    return PackedShirts.newBuilder().addAllShirts(shirtList).build().toByteArray();
+  }
+
+  @Benchmark
+  public PackedShirts decodePackedShirts() throws InvalidProtocolBufferException {
+    return PackedShirts.parseFrom(packedShirtsBytes);
+  }
+}
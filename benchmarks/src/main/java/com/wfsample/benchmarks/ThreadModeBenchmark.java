@@ -0,0 +1,135 @@
+package com.wfsample.benchmarks;
+
+import com.wfsample.common.VirtualThreadPool;
+import com.wfsample.common.VirtualThreads;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Compares a server handling requests that block for a while on a bounded pool of platform
+ * threads, as Jetty does by default, with one handling them on virtual threads. The request
+ * concurrency is doubled until the p99 latency exceeds twice the p99 at the lowest concurrency,
+ * and the highest concurrency served without that degradation is printed for each mode. Virtual
+ * threads need Java 21 or later, on earlier versions only the platform threads are measured.
+ * Start it with
+ *
+ * <pre>
+ * java -cp ./benchmarks/target/benchmarks-0.9.0-SNAPSHOT.jar \
+ *     com.wfsample.benchmarks.ThreadModeBenchmark [platformThreads] [blockMs] [maxConcurrency]
+ * </pre>
+ */
+public class ThreadModeBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int platformThreads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    long blockMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+    int maxConcurrency = args.length > 2 ? Integer.parseInt(args[2]) : 6400;
+    System.out.println("virtual threads available: " + VirtualThreads.isAvailable());
+    run("platform(" + platformThreads + ")",
+        new QueuedThreadPool(platformThreads, Math.min(8, platformThreads)), blockMillis,
+        maxConcurrency);
+    if (VirtualThreads.isAvailable()) {
+      run("virtual", new VirtualThreadPool("bench"), blockMillis, maxConcurrency);
+    }
+  }
+
+  private static void run(String mode, ThreadPool threadPool, long blockMillis,
+                          int maxConcurrency) throws Exception {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxConcurrency);
+    dispatcher.setMaxRequestsPerHost(maxConcurrency);
+    // http/2 so the client needs neither a thread nor a connection per request in flight.
+    OkHttpClient client = new OkHttpClient.Builder().
+        protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE)).
+        dispatcher(dispatcher).
+        readTimeout(60, TimeUnit.SECONDS).
+        build();
+    int bestConcurrency = 0;
+    try (EchoServer server = new EchoServer(blockMillis, threadPool)) {
+      Request request = new Request.Builder().url(server.url() + "/").build();
+      // warm up.
+      measure(client, request, 50, 2000);
+      double baselineP99 = 0;
+      for (int concurrency = 50; concurrency <= maxConcurrency; concurrency *= 2) {
+        long[] latencies = measure(client, request, concurrency, concurrency * 10);
+        double p50 = percentile(latencies, 0.5);
+        double p99 = percentile(latencies, 0.99);
+        System.out.printf("%s: concurrency %d p50 %.1f ms p99 %.1f ms%n", mode,
+            concurrency, p50, p99);
+        if (baselineP99 == 0) {
+          baselineP99 = p99;
+        } else if (p99 > 2 * baselineP99) {
+          break;
+        }
+        bestConcurrency = concurrency;
+      }
+    } finally {
+      client.dispatcher().executorService().shutdown();
+      client.connectionPool().evictAll();
+    }
+    System.out.println(mode + ": max concurrency before latency degradation " +
+        bestConcurrency);
+  }
+
+  /**
+   * Keeps the given number of requests in flight until the given total completed.
+   */
+  private static long[] measure(OkHttpClient client, Request request, int concurrency,
+                                int total) throws InterruptedException {
+    long[] latencies = new long[total];
+    Semaphore inFlight = new Semaphore(concurrency);
+    CountDownLatch done = new CountDownLatch(total);
+    AtomicInteger errors = new AtomicInteger(0);
+    for (int i = 0; i < total; i++) {
+      inFlight.acquire();
+      int index = i;
+      long start = System.nanoTime();
+      client.newCall(request).enqueue(new Callback() {
+        @Override
+        public void onFailure(Call call, IOException e) {
+          errors.incrementAndGet();
+          complete();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+          response.close();
+          complete();
+        }
+
+        private void complete() {
+          latencies[index] = System.nanoTime() - start;
+          inFlight.release();
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    if (errors.get() > 0) {
+      System.out.println(errors.get() + " requests failed");
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static double percentile(long[] sorted, double quantile) {
+    return sorted[(int) Math.min(sorted.length - 1, sorted.length * quantile)] / 1e6;
+  }
+}
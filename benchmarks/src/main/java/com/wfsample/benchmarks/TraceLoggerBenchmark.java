@@ -0,0 +1,84 @@
+package com.wfsample.benchmarks;
+
+import com.wfsample.common.TraceLoggerUtil;
+
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopTracerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures logging a trace annotated message with {@link TraceLoggerUtil}, through the JSON
+ * template layout the services log with (see log4j2.xml of this module), with its text as is and
+ * with an argument formatted into it, both written by the calling thread and handed to an Async
+ * appender as in the services. Logged messages allocate, at least the copy of the event's context
+ * data and, through the Async appender, the copy of the event queued for its background thread.
+ * Also measures messages below the logger's level, which should allocate nothing
+ * ({@code gc.alloc.rate.norm} of 0) even when their argument would have to be formatted or the
+ * trace id looked up on the tracer.
+ *
+ * The forked JVM is pinned to log4j-core, as the log4j-to-slf4j bridge Spring Boot brings onto
+ * the shared classpath would otherwise take precedence and log through logback.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend =
+    "-Dlog4j2.loggerContextFactory=org.apache.logging.log4j.core.impl.Log4jContextFactory")
+@State(Scope.Thread)
+public class TraceLoggerBenchmark {
+  private static final Logger logger = LogManager.getLogger(TraceLoggerBenchmark.class);
+  private static final Logger asyncLogger =
+      LogManager.getLogger(TraceLoggerBenchmark.class.getName() + ".async");
+  private static final String TRACE_ID = "9f3c1a2e-7b4d-4c6e-8a1f-2d5e6b7c8d9e";
+  private static final Tracer tracer = NoopTracerFactory.create();
+  private final String style = "hawaiian";
+
+  @Benchmark
+  public void traceLog() {
+    TraceLoggerUtil.traceLog(logger, TRACE_ID, Level.WARN, "failed to pack shirts");
+  }
+
+  @Benchmark
+  public void traceLogParameterized() {
+    TraceLoggerUtil.traceLog(logger, TRACE_ID, Level.WARN, "{} processed!", style);
+  }
+
+  @Benchmark
+  public void traceLogAsync() {
+    TraceLoggerUtil.traceLog(asyncLogger, TRACE_ID, Level.WARN, "failed to pack shirts");
+  }
+
+  @Benchmark
+  public void traceLogParameterizedAsync() {
+    TraceLoggerUtil.traceLog(asyncLogger, TRACE_ID, Level.WARN, "{} processed!", style);
+  }
+
+  @Benchmark
+  public void traceLogDisabledLevel() {
+    TraceLoggerUtil.traceLog(logger, TRACE_ID, Level.DEBUG, "failed to pack shirts");
+  }
+
+  @Benchmark
+  public void traceLogParameterizedDisabledLevel() {
+    TraceLoggerUtil.traceLog(logger, TRACE_ID, Level.DEBUG, "{} processed!", style);
+  }
+
+  @Benchmark
+  public void traceLogTracerDisabledLevel() {
+    TraceLoggerUtil.traceLog(logger, tracer, Level.DEBUG, "{} processed!", style);
+  }
+}
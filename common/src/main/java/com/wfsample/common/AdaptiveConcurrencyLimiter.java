@@ -0,0 +1,168 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many requests a service handles at once, adapting the limit to the latency it
+ * observes in the style of TCP Vegas. The lowest recent latency is taken as the latency without
+ * queueing, and the share of the current latency above it as the number of requests queued
+ * inside the service. While few are queued the limit grows by about log10 of itself per sample,
+ * while many are queued it shrinks by as much, and on every timeout it is cut by 10% so a service
+ * that stopped answering in time recovers quickly. Requests beyond the limit are rejected right
+ * away rather than queued behind the others, so an overloaded service keeps answering the
+ * requests it admits within their usual latency.
+ *
+ * The limit, the requests in flight and the rejected requests are reported to the
+ * {@link MetricRegistry} as {name}.concurrency.limit, {name}.concurrency.inflight and
+ * {name}.concurrency.rejected.
+ */
+public class AdaptiveConcurrencyLimiter {
+  // the lowest latency is tracked over two windows of this many samples, so it follows changes
+  // of the service's latency without forgetting it after a single busy window.
+  private static final int RTT_WINDOW_SAMPLES = 500;
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final Counter rejected = new Counter();
+  private volatile int limit;
+  // guarded by this.
+  private double estimatedLimit;
+  private long previousMinRttNanos = Long.MAX_VALUE;
+  private long currentMinRttNanos = Long.MAX_VALUE;
+  private int windowSamples = 0;
+
+  public AdaptiveConcurrencyLimiter(ConcurrencyLimitConfig config) {
+    this.minLimit = Math.max(1, config.getMinLimit());
+    this.maxLimit = Math.max(minLimit, config.getMaxLimit());
+    this.estimatedLimit = Math.min(maxLimit, Math.max(minLimit, config.getInitialLimit()));
+    this.limit = (int) estimatedLimit;
+  }
+
+  /**
+   * Admission to handle one request, to be released exactly once when the request is done.
+   */
+  public final class Permit {
+    private final long startNanos = System.nanoTime();
+    private final int inFlightAtStart;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Permit(int inFlightAtStart) {
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /**
+     * The request was handled, its latency is taken into account.
+     */
+    public void onSuccess() {
+      if (release()) {
+        onSample(System.nanoTime() - startNanos, inFlightAtStart, false);
+      }
+    }
+
+    /**
+     * The request timed out, a sign of overload that cuts the limit.
+     */
+    public void onDropped() {
+      if (release()) {
+        onSample(System.nanoTime() - startNanos, inFlightAtStart, true);
+      }
+    }
+
+    /**
+     * The request ended in a way that says nothing about the load, e.g. it failed early or was
+     * cancelled by the client.
+     */
+    public void onIgnore() {
+      release();
+    }
+
+    private boolean release() {
+      if (released.compareAndSet(false, true)) {
+        inFlight.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return a permit to handle the request, or null if the service is at its limit and the
+   * request should be rejected.
+   */
+  public Permit tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        rejected.inc();
+        return null;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return new Permit(current + 1);
+      }
+    }
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getRejected() {
+    return rejected.getCount();
+  }
+
+  public AdaptiveConcurrencyLimiter registerMetrics(String name, MetricRegistry metrics) {
+    metrics.register(MetricRegistry.name(name, "concurrency", "limit"),
+        (Gauge<Integer>) this::getLimit);
+    metrics.register(MetricRegistry.name(name, "concurrency", "inflight"),
+        (Gauge<Integer>) this::getInFlight);
+    metrics.register(MetricRegistry.name(name, "concurrency", "rejected"), rejected);
+    return this;
+  }
+
+  /**
+   * Adjusts the limit to the latency of a completed request.
+   *
+   * @param inFlightAtStart requests in flight when the request was admitted, including itself.
+   * @param dropped whether the request timed out.
+   */
+  synchronized void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+    if (dropped) {
+      setLimit(estimatedLimit * BACKOFF_RATIO);
+      return;
+    }
+    if (++windowSamples >= RTT_WINDOW_SAMPLES) {
+      previousMinRttNanos = currentMinRttNanos;
+      currentMinRttNanos = Long.MAX_VALUE;
+      windowSamples = 0;
+    }
+    currentMinRttNanos = Math.min(currentMinRttNanos, Math.max(1, rttNanos));
+    long minRttNanos = Math.min(previousMinRttNanos, currentMinRttNanos);
+    // a service using less than half its limit says little about what it could take.
+    if (inFlightAtStart * 2 < estimatedLimit) {
+      return;
+    }
+    double queued = estimatedLimit * (1 - (double) minRttNanos / Math.max(1, rttNanos));
+    double step = Math.max(1, Math.log10(estimatedLimit));
+    if (queued <= 3 * step) {
+      setLimit(estimatedLimit + step);
+    } else if (queued >= 6 * step) {
+      setLimit(estimatedLimit - step);
+    }
+  }
+
+  private void setLimit(double newLimit) {
+    estimatedLimit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+    limit = (int) estimatedLimit;
+  }
+}
@@ -0,0 +1,114 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Measures the bytes allocated by the threads handling each gRPC server call and reports them
+ * per method as a histogram of the service's {@link MetricRegistry}, e.g.
+ * grpc.server.Packaging.giftWrap.allocated.bytes. Calls are passed through untouched if the JVM
+ * can't measure per thread allocations.
+ */
+public class AllocationInterceptor implements ServerInterceptor {
+  private final MetricRegistry metrics;
+  // null when thread allocation measurement is not available.
+  private final com.sun.management.ThreadMXBean threads;
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  public AllocationInterceptor(MetricRegistry metrics) {
+    this.metrics = metrics;
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported() &&
+        ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled()) {
+      this.threads = (com.sun.management.ThreadMXBean) threadMXBean;
+    } else {
+      this.threads = null;
+    }
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    if (threads == null) {
+      return next.startCall(call, headers);
+    }
+    Histogram histogram = histograms.computeIfAbsent(
+        call.getMethodDescriptor().getFullMethodName(), method -> metrics.histogram(
+            "grpc.server." + method.replace('/', '.') + ".allocated.bytes"));
+    long start = allocatedBytes();
+    ServerCall.Listener<ReqT> listener = next.startCall(call, headers);
+    return new MeasuringListener<>(listener, histogram, allocatedBytes() - start);
+  }
+
+  private long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Adds up the allocations of every callback of a call, gRPC never runs them concurrently.
+   */
+  private class MeasuringListener<ReqT> extends
+      ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT> {
+    private final Histogram histogram;
+    private long allocated;
+
+    MeasuringListener(ServerCall.Listener<ReqT> delegate, Histogram histogram, long allocated) {
+      super(delegate);
+      this.histogram = histogram;
+      this.allocated = allocated;
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+      long start = allocatedBytes();
+      try {
+        super.onMessage(message);
+      } finally {
+        allocated += allocatedBytes() - start;
+      }
+    }
+
+    @Override
+    public void onHalfClose() {
+      long start = allocatedBytes();
+      try {
+        super.onHalfClose();
+      } finally {
+        allocated += allocatedBytes() - start;
+      }
+    }
+
+    @Override
+    public void onReady() {
+      long start = allocatedBytes();
+      try {
+        super.onReady();
+      } finally {
+        allocated += allocatedBytes() - start;
+      }
+    }
+
+    @Override
+    public void onCancel() {
+      super.onCancel();
+      histogram.update(allocated);
+    }
+
+    @Override
+    public void onComplete() {
+      super.onComplete();
+      histogram.update(allocated);
+    }
+  }
+}
@@ -4,18 +4,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLParser;
 import com.wavefront.sdk.jaxrs.client.WavefrontJaxrsClientFilter;
-import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
-import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient43Engine;
 import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
 import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utilities for use by the various beachshirts application related services.
@@ -24,16 +20,49 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public final class BeachShirtsUtils {
 
+  // created on first use, so services passing their own client never start it.
+  private static final class DefaultPool {
+    static final HttpClientPool POOL = new HttpClientPool(new HttpClientConfig());
+  }
+
+  // the latencies simulated by the services are skipped when false.
+  private static volatile boolean latencyInjected = true;
+
   private BeachShirtsUtils() {
   }
 
+  /**
+   * Turns the latencies simulated by every service of this JVM on or off. They are on unless
+   * turned off, e.g. by the in-process benchmark to measure the cost of the services themselves.
+   */
+  public static void setLatencyInjected(boolean injected) {
+    latencyInjected = injected;
+  }
+
+  public static boolean isLatencyInjected() {
+    return latencyInjected;
+  }
+
+  /**
+   * Creates a REST proxy on the HTTP client pool shared by all proxies created this way, sized by
+   * the {@link HttpClientConfig} defaults.
+   */
   public static <T> T createProxyClient(String url, Class<T> clazz,
                                         WavefrontJaxrsClientFilter filter) {
-    HttpClient httpClient = HttpClientBuilder.create().setMaxConnTotal(2000).
-        setMaxConnPerRoute(1000).build();
-    ApacheHttpClient43Engine apacheHttpClient4Engine = new ApacheHttpClient43Engine(httpClient, true);
+    return createProxyClient(url, clazz, filter, DefaultPool.POOL);
+  }
+
+  /**
+   * Creates a REST proxy making its calls through the given pool, which is expected to be shared
+   * with the other proxies of the service and isn't closed along with the proxy. Asynchronous
+   * calls run on the pool's bounded executor.
+   */
+  public static <T> T createProxyClient(String url, Class<T> clazz,
+                                        WavefrontJaxrsClientFilter filter,
+                                        HttpClientPool httpClientPool) {
     ResteasyClient resteasyClient = new ResteasyClientBuilderImpl().register(ResteasyJackson2Provider.class).
-        httpEngine(apacheHttpClient4Engine).register(filter).build();
+        httpEngine(httpClientPool.newEngine()).register(filter).
+        executorService(httpClientPool.asyncExecutor(), false).build();
     ResteasyWebTarget target = resteasyClient.target(url);
     return target.proxy(clazz);
   }
@@ -51,13 +80,29 @@ public final class BeachShirtsUtils {
     return config;
   }
 
-  public static boolean isErrorRequest(AtomicInteger index, int globalErrorInterval,
-                                       int defaultErrorInterval) {
-    return index.incrementAndGet() %
-        (globalErrorInterval > 0 ? globalErrorInterval : defaultErrorInterval) == 0;
+  /**
+   * @return the given simulated latency, or 0 when latencies are not injected.
+   */
+  public static long getFixedLatency(long millis) {
+    return latencyInjected ? millis : 0;
   }
 
+  /**
+   * @return the next latency of the model, or 0 when latencies are not injected.
+   */
+  public static long getRequestLatency(LatencyModel model) {
+    return latencyInjected ? model.nextMillis() : 0;
+  }
+
+  /**
+   * Draws from a {@link Random} shared by the calling threads, prefer
+   * {@link #getRequestLatency(LatencyModel)} with a {@link LatencyDistribution}, which doesn't
+   * make them contend.
+   */
   public static long getRequestLatency(long mean, long delta, Random rand) {
+    if (!latencyInjected) {
+      return 0;
+    }
     double r = rand.nextGaussian();
     while (r > 1 || r < -1) {
       // Generate the normally distributed value with mean of 0.0, standard deviation of 1.0 and
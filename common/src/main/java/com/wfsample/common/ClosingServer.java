@@ -0,0 +1,150 @@
+package com.wfsample.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+
+/**
+ * A gRPC server that closes what its service set up alongside it, e.g. its telemetry reporters
+ * and fault injector, once it's shut down, so that a service can be stopped as a whole by
+ * shutting down its server. The resources are closed only after the server terminated, as calls
+ * still in flight after a shutdown keep using them, whether or not anyone awaits the termination.
+ * They are closed in the order they were added, each one even if closing a previous one failed.
+ */
+public class ClosingServer extends Server {
+  static Logger logger = LogManager.getLogger(ClosingServer.class);
+
+  private final Server server;
+  private final List<AutoCloseable> resources = new ArrayList<>();
+  private final AtomicBoolean shutdown = new AtomicBoolean();
+  // guarded by this.
+  private boolean closed;
+
+  public ClosingServer(Server server) {
+    this.server = server;
+  }
+
+  /**
+   * Adds a resource to close once the server is shut down.
+   */
+  public ClosingServer closing(AutoCloseable resource) {
+    resources.add(resource);
+    return this;
+  }
+
+  @Override
+  public ClosingServer start() throws IOException {
+    server.start();
+    return this;
+  }
+
+  @Override
+  public int getPort() {
+    return server.getPort();
+  }
+
+  @Override
+  public List<? extends SocketAddress> getListenSockets() {
+    return server.getListenSockets();
+  }
+
+  @Override
+  public List<ServerServiceDefinition> getServices() {
+    return server.getServices();
+  }
+
+  @Override
+  public List<ServerServiceDefinition> getImmutableServices() {
+    return server.getImmutableServices();
+  }
+
+  @Override
+  public List<ServerServiceDefinition> getMutableServices() {
+    return server.getMutableServices();
+  }
+
+  @Override
+  public ClosingServer shutdown() {
+    server.shutdown();
+    closeOnTermination();
+    return this;
+  }
+
+  @Override
+  public ClosingServer shutdownNow() {
+    server.shutdownNow();
+    closeOnTermination();
+    return this;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return server.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return server.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!server.awaitTermination(timeout, unit)) {
+      return false;
+    }
+    closeResources();
+    return true;
+  }
+
+  @Override
+  public void awaitTermination() throws InterruptedException {
+    server.awaitTermination();
+    closeResources();
+  }
+
+  /**
+   * Closes the resources once the server terminated, on a thread of its own in case no one
+   * awaits the termination.
+   */
+  private void closeOnTermination() {
+    if (!shutdown.compareAndSet(false, true)) {
+      return;
+    }
+    Thread closer = new Thread(() -> {
+      try {
+        awaitTermination();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "closing-server");
+    closer.setDaemon(true);
+    closer.start();
+  }
+
+  /**
+   * Closes the resources unless already closed, returning once they are even if another thread
+   * is closing them.
+   */
+  private synchronized void closeResources() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (AutoCloseable resource : resources) {
+      try {
+        resource.close();
+      } catch (Exception e) {
+        logger.warn("failed to close " + resource + ": " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings of the adaptive limit on the number of requests a service handles at once, see
+ * {@link AdaptiveConcurrencyLimiter}.
+ */
+public class ConcurrencyLimitConfig {
+
+  /**
+   * Whether requests beyond the limit are rejected.
+   */
+  @JsonProperty
+  private boolean enabled = true;
+
+  /**
+   * Limit to start from until enough latency samples have been seen.
+   */
+  @JsonProperty
+  private int initialLimit = 100;
+
+  /**
+   * The limit never drops below this, so a service under pressure still serves some requests.
+   */
+  @JsonProperty
+  private int minLimit = 20;
+
+  /**
+   * The limit never grows beyond this.
+   */
+  @JsonProperty
+  private int maxLimit = 1000;
+
+  public ConcurrencyLimitConfig() {
+  }
+
+  public ConcurrencyLimitConfig(boolean enabled, int initialLimit, int minLimit, int maxLimit) {
+    this.enabled = enabled;
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getInitialLimit() {
+    return initialLimit;
+  }
+
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+}
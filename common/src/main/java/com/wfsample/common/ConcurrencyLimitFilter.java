@@ -0,0 +1,99 @@
+package com.wfsample.common;
+
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Rejects requests with 503 Service Unavailable while the service is at the limit of its
+ * {@link AdaptiveConcurrencyLimiter}. The permit of an admitted request is released once Jersey
+ * has finished with it, including asynchronous requests resumed later and requests that failed
+ * with an exception. Runs after the tracing filters so rejected requests are still traced.
+ *
+ * The permit is handed from the filter to the request's event listener before the response is
+ * written: once an asynchronous request completes, the servlet container recycles the request,
+ * so its properties are gone by the time Jersey reports it finished.
+ *
+ * Timeouts (504) cut the limit, other server errors are left out of the latency samples as the
+ * services fail some requests on purpose.
+ */
+@Priority(Priorities.USER + 100)
+public class ConcurrencyLimitFilter implements ContainerRequestFilter, ApplicationEventListener {
+  private static final String PERMIT = ConcurrencyLimitFilter.class.getName() + ".permit";
+
+  private final AdaptiveConcurrencyLimiter limiter;
+
+  public ConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter) {
+    this.limiter = limiter;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+    if (permit == null) {
+      requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).
+          header(HttpHeaders.RETRY_AFTER, 1).build());
+      return;
+    }
+    requestContext.setProperty(PERMIT, permit);
+  }
+
+  @Override
+  public void onEvent(ApplicationEvent event) {
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    return new ReleaseOnFinish();
+  }
+
+  /**
+   * Takes the permit of its request once the filters have run and releases it when the request
+   * is finished.
+   */
+  private static class ReleaseOnFinish implements RequestEventListener {
+    private AdaptiveConcurrencyLimiter.Permit permit;
+
+    @Override
+    public void onEvent(RequestEvent event) {
+      switch (event.getType()) {
+        case REQUEST_FILTERED:
+        case RESP_FILTERS_START:
+        case ON_EXCEPTION:
+          if (permit == null) {
+            permit = (AdaptiveConcurrencyLimiter.Permit) event.getContainerRequest().
+                getProperty(PERMIT);
+          }
+          break;
+        case FINISHED:
+          if (permit != null) {
+            release(permit, event.getContainerResponse());
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private static void release(AdaptiveConcurrencyLimiter.Permit permit,
+                              ContainerResponse response) {
+    int status = response == null ? 500 : response.getStatus();
+    if (status == Response.Status.GATEWAY_TIMEOUT.getStatusCode()) {
+      permit.onDropped();
+    } else if (status >= 500) {
+      permit.onIgnore();
+    } else {
+      permit.onSuccess();
+    }
+  }
+}
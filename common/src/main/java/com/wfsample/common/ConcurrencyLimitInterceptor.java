@@ -0,0 +1,75 @@
+package com.wfsample.common;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Fails calls with RESOURCE_EXHAUSTED while the service is at the limit of its
+ * {@link AdaptiveConcurrencyLimiter}. The permit of an admitted call is released when the call
+ * closes or is cancelled. Only successful unary calls feed their latency to the limiter, as the
+ * duration of a streaming call depends on how much it streams rather than on the load, while
+ * calls exceeding their deadline cut the limit.
+ */
+public class ConcurrencyLimitInterceptor implements ServerInterceptor {
+  private final AdaptiveConcurrencyLimiter limiter;
+
+  public ConcurrencyLimitInterceptor(AdaptiveConcurrencyLimiter limiter) {
+    this.limiter = limiter;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                               Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+    if (permit == null) {
+      call.close(Status.RESOURCE_EXHAUSTED.withDescription("concurrency limit reached"),
+          new Metadata());
+      return new ServerCall.Listener<ReqT>() {
+      };
+    }
+    boolean unary = call.getMethodDescriptor().getType() == MethodDescriptor.MethodType.UNARY;
+    ServerCall.Listener<ReqT> listener;
+    try {
+      listener = next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(
+          call) {
+        @Override
+        public void close(Status status, Metadata trailers) {
+          if (status.getCode() == Status.Code.DEADLINE_EXCEEDED) {
+            permit.onDropped();
+          } else if (unary && status.isOk()) {
+            permit.onSuccess();
+          } else {
+            // the services fail some calls on purpose, which says nothing about the load.
+            permit.onIgnore();
+          }
+          super.close(status, trailers);
+        }
+      }, headers);
+    } catch (RuntimeException e) {
+      permit.onIgnore();
+      throw e;
+    }
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+      @Override
+      public void onCancel() {
+        // the call is cancelled when its deadline passes before it closed.
+        Deadline deadline = Context.current().getDeadline();
+        if (deadline != null && deadline.isExpired()) {
+          permit.onDropped();
+        } else {
+          permit.onIgnore();
+        }
+        super.onCancel();
+      }
+    };
+  }
+}
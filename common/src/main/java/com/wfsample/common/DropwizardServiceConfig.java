@@ -2,6 +2,9 @@ package com.wfsample.common;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import io.dropwizard.Configuration;
 
 /**
@@ -59,6 +62,85 @@ public class DropwizardServiceConfig extends Configuration {
   @JsonProperty
   private String deliveryHost = "deliveryService";
 
+  /**
+   * host:port of each printing service replica, or in-process:name when it runs in the same JVM.
+   * When empty printing is at printingHost and printingPort.
+   */
+  @JsonProperty
+  private List<String> printingAddresses = new ArrayList<>();
+
+  /**
+   * host:port of each packaging service replica, or in-process:name when it runs in the same JVM.
+   * When empty packaging is at packagingHost and packagingPort.
+   */
+  @JsonProperty
+  private List<String> packagingAddresses = new ArrayList<>();
+
+  /**
+   * Load balancing, keep alive and deadlines of the gRPC channels used to call other services.
+   */
+  @JsonProperty
+  private GrpcClientConfig grpcClient = new GrpcClientConfig();
+
+  /**
+   * Deadline for the downstream calls made to build the shopping menu.
+   */
+  @JsonProperty
+  private long menuTimeoutMillis = 2000;
+
+  /**
+   * How long the shopping menu may be cached for, 0 disables caching.
+   */
+  @JsonProperty
+  private long menuCacheTtlSeconds = 60;
+
+  /**
+   * Age after which a cached shopping menu is refreshed in the background, shorter than
+   * menuCacheTtlSeconds, 0 disables refreshing.
+   */
+  @JsonProperty
+  private long menuCacheRefreshSeconds = 15;
+
+  /**
+   * Number of shirts per chunk streamed from printing into packaging, 0 buffers the whole order
+   * and packs it with a single unary call instead.
+   */
+  @JsonProperty
+  private int shirtStreamChunkSize = 10;
+
+  /**
+   * How long a print request waits for concurrent requests of the same style to be printed
+   * together in one call, 0 disables batching. Batching replaces streaming shirts into packaging
+   * as a batch is only handed out once it has been printed in full.
+   */
+  @JsonProperty
+  private long printBatchWindowMillis = 0;
+
+  /**
+   * Number of shirts after which a print batch is sent without waiting for the rest of its window.
+   */
+  @JsonProperty
+  private int printBatchMaxShirts = 1000;
+
+  /**
+   * Adaptive limit on the number of requests handled at once, requests beyond it are rejected
+   * with 503 Service Unavailable.
+   */
+  @JsonProperty
+  private ConcurrencyLimitConfig concurrencyLimit = new ConcurrencyLimitConfig();
+
+  /**
+   * Rules failing or slowing down requests on purpose, see {@link FaultInjector}.
+   */
+  @JsonProperty
+  private FaultInjectionConfig faultInjection = new FaultInjectionConfig();
+
+  /**
+   * Connection pool and timeouts of the HTTP client used to call other services.
+   */
+  @JsonProperty
+  private HttpClientConfig httpClient = new HttpClientConfig();
+
   /**
    * Path to the Application tags yaml file.
    */
@@ -103,6 +185,54 @@ public class DropwizardServiceConfig extends Configuration {
     return deliveryHost;
   }
 
+  public List<String> getPrintingAddresses() {
+    return printingAddresses;
+  }
+
+  public List<String> getPackagingAddresses() {
+    return packagingAddresses;
+  }
+
+  public GrpcClientConfig getGrpcClient() {
+    return grpcClient;
+  }
+
+  public long getMenuTimeoutMillis() {
+    return menuTimeoutMillis;
+  }
+
+  public long getMenuCacheTtlSeconds() {
+    return menuCacheTtlSeconds;
+  }
+
+  public long getMenuCacheRefreshSeconds() {
+    return menuCacheRefreshSeconds;
+  }
+
+  public int getShirtStreamChunkSize() {
+    return shirtStreamChunkSize;
+  }
+
+  public long getPrintBatchWindowMillis() {
+    return printBatchWindowMillis;
+  }
+
+  public int getPrintBatchMaxShirts() {
+    return printBatchMaxShirts;
+  }
+
+  public ConcurrencyLimitConfig getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  public FaultInjectionConfig getFaultInjection() {
+    return faultInjection;
+  }
+
+  public HttpClientConfig getHttpClient() {
+    return httpClient;
+  }
+
   public String getApplicationTagsYamlFile() {
     return applicationTagsYamlFile;
   }
@@ -0,0 +1,38 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Where the {@link FaultRule}s of a service are read from, see {@link FaultInjector}.
+ */
+public class FaultInjectionConfig {
+
+  /**
+   * YAML file of the rules, none fails or slows down no request. A file that doesn't exist yet
+   * is picked up once created.
+   */
+  @JsonProperty
+  private String rulesFile;
+
+  /**
+   * How often the file is checked for changes, 0 reads it only on start up.
+   */
+  @JsonProperty
+  private long reloadSeconds = 10;
+
+  public FaultInjectionConfig() {
+  }
+
+  public FaultInjectionConfig(String rulesFile, long reloadSeconds) {
+    this.rulesFile = rulesFile;
+    this.reloadSeconds = reloadSeconds;
+  }
+
+  public String getRulesFile() {
+    return rulesFile;
+  }
+
+  public long getReloadSeconds() {
+    return reloadSeconds;
+  }
+}
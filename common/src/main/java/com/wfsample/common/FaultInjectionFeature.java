@@ -0,0 +1,68 @@
+package com.wfsample.common;
+
+import io.opentracing.Tracer;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+
+/**
+ * Applies the faults of a {@link FaultInjector} to the resource methods of a REST service. A
+ * failed request is answered with the status of its rule and a JSON body holding the rule's
+ * message as {@code status}, which the status DTOs of the services read as their status. Runs
+ * after the {@link ConcurrencyLimitFilter}, so injected latency counts against the limit of the
+ * service as the latency of the handlers does.
+ */
+public class FaultInjectionFeature implements DynamicFeature {
+  private final FaultInjector injector;
+  private final Tracer tracer;
+
+  /**
+   * @param tracer tracer of the service to record failed requests on their spans, or null.
+   */
+  public FaultInjectionFeature(FaultInjector injector, Tracer tracer) {
+    this.injector = injector;
+    this.tracer = tracer;
+  }
+
+  @Override
+  public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+    String service = resourceInfo.getResourceClass().getSimpleName();
+    context.register(new FaultInjectionFilter(service,
+        service + "." + resourceInfo.getResourceMethod().getName()));
+  }
+
+  @Priority(Priorities.USER + 200)
+  private class FaultInjectionFilter implements ContainerRequestFilter {
+    private final String service;
+    private final String route;
+
+    FaultInjectionFilter(String service, String route) {
+      this.service = service;
+      this.route = route;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+      FaultInjector.Fault fault = injector.forRoute(service, route);
+      if (fault == null) {
+        return;
+      }
+      FaultInjector.sleep(fault.nextLatencyMillis());
+      if (fault.nextError()) {
+        FaultInjector.sleep(fault.nextErrorLatencyMillis());
+        FaultInjector.logError(fault, route, tracer);
+        requestContext.abortWith(Response.status(fault.getHttpStatus()).
+            entity(Collections.singletonMap("status", fault.getMessage())).
+            type(MediaType.APPLICATION_JSON_TYPE).build());
+      }
+    }
+  }
+}
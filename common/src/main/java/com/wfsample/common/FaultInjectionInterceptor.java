@@ -0,0 +1,52 @@
+package com.wfsample.common;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.opentracing.Tracer;
+
+/**
+ * Applies the faults of a {@link FaultInjector} to the calls of a gRPC service. The faults are
+ * applied when a call arrives, before its handler is started, and a failed call is closed with
+ * the status of its rule without ever reaching the handler. This holds for calls of every type:
+ * the handler of a client streaming call would otherwise have received the client's messages
+ * already and be left waiting for an end that never comes. To be added before the
+ * {@link ConcurrencyLimitInterceptor} so that it runs within the limit, as interceptors run in
+ * the reverse order they are added in.
+ */
+public class FaultInjectionInterceptor implements ServerInterceptor {
+  private final FaultInjector injector;
+  private final Tracer tracer;
+
+  /**
+   * @param tracer tracer of the service to record failed calls on their spans, or null.
+   */
+  public FaultInjectionInterceptor(FaultInjector injector, Tracer tracer) {
+    this.injector = injector;
+    this.tracer = tracer;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                               Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+    MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+    FaultInjector.Fault fault = injector.forRoute(method.getServiceName(),
+        method.getFullMethodName());
+    if (fault == null) {
+      return next.startCall(call, headers);
+    }
+    FaultInjector.sleep(fault.nextLatencyMillis());
+    if (fault.nextError()) {
+      FaultInjector.sleep(fault.nextErrorLatencyMillis());
+      FaultInjector.logError(fault, method.getFullMethodName(), tracer);
+      call.close(fault.getGrpcStatus(), new Metadata());
+      // discards whatever the client still sends.
+      return new ServerCall.Listener<ReqT>() {
+      };
+    }
+    return next.startCall(call, headers);
+  }
+}
@@ -0,0 +1,306 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.grpc.Status;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.log.Fields;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.wfsample.common.BeachShirtsUtils.getRequestLatency;
+
+/**
+ * Fails and slows down requests on purpose according to {@link FaultRule}s read from a YAML file
+ * under {@code rules}, keyed by route or by service. The routes of a gRPC service are its full
+ * method names, e.g. {@code Printing/printShirts}, with the service name as fallback, e.g.
+ * {@code Printing}. The routes of a REST service are the simple name of the resource class and
+ * the name of its method, e.g. {@code DeliveryController.dispatch}, with the resource class as
+ * fallback. The file is checked for changes in the background and the rules it holds replace the
+ * previous ones as a whole, while a file that fails to load leaves them as they are.
+ *
+ * Deciding the fault of a request takes no lock: the rules are swapped as an immutable map,
+ * random numbers are drawn from per-thread generators and the counters are striped, so that
+ * injecting faults doesn't make the requests contend with each other. The failed and delayed
+ * requests are reported to the {@link MetricRegistry} as {name}.faults.errors and
+ * {name}.faults.delayed.
+ */
+public class FaultInjector implements Closeable {
+  static Logger logger = LogManager.getLogger(FaultInjector.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+
+  private final File rulesFile;
+  private final PerThreadRandom random = new PerThreadRandom(System.nanoTime());
+  private final Counter errors = new Counter();
+  private final Counter delayed = new Counter();
+  private final ScheduledExecutorService reloader;
+  private volatile Map<String, Fault> faults = Collections.emptyMap();
+  // only accessed by the thread (re)loading the rules.
+  private long loadedModified = 0;
+
+  /**
+   * @throws IOException if the rules file exists and is invalid.
+   */
+  public FaultInjector(FaultInjectionConfig config) throws IOException {
+    this.rulesFile = config.getRulesFile() == null ? null : new File(config.getRulesFile());
+    if (rulesFile == null) {
+      reloader = null;
+      return;
+    }
+    loadedModified = rulesFile.lastModified();
+    if (loadedModified != 0) {
+      faults = load(rulesFile);
+    }
+    logger.info("injecting faults into " + faults.keySet() + " from " + rulesFile);
+    if (config.getReloadSeconds() > 0) {
+      reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "fault-rules-reload");
+        thread.setDaemon(true);
+        return thread;
+      });
+      reloader.scheduleWithFixedDelay(this::reload, config.getReloadSeconds(),
+          config.getReloadSeconds(), TimeUnit.SECONDS);
+    } else {
+      reloader = null;
+    }
+  }
+
+  public FaultInjector registerMetrics(String name, MetricRegistry metrics) {
+    metrics.register(MetricRegistry.name(name, "faults", "errors"), errors);
+    metrics.register(MetricRegistry.name(name, "faults", "delayed"), delayed);
+    return this;
+  }
+
+  /**
+   * @return the faults of the route, or of its service if the route has no rule of its own, or
+   * null if neither has one.
+   */
+  public Fault forRoute(String service, String route) {
+    Map<String, Fault> current = faults;
+    if (current.isEmpty()) {
+      return null;
+    }
+    Fault fault = current.get(route);
+    return fault != null ? fault : current.get(service);
+  }
+
+  /**
+   * Replaces the rules by those of the file if it changed since it was last loaded.
+   */
+  void reload() {
+    long modified = rulesFile.lastModified();
+    if (modified == loadedModified) {
+      return;
+    }
+    loadedModified = modified;
+    try {
+      faults = modified == 0 ? Collections.emptyMap() : load(rulesFile);
+      logger.info("injecting faults into " + faults.keySet() + " from " + rulesFile);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("keeping the previous fault rules, " + rulesFile + " is invalid: " +
+          e.getMessage());
+    }
+  }
+
+  private Map<String, Fault> load(File file) throws IOException {
+    JsonNode root = MAPPER.readTree(file);
+    if (root == null || root.path("rules").isMissingNode() || root.path("rules").isNull()) {
+      return Collections.emptyMap();
+    }
+    Map<String, FaultRule> rules = MAPPER.convertValue(root.get("rules"),
+        new TypeReference<Map<String, FaultRule>>() {
+        });
+    File base = file.getAbsoluteFile().getParentFile();
+    Map<String, Fault> loaded = new HashMap<>();
+    for (Map.Entry<String, FaultRule> rule : rules.entrySet()) {
+      try {
+        loaded.put(rule.getKey(), new Fault(rule.getValue(), base));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(rule.getKey() + ": " + e.getMessage(), e);
+      }
+    }
+    return Collections.unmodifiableMap(loaded);
+  }
+
+  @Override
+  public void close() {
+    if (reloader != null) {
+      reloader.shutdownNow();
+    }
+  }
+
+  /**
+   * Sleeps for the given latency, keeping the thread's interrupt status if interrupted.
+   */
+  static void sleep(long millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Logs a failed request with its trace id and records the error on its span, if any.
+   */
+  static void logError(Fault fault, String route, Tracer tracer) {
+    Span span = tracer == null ? null : tracer.activeSpan();
+    if (span == null) {
+      logger.warn(fault.getMessage());
+      return;
+    }
+    Map<String, Object> fields = new HashMap<>();
+    fields.put(Fields.EVENT, "error");
+    fields.put(Fields.ERROR_KIND, "injected fault");
+    fields.put(Fields.MESSAGE, fault.getMessage());
+    fields.put("route", route);
+    span.log(fields);
+    TraceLoggerUtil.traceLog(logger, span.context().toTraceId(), Level.WARN, fault.getMessage());
+  }
+
+  /**
+   * A {@link FaultRule} ready to be applied to requests.
+   */
+  public final class Fault {
+    private final double errorRate;
+    private final LatencyModel errorLatency;
+    private final double latencyRate;
+    private final LatencyModel latency;
+    private final long burstPeriodMillis;
+    private final long burstDurationMillis;
+    private final double burstErrorRate;
+    private final double burstLatencyRate;
+    private final LatencyModel burstLatency;
+    private final int httpStatus;
+    private final Status grpcStatus;
+    private final String message;
+
+    private Fault(FaultRule rule, File base) throws IOException {
+      this.errorRate = checkRate("errorRate", rule.getErrorRate());
+      this.errorLatency = rule.getErrorLatency() == null ? null :
+          rule.getErrorLatency().build(random, base);
+      this.latencyRate = checkRate("latencyRate", rule.getLatencyRate());
+      this.latency = rule.getLatency() == null ? null : rule.getLatency().build(random, base);
+      FaultRule.Burst burst = rule.getBurst();
+      if (burst != null && burst.getPeriodSeconds() > 0 && burst.getDurationSeconds() > 0) {
+        this.burstPeriodMillis = TimeUnit.SECONDS.toMillis(burst.getPeriodSeconds());
+        this.burstDurationMillis = TimeUnit.SECONDS.toMillis(burst.getDurationSeconds());
+        this.burstErrorRate = burst.getErrorRate() == null ? errorRate :
+            checkRate("burst.errorRate", burst.getErrorRate());
+        this.burstLatencyRate = burst.getLatencyRate() == null ? latencyRate :
+            checkRate("burst.latencyRate", burst.getLatencyRate());
+        this.burstLatency = burst.getLatency() == null ? latency :
+            burst.getLatency().build(random, base);
+      } else {
+        this.burstPeriodMillis = 0;
+        this.burstDurationMillis = 0;
+        this.burstErrorRate = errorRate;
+        this.burstLatencyRate = latencyRate;
+        this.burstLatency = latency;
+      }
+      this.message = rule.getMessage() == null ? "" : rule.getMessage();
+      String status = rule.getStatus();
+      if (status == null) {
+        this.httpStatus = 500;
+        this.grpcStatus = Status.INTERNAL.withDescription(message);
+      } else if (status.chars().allMatch(Character::isDigit)) {
+        this.httpStatus = Integer.parseInt(status);
+        if (httpStatus < 400 || httpStatus > 599) {
+          throw new IllegalArgumentException("not an error status: " + status);
+        }
+        this.grpcStatus = Status.INTERNAL.withDescription(message);
+      } else {
+        this.httpStatus = 500;
+        Status.Code code = Status.Code.valueOf(status);
+        if (code == Status.Code.OK) {
+          throw new IllegalArgumentException("not an error status: " + status);
+        }
+        this.grpcStatus = code.toStatus().withDescription(message);
+      }
+    }
+
+    /**
+     * @return the latency to add to the next request, 0 if it isn't delayed.
+     */
+    public long nextLatencyMillis() {
+      boolean inBurst = inBurst();
+      LatencyModel model = inBurst ? burstLatency : latency;
+      if (model == null || !draw(inBurst ? burstLatencyRate : latencyRate)) {
+        return 0;
+      }
+      long millis = getRequestLatency(model);
+      if (millis > 0) {
+        delayed.inc();
+      }
+      return millis;
+    }
+
+    /**
+     * @return whether to fail the next request.
+     */
+    public boolean nextError() {
+      if (draw(inBurst() ? burstErrorRate : errorRate)) {
+        errors.inc();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return the time to take to fail the next failed request.
+     */
+    public long nextErrorLatencyMillis() {
+      return errorLatency == null ? 0 : getRequestLatency(errorLatency);
+    }
+
+    public int getHttpStatus() {
+      return httpStatus;
+    }
+
+    public Status getGrpcStatus() {
+      return grpcStatus;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    private boolean inBurst() {
+      return burstPeriodMillis > 0 &&
+          System.currentTimeMillis() % burstPeriodMillis < burstDurationMillis;
+    }
+
+    private boolean draw(double rate) {
+      if (rate <= 0) {
+        return false;
+      }
+      return rate >= 1 || random.current().nextDouble() < rate;
+    }
+  }
+
+  private static double checkRate(String name, double rate) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException(name + " must be between 0 and 1: " + rate);
+    }
+    return rate;
+  }
+}
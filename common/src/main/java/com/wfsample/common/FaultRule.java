@@ -0,0 +1,125 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Requests of a route failed or slowed down on purpose, see {@link FaultInjector}. Latency is
+ * added to a share of the requests before they are handled, and a share of them is failed
+ * instead of being handled, optionally after a latency of its own, e.g. to simulate timeouts.
+ * During a burst window the rates and latency of the burst replace those of the rule.
+ */
+public class FaultRule {
+
+  /**
+   * Share of the requests failed, between 0 and 1.
+   */
+  @JsonProperty
+  private double errorRate = 0;
+
+  /**
+   * Status of the failed requests: an HTTP status code for REST routes, 500 by default, or the
+   * name of a gRPC status code for gRPC routes, INTERNAL by default.
+   */
+  @JsonProperty
+  private String status;
+
+  /**
+   * Logged with the request's trace id when a request is failed, and returned as the status of
+   * the REST response or the description of the gRPC status.
+   */
+  @JsonProperty
+  private String message = "";
+
+  /**
+   * Time taken to fail a request, none by default.
+   */
+  @JsonProperty
+  private LatencyModelConfig errorLatency;
+
+  /**
+   * Share of the requests delayed by the latency, between 0 and 1.
+   */
+  @JsonProperty
+  private double latencyRate = 1;
+
+  /**
+   * Latency added to the delayed requests, none by default.
+   */
+  @JsonProperty
+  private LatencyModelConfig latency;
+
+  /**
+   * Recurring window with different rates or latency, none by default.
+   */
+  @JsonProperty
+  private Burst burst;
+
+  /**
+   * Window of {@code durationSeconds} at the start of every {@code periodSeconds}, counted from
+   * the epoch so replicas burst together. Rates and latency left unset keep those of the rule.
+   */
+  public static class Burst {
+    @JsonProperty
+    private long periodSeconds = 0;
+
+    @JsonProperty
+    private long durationSeconds = 0;
+
+    @JsonProperty
+    private Double errorRate;
+
+    @JsonProperty
+    private Double latencyRate;
+
+    @JsonProperty
+    private LatencyModelConfig latency;
+
+    public long getPeriodSeconds() {
+      return periodSeconds;
+    }
+
+    public long getDurationSeconds() {
+      return durationSeconds;
+    }
+
+    public Double getErrorRate() {
+      return errorRate;
+    }
+
+    public Double getLatencyRate() {
+      return latencyRate;
+    }
+
+    public LatencyModelConfig getLatency() {
+      return latency;
+    }
+  }
+
+  public double getErrorRate() {
+    return errorRate;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public LatencyModelConfig getErrorLatency() {
+    return errorLatency;
+  }
+
+  public double getLatencyRate() {
+    return latencyRate;
+  }
+
+  public LatencyModelConfig getLatency() {
+    return latency;
+  }
+
+  public Burst getBurst() {
+    return burst;
+  }
+}
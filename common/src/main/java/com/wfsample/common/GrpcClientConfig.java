@@ -0,0 +1,96 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of the gRPC channels used to call other services.
+ */
+public class GrpcClientConfig {
+
+  /**
+   * How calls are spread over the backends of a service.
+   */
+  public enum LoadBalancing {
+    /**
+     * Each backend connection in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The less busy of two randomly picked backend connections, which steers calls away from slow
+     * backends.
+     */
+    LEAST_REQUEST
+  }
+
+  @JsonProperty
+  private LoadBalancing loadBalancing = LoadBalancing.LEAST_REQUEST;
+
+  /**
+   * Connections opened to each backend, so a busy backend isn't limited by the number of
+   * concurrent streams a single HTTP/2 connection allows.
+   */
+  @JsonProperty
+  private int channelsPerBackend = 2;
+
+  /**
+   * How often to ping a backend while calls are in flight, to detect broken connections.
+   */
+  @JsonProperty
+  private long keepAliveSeconds = 30;
+
+  /**
+   * How long to wait for a ping response before closing the connection.
+   */
+  @JsonProperty
+  private long keepAliveTimeoutSeconds = 10;
+
+  /**
+   * Connections without calls for this long are closed and reopened on demand.
+   */
+  @JsonProperty
+  private long idleTimeoutSeconds = 300;
+
+  /**
+   * Deadline of calls that don't set their own, 0 leaves them without one.
+   */
+  @JsonProperty
+  private long defaultDeadlineMillis = 30000;
+
+  /**
+   * Latency budgets of calls, keyed by service, e.g. Printing, or by service and method, e.g.
+   * Printing/getAvailableColors. A budget replaces the default deadline.
+   */
+  @JsonProperty
+  private Map<String, LatencyBudget> routes = new HashMap<>();
+
+  public LoadBalancing getLoadBalancing() {
+    return loadBalancing;
+  }
+
+  public int getChannelsPerBackend() {
+    return channelsPerBackend;
+  }
+
+  public long getKeepAliveSeconds() {
+    return keepAliveSeconds;
+  }
+
+  public long getKeepAliveTimeoutSeconds() {
+    return keepAliveTimeoutSeconds;
+  }
+
+  public long getIdleTimeoutSeconds() {
+    return idleTimeoutSeconds;
+  }
+
+  public long getDefaultDeadlineMillis() {
+    return defaultDeadlineMillis;
+  }
+
+  public Map<String, LatencyBudget> getRoutes() {
+    return routes;
+  }
+}
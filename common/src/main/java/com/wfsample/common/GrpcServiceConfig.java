@@ -28,10 +28,24 @@ public class GrpcServiceConfig {
   private String wfReportingConfigYamlFile;
 
   /**
-   * Error operation for every {servicePerOps} requests.
+   * Rules failing or slowing down calls on purpose, see {@link FaultInjector}.
    */
   @JsonProperty
-  private int errorInterval = 0;
+  private FaultInjectionConfig faultInjection = new FaultInjectionConfig();
+
+  /**
+   * Whether to run calls on virtual threads rather than a pool of platform threads, needs Java 21
+   * or later.
+   */
+  @JsonProperty
+  private boolean virtualThreads = false;
+
+  /**
+   * Adaptive limit on the number of calls handled at once, calls beyond it fail with
+   * RESOURCE_EXHAUSTED.
+   */
+  @JsonProperty
+  private ConcurrencyLimitConfig concurrencyLimit = new ConcurrencyLimitConfig();
 
   public int getGrpcPort() {
     return grpcPort;
@@ -45,7 +59,15 @@ public class GrpcServiceConfig {
     return wfReportingConfigYamlFile;
   }
 
-  public int getErrorInterval() {
-    return errorInterval;
+  public FaultInjectionConfig getFaultInjection() {
+    return faultInjection;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public ConcurrencyLimitConfig getConcurrencyLimit() {
+    return concurrencyLimit;
   }
 }
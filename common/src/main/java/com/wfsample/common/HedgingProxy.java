@@ -0,0 +1,231 @@
+package com.wfsample.common;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+
+/**
+ * Wraps an asynchronous REST proxy so its calls keep to their {@link LatencyBudget}. A call with
+ * a budget fails with 504 Gateway Timeout once the budget is spent, is hedged with another
+ * attempt whenever the attempts so far haven't answered within the hedging delay, and is retried
+ * straight away after server errors and failed connections, up to the maximum number of
+ * attempts. The first successful attempt wins. The others are left to finish, as not every
+ * client engine stops a request when its future is cancelled, and their responses are closed to
+ * release the connection. Each new request over the pooled connections may land on another
+ * replica behind the service address, steering the call around a slow one.
+ *
+ * Only methods returning a {@link CompletionStage} are hedged, other methods and methods without
+ * a budget go straight to the wrapped proxy.
+ */
+public class HedgingProxy implements InvocationHandler {
+  private final Object delegate;
+  private final String apiName;
+  private final Map<String, LatencyBudget> routes;
+  private final ScheduledExecutorService scheduler;
+  // null when tracing isn't set up.
+  private final Tracer tracer;
+
+  private HedgingProxy(Object delegate, String apiName, Map<String, LatencyBudget> routes,
+                       ScheduledExecutorService scheduler, Tracer tracer) {
+    this.delegate = delegate;
+    this.apiName = apiName;
+    this.routes = routes;
+    this.scheduler = scheduler;
+    this.tracer = tracer;
+  }
+
+  /**
+   * @param routes budgets keyed by the simple name of the API interface, or by the interface and
+   *               method separated by a dot, see {@link HttpClientConfig#getRoutes()}.
+   * @param scheduler runs hedges and budget timeouts.
+   * @param tracer tracer whose active span is carried over to hedges, may be null.
+   */
+  public static <T> T wrap(Class<T> api, T delegate, Map<String, LatencyBudget> routes,
+                           ScheduledExecutorService scheduler, Tracer tracer) {
+    if (routes == null || routes.isEmpty()) {
+      return delegate;
+    }
+    return api.cast(Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[]{api},
+        new HedgingProxy(delegate, api.getSimpleName(), routes, scheduler, tracer)));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    LatencyBudget budget = method.getDeclaringClass() == Object.class ? null :
+        LatencyBudget.forRoute(routes, apiName, apiName + "." + method.getName());
+    if (budget == null || !CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+      try {
+        return method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    return new HedgedCall(method, args, budget, tracer == null ? null : tracer.activeSpan()).
+        start();
+  }
+
+  /**
+   * Whether an attempt failed in a way another attempt might not.
+   */
+  static boolean isRetryable(Object value, Throwable error) {
+    if (error == null) {
+      return value instanceof Response && ((Response) value).getStatus() >= 500;
+    }
+    Throwable cause = unwrap(error);
+    return cause instanceof ProcessingException || cause instanceof ServerErrorException ||
+        cause instanceof IOException || cause instanceof TimeoutException;
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ?
+        error.getCause() : error;
+  }
+
+  /**
+   * The attempts of a single call. Which attempt decides the call is settled under the lock, but
+   * the result is completed once it's released, as that runs the caller's dependent stages on the
+   * completing thread.
+   */
+  private final class HedgedCall {
+    private final Method method;
+    private final Object[] args;
+    private final LatencyBudget budget;
+    // null when the call was made outside of a trace.
+    private final Span span;
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    private int started = 0;
+    private int running = 0;
+    // set once an attempt has been picked to complete the result with.
+    private boolean decided = false;
+    private ScheduledFuture<?> hedgeTimer;
+    private ScheduledFuture<?> budgetTimer;
+
+    HedgedCall(Method method, Object[] args, LatencyBudget budget, Span span) {
+      this.method = method;
+      this.args = args;
+      this.budget = budget;
+      this.span = span;
+    }
+
+    CompletionStage<Object> start() {
+      if (budget.getBudgetMillis() > 0) {
+        WebApplicationException timeout = new WebApplicationException(apiName + "." +
+            method.getName() + " took longer than " + budget.getBudgetMillis() + "ms",
+            Response.Status.GATEWAY_TIMEOUT);
+        ScheduledFuture<?> timer = scheduler.schedule(
+            // completed off the scheduler, which has hedges of other calls to run.
+            () -> CompletableFuture.runAsync(() -> result.completeExceptionally(timeout)),
+            budget.getBudgetMillis(), TimeUnit.MILLISECONDS);
+        synchronized (this) {
+          budgetTimer = timer;
+        }
+      }
+      result.whenComplete((value, error) -> finish());
+      attempt();
+      return result;
+    }
+
+    /**
+     * Starts another attempt unless the call is decided or out of attempts, and restarts the
+     * hedging delay.
+     */
+    private void attempt() {
+      CompletableFuture<?> attempt;
+      synchronized (this) {
+        if (decided || result.isDone() || started >= budget.getMaxAttempts()) {
+          return;
+        }
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        try {
+          attempt = invokeInSpan().toCompletableFuture();
+        } catch (Throwable t) {
+          attempt = new CompletableFuture<>();
+          attempt.completeExceptionally(t instanceof InvocationTargetException ? t.getCause() : t);
+        }
+        started++;
+        running++;
+        if (budget.isHedged() && started < budget.getMaxAttempts()) {
+          hedgeTimer = scheduler.schedule(this::attempt, budget.getHedgeAfterMillis(),
+              TimeUnit.MILLISECONDS);
+        }
+      }
+      // outside the lock, an attempt that completed already is handled right away.
+      attempt.whenComplete(this::onAttemptDone);
+    }
+
+    private CompletionStage<?> invokeInSpan() throws Exception {
+      if (span == null) {
+        return (CompletionStage<?>) method.invoke(delegate, args);
+      }
+      try (Scope scope = tracer.activateSpan(span)) {
+        return (CompletionStage<?>) method.invoke(delegate, args);
+      }
+    }
+
+    private void onAttemptDone(Object value, Throwable error) {
+      boolean wins = false;
+      boolean retry = false;
+      synchronized (this) {
+        running--;
+        if (!decided && !result.isDone()) {
+          if (!isRetryable(value, error)) {
+            wins = true;
+          } else if (running > 0 || started < budget.getMaxAttempts()) {
+            retry = running == 0;
+          } else {
+            // the last attempt failed too, its outcome is the call's.
+            wins = true;
+          }
+          decided = wins;
+        }
+      }
+      // the budget may have run out meanwhile, leaving the attempt to be discarded after all.
+      if (!wins || !complete(value, error)) {
+        discard(value);
+      }
+      if (retry) {
+        attempt();
+      }
+    }
+
+    private boolean complete(Object value, Throwable error) {
+      return error != null ? result.completeExceptionally(unwrap(error)) : result.complete(value);
+    }
+
+    private synchronized void finish() {
+      if (hedgeTimer != null) {
+        hedgeTimer.cancel(false);
+      }
+      if (budgetTimer != null) {
+        budgetTimer.cancel(false);
+      }
+    }
+
+    private void discard(Object value) {
+      if (value instanceof Response) {
+        ((Response) value).close();
+      }
+    }
+  }
+}
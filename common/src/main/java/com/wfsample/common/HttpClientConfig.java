@@ -0,0 +1,153 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Connection pool and timeout settings of the HTTP clients used to call other services, see
+ * {@link HttpClientPool}.
+ */
+public class HttpClientConfig {
+
+  /**
+   * Client libraries the REST proxies can make their calls with.
+   */
+  public enum Engine {
+    /**
+     * Apache HttpClient over HTTP/1.1, one call in flight per connection.
+     */
+    APACHE,
+    /**
+     * OkHttp over cleartext HTTP/2 (h2c with prior knowledge), many calls multiplexed over each
+     * connection. The services called need an HTTP/2 capable connector. Connections are opened
+     * whenever the existing ones are at the server's stream limit, so the connection limits only
+     * cap the idle connections kept around.
+     */
+    OKHTTP_H2C
+  }
+
+  /**
+   * Client library to call other services with.
+   */
+  @JsonProperty
+  private Engine engine = Engine.APACHE;
+
+  /**
+   * Maximum number of connections across all routes.
+   */
+  @JsonProperty
+  private int maxConnTotal = 400;
+
+  /**
+   * Maximum number of connections to a single host and port.
+   */
+  @JsonProperty
+  private int maxConnPerRoute = 200;
+
+  /**
+   * Maximum number of asynchronous calls in flight, further calls are queued until one completes.
+   * Each call in flight holds a client thread until its response is read, whichever the engine.
+   */
+  @JsonProperty
+  private int maxAsyncCalls = 256;
+
+  /**
+   * How long to wait for a connection to be established.
+   */
+  @JsonProperty
+  private int connectTimeoutMillis = 1000;
+
+  /**
+   * How long to wait for data on an established connection.
+   */
+  @JsonProperty
+  private int socketTimeoutMillis = 10000;
+
+  /**
+   * How long to wait for a connection from the pool before failing the request.
+   */
+  @JsonProperty
+  private int connectionRequestTimeoutMillis = 1000;
+
+  /**
+   * Pooled connections idle for longer than this are closed, 0 keeps them open.
+   */
+  @JsonProperty
+  private long idleTimeoutSeconds = 30;
+
+  /**
+   * Pooled connections idle for longer than this are checked for staleness before being reused.
+   */
+  @JsonProperty
+  private int validateAfterInactivityMillis = 2000;
+
+  /**
+   * Connections are never reused after this long, so load spreads over new instances of a
+   * service, 0 keeps them for as long as the server does.
+   */
+  @JsonProperty
+  private long timeToLiveSeconds = 300;
+
+  /**
+   * How long to keep a connection alive when the server doesn't say.
+   */
+  @JsonProperty
+  private long keepAliveSeconds = 30;
+
+  /**
+   * Latency budgets of asynchronous calls, keyed by the simple name of the API interface, e.g.
+   * DeliveryAsyncApi, or by the interface and method, e.g. DeliveryAsyncApi.dispatch.
+   */
+  @JsonProperty
+  private Map<String, LatencyBudget> routes = new HashMap<>();
+
+  public Engine getEngine() {
+    return engine;
+  }
+
+  public int getMaxConnTotal() {
+    return maxConnTotal;
+  }
+
+  public int getMaxConnPerRoute() {
+    return maxConnPerRoute;
+  }
+
+  public int getMaxAsyncCalls() {
+    return maxAsyncCalls;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getSocketTimeoutMillis() {
+    return socketTimeoutMillis;
+  }
+
+  public int getConnectionRequestTimeoutMillis() {
+    return connectionRequestTimeoutMillis;
+  }
+
+  public long getIdleTimeoutSeconds() {
+    return idleTimeoutSeconds;
+  }
+
+  public int getValidateAfterInactivityMillis() {
+    return validateAfterInactivityMillis;
+  }
+
+  public long getTimeToLiveSeconds() {
+    return timeToLiveSeconds;
+  }
+
+  public long getKeepAliveSeconds() {
+    return keepAliveSeconds;
+  }
+
+  public Map<String, LatencyBudget> getRoutes() {
+    return routes;
+  }
+}
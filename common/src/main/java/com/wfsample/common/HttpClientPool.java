@@ -0,0 +1,214 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient43Engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * A pooled HTTP client meant to be shared by every REST proxy of a service, so calls to other
+ * services reuse a bounded set of connections instead of each proxy opening its own. Depending on
+ * the configured {@link HttpClientConfig.Engine} this is an Apache HttpClient over HTTP/1.1 or an
+ * OkHttp client over cleartext HTTP/2. Idle and expired connections are evicted in the
+ * background, and pool usage is reported to the {@link MetricRegistry} as
+ * http.client.{name}.leased, http.client.{name}.available, http.client.{name}.pending and
+ * http.client.{name}.max.
+ *
+ * Neither engine can wait for a response without a thread, so asynchronous calls, such as the
+ * ones made by proxy methods returning a CompletionStage, run on a pool of at most
+ * {@link HttpClientConfig#getMaxAsyncCalls()} threads shared by every proxy. Calls beyond that
+ * are queued until one completes rather than each getting a thread of its own.
+ */
+public class HttpClientPool implements Closeable {
+  // null unless the apache engine is configured.
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  // null when idle connections are kept open.
+  private final IdleConnectionEvictor evictor;
+  // null unless the okhttp engine is configured.
+  private final OkHttpClient okHttpClient;
+  private final ExecutorService asyncExecutor;
+  private final int maxConnTotal;
+
+  public HttpClientPool(HttpClientConfig config) {
+    this.maxConnTotal = config.getMaxConnTotal();
+    this.asyncExecutor = asyncExecutor(config.getMaxAsyncCalls());
+    if (config.getEngine() == HttpClientConfig.Engine.OKHTTP_H2C) {
+      this.connectionManager = null;
+      this.httpClient = null;
+      this.evictor = null;
+      this.okHttpClient = okHttpClient(config, asyncExecutor);
+      return;
+    }
+    this.okHttpClient = null;
+    long timeToLive = config.getTimeToLiveSeconds() > 0 ? config.getTimeToLiveSeconds() : -1;
+    this.connectionManager = new PoolingHttpClientConnectionManager(timeToLive, TimeUnit.SECONDS);
+    connectionManager.setMaxTotal(config.getMaxConnTotal());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnPerRoute());
+    connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+    RequestConfig requestConfig = RequestConfig.custom().
+        setConnectTimeout(config.getConnectTimeoutMillis()).
+        setSocketTimeout(config.getSocketTimeoutMillis()).
+        setConnectionRequestTimeout(config.getConnectionRequestTimeoutMillis()).
+        build();
+    long keepAliveMillis = TimeUnit.SECONDS.toMillis(config.getKeepAliveSeconds());
+    ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+      long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.
+          getKeepAliveDuration(response, context);
+      return serverKeepAlive > 0 ? serverKeepAlive : keepAliveMillis;
+    };
+    this.httpClient = HttpClients.custom().
+        setConnectionManager(connectionManager).
+        setDefaultRequestConfig(requestConfig).
+        setKeepAliveStrategy(keepAlive).
+        build();
+    if (config.getIdleTimeoutSeconds() > 0) {
+      // also closes expired connections, checking twice per idle timeout.
+      this.evictor = new IdleConnectionEvictor(connectionManager,
+          Math.max(1, config.getIdleTimeoutSeconds() / 2), TimeUnit.SECONDS,
+          config.getIdleTimeoutSeconds(), TimeUnit.SECONDS);
+      evictor.start();
+    } else {
+      this.evictor = null;
+    }
+  }
+
+  /**
+   * Reports the pool usage under http.client.{name}. Over HTTP/2 a leased connection may be
+   * carrying any number of calls and nothing is ever pending.
+   *
+   * @return this pool.
+   */
+  public HttpClientPool registerMetrics(String name, MetricRegistry metrics) {
+    metrics.register(MetricRegistry.name("http.client", name, "leased"),
+        (Gauge<Integer>) this::leased);
+    metrics.register(MetricRegistry.name("http.client", name, "available"),
+        (Gauge<Integer>) this::available);
+    metrics.register(MetricRegistry.name("http.client", name, "pending"),
+        (Gauge<Integer>) () -> connectionManager == null ? 0 : stats().getPending());
+    metrics.register(MetricRegistry.name("http.client", name, "max"),
+        (Gauge<Integer>) () -> maxConnTotal);
+    return this;
+  }
+
+  /**
+   * Creates a RESTEasy engine making its calls through the shared client. Closing the engine
+   * leaves the client open.
+   */
+  public ClientHttpEngine newEngine() {
+    return okHttpClient != null ? new OkHttpClientEngine(okHttpClient) :
+        new ApacheHttpClient43Engine(httpClient, false);
+  }
+
+  /**
+   * Executor the REST clients run asynchronous calls on, bounded to the configured number of
+   * calls in flight. With the okhttp engine the calls are run by okhttp, on the same threads.
+   * Shut down along with the pool.
+   */
+  public ExecutorService asyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * @return the apache client, null when the okhttp engine is configured.
+   */
+  public CloseableHttpClient httpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Number of open connections, either carrying calls or idle.
+   */
+  public int connections() {
+    return leased() + available();
+  }
+
+  @Override
+  public void close() throws IOException {
+    asyncExecutor.shutdown();
+    if (okHttpClient != null) {
+      okHttpClient.connectionPool().evictAll();
+      return;
+    }
+    if (evictor != null) {
+      evictor.shutdown();
+    }
+    httpClient.close();
+  }
+
+  private int leased() {
+    if (okHttpClient != null) {
+      ConnectionPool pool = okHttpClient.connectionPool();
+      return pool.connectionCount() - pool.idleConnectionCount();
+    }
+    return stats().getLeased();
+  }
+
+  private int available() {
+    return okHttpClient != null ? okHttpClient.connectionPool().idleConnectionCount() :
+        stats().getAvailable();
+  }
+
+  private PoolStats stats() {
+    return connectionManager.getTotalStats();
+  }
+
+  private static ExecutorService asyncExecutor(int maxThreads) {
+    AtomicInteger threadCount = new AtomicInteger(0);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "http-client-async-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // idle threads go away, so a quiet service holds none.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static OkHttpClient okHttpClient(HttpClientConfig config,
+                                           ExecutorService asyncExecutor) {
+    // okhttp evicts idle connections itself, and keeps at most maxConnTotal of them around.
+    long idleTimeoutSeconds = config.getIdleTimeoutSeconds() > 0 ?
+        config.getIdleTimeoutSeconds() : config.getKeepAliveSeconds();
+    // each asynchronous call holds a dispatcher thread until its response is read, so the
+    // dispatcher runs as many as the executor has threads. Its default of 5 calls per host would
+    // serialize calls to each service.
+    Dispatcher dispatcher = new Dispatcher(asyncExecutor);
+    dispatcher.setMaxRequests(config.getMaxAsyncCalls());
+    dispatcher.setMaxRequestsPerHost(config.getMaxAsyncCalls());
+    return new OkHttpClient.Builder().
+        dispatcher(dispatcher).
+        protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE)).
+        connectionPool(new ConnectionPool(config.getMaxConnTotal(), idleTimeoutSeconds,
+            TimeUnit.SECONDS)).
+        connectTimeout(config.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS).
+        readTimeout(config.getSocketTimeoutMillis(), TimeUnit.MILLISECONDS).
+        writeTimeout(config.getSocketTimeoutMillis(), TimeUnit.MILLISECONDS).
+        retryOnConnectionFailure(true).
+        build();
+  }
+}
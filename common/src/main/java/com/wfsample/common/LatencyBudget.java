@@ -0,0 +1,88 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long a call to another service may take in total and how it is retried or hedged within
+ * that time. A hedged call sends another attempt, to a different replica where possible, whenever
+ * the attempts so far haven't answered within the hedging delay, and takes the first answer. Only
+ * calls that are safe to repeat should be hedged or retried.
+ */
+public class LatencyBudget {
+
+  /**
+   * Deadline for the call including all its attempts, 0 leaves the deadline unchanged.
+   */
+  @JsonProperty
+  private long budgetMillis = 0;
+
+  /**
+   * Delay after which another attempt is sent while none has answered, 0 disables hedging so
+   * attempts are only retried after failures.
+   */
+  @JsonProperty
+  private long hedgeAfterMillis = 0;
+
+  /**
+   * Maximum number of attempts per call, 1 neither retries nor hedges.
+   */
+  @JsonProperty
+  private int maxAttempts = 1;
+
+  /**
+   * gRPC status codes after which an attempt is retried, REST calls are retried after server
+   * errors and failed connections instead.
+   */
+  @JsonProperty
+  private List<String> retryableStatusCodes = new ArrayList<>(Arrays.asList("UNAVAILABLE"));
+
+  public LatencyBudget() {
+  }
+
+  public LatencyBudget(long budgetMillis, long hedgeAfterMillis, int maxAttempts) {
+    this.budgetMillis = budgetMillis;
+    this.hedgeAfterMillis = hedgeAfterMillis;
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Looks up the budget of a route, falling back to the budget of the service it belongs to.
+   *
+   * @param budgets budgets keyed by service name or by service name and method, see
+   *                {@link GrpcClientConfig#getRoutes()} and {@link HttpClientConfig#getRoutes()}.
+   * @return the budget or null if there is none.
+   */
+  public static LatencyBudget forRoute(Map<String, LatencyBudget> budgets, String service,
+                                       String route) {
+    if (budgets == null || budgets.isEmpty()) {
+      return null;
+    }
+    LatencyBudget budget = budgets.get(route);
+    return budget != null ? budget : budgets.get(service);
+  }
+
+  public long getBudgetMillis() {
+    return budgetMillis;
+  }
+
+  public long getHedgeAfterMillis() {
+    return hedgeAfterMillis;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public List<String> getRetryableStatusCodes() {
+    return retryableStatusCodes;
+  }
+
+  public boolean isHedged() {
+    return hedgeAfterMillis > 0 && maxAttempts > 1;
+  }
+}
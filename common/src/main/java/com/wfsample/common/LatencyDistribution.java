@@ -0,0 +1,174 @@
+package com.wfsample.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Latency model drawing from a table of the quantiles of a distribution, computed once when the
+ * model is created. Drawing a latency takes one random index into the table from the calling
+ * thread's generator, so it costs the same whatever the distribution and takes no locks.
+ *
+ * The table holds {@value #TABLE_SIZE} quantiles, evenly spaced in probability, which is fine
+ * grained enough for the simulated latencies down to their 99.9th percentile.
+ */
+public final class LatencyDistribution implements LatencyModel {
+  static final int TABLE_SIZE = 1024;
+  // share of a normal distribution below one standard deviation under its mean.
+  private static final double NORMAL_CDF_MINUS_ONE = 0.15865525393145707;
+
+  private final long[] quantiles;
+  private final PerThreadRandom random;
+
+  private LatencyDistribution(long[] quantiles, PerThreadRandom random) {
+    this.quantiles = quantiles;
+    this.random = random;
+  }
+
+  @Override
+  public long nextMillis() {
+    return quantiles[random.current().nextInt(quantiles.length)];
+  }
+
+  /**
+   * @return the latency the given share of requests doesn't exceed.
+   */
+  public long getQuantile(double p) {
+    return quantiles[(int) Math.min(quantiles.length - 1, Math.max(0, p * quantiles.length))];
+  }
+
+  /**
+   * Normal distribution cut off at one standard deviation on either side of the mean, the shape
+   * of the latencies the services simulate.
+   *
+   * @param meanMillis mean latency.
+   * @param deltaMillis standard deviation as well as the most the latency differs from the mean.
+   */
+  public static LatencyDistribution normal(long meanMillis, long deltaMillis,
+                                           PerThreadRandom random) {
+    double range = 1 - 2 * NORMAL_CDF_MINUS_ONE;
+    return fromQuantileFunction(p -> meanMillis + deltaMillis *
+        normalQuantile(NORMAL_CDF_MINUS_ONE + p * range), random);
+  }
+
+  /**
+   * Log-normal distribution, which is skewed towards a long tail like most real latencies.
+   *
+   * @param medianMillis latency half of the requests exceed.
+   * @param sigma standard deviation of the logarithm of the latency, around 0.5 for a moderate
+   *              tail and above 1 for a heavy one.
+   */
+  public static LatencyDistribution logNormal(long medianMillis, double sigma,
+                                              PerThreadRandom random) {
+    return fromQuantileFunction(p -> medianMillis * Math.exp(sigma * normalQuantile(p)), random);
+  }
+
+  /**
+   * Pareto distribution, for latencies mostly close to a minimum with rare very slow requests.
+   *
+   * @param minMillis lowest latency.
+   * @param shape tail index, the lower the heavier the tail, 1.16 puts 20% of the requests in 80%
+   *              of the total latency.
+   * @param maxMillis highest latency, the tail is cut off there.
+   */
+  public static LatencyDistribution pareto(long minMillis, double shape, long maxMillis,
+                                           PerThreadRandom random) {
+    return fromQuantileFunction(p -> Math.min(maxMillis,
+        minMillis / Math.pow(1 - p, 1 / shape)), random);
+  }
+
+  /**
+   * Distribution of latencies observed elsewhere, e.g. exported from a real service. Each line of
+   * the file is a latency in milliseconds, optionally followed by the number of times it was
+   * observed, separated by whitespace or a comma. Empty lines and lines starting with # are
+   * skipped.
+   */
+  public static LatencyDistribution empirical(File file, PerThreadRandom random)
+      throws IOException {
+    List<long[]> observed = new ArrayList<>();
+    long total = 0;
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("[\\s,]+");
+      if (fields.length > 2) {
+        throw new IllegalArgumentException(file + ": expected a latency and a count: " + line);
+      }
+      long millis = Long.parseLong(fields[0]);
+      long count = fields.length == 2 ? Long.parseLong(fields[1]) : 1;
+      if (millis < 0 || count < 0) {
+        throw new IllegalArgumentException(file + ": negative latency or count: " + line);
+      }
+      observed.add(new long[]{millis, count});
+      total += count;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException(file + ": no latencies");
+    }
+    observed.sort((a, b) -> Long.compare(a[0], b[0]));
+    long[] quantiles = new long[TABLE_SIZE];
+    int next = 0;
+    long cumulative = observed.get(0)[1];
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      double rank = (i + 0.5) / TABLE_SIZE * total;
+      while (cumulative < rank) {
+        cumulative += observed.get(++next)[1];
+      }
+      quantiles[i] = observed.get(next)[0];
+    }
+    return new LatencyDistribution(quantiles, random);
+  }
+
+  private static LatencyDistribution fromQuantileFunction(DoubleUnaryOperator quantile,
+                                                          PerThreadRandom random) {
+    long[] quantiles = new long[TABLE_SIZE];
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      quantiles[i] = Math.max(0, Math.round(quantile.applyAsDouble((i + 0.5) / TABLE_SIZE)));
+    }
+    // rounding errors mustn't make the table decrease.
+    Arrays.sort(quantiles);
+    return new LatencyDistribution(quantiles, random);
+  }
+
+  /**
+   * Inverse of the standard normal distribution function, by Peter Acklam's rational
+   * approximation, which is precise to about 1e-9.
+   */
+  static double normalQuantile(double p) {
+    if (p <= 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    if (p >= 1) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double low = 0.02425;
+    if (p < low) {
+      return normalTail(Math.sqrt(-2 * Math.log(p)));
+    }
+    if (p > 1 - low) {
+      return -normalTail(Math.sqrt(-2 * Math.log(1 - p)));
+    }
+    double q = p - 0.5;
+    double r = q * q;
+    return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r -
+        2.759285104469687e+02) * r + 1.383577518672690e+02) * r - 3.066479806614716e+01) * r +
+        2.506628277459239e+00) * q /
+        (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) *
+            r + 6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+  }
+
+  private static double normalTail(double q) {
+    return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q -
+        2.400758277161838e+00) * q - 2.549732539343734e+00) * q + 4.374664141464968e+00) * q +
+        2.938163982698783e+00) /
+        ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q +
+            3.754408661907416e+00) * q + 1);
+  }
+}
@@ -0,0 +1,15 @@
+package com.wfsample.common;
+
+/**
+ * Picks the latency a service simulates for a request, see
+ * {@link BeachShirtsUtils#getRequestLatency(LatencyModel)}. Implementations are called by all
+ * request threads at once and must not make them wait on each other, {@link LatencyDistribution}
+ * covers the usual distributions.
+ */
+public interface LatencyModel {
+
+  /**
+   * @return the next latency in milliseconds, never negative.
+   */
+  long nextMillis();
+}
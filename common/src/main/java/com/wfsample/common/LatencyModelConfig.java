@@ -0,0 +1,100 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Settings of a {@link LatencyDistribution}: its distribution, one of normal, logNormal, pareto
+ * or empirical, and the parameters that distribution takes. A normal distribution with no delta
+ * is a fixed latency.
+ */
+public class LatencyModelConfig {
+
+  @JsonProperty
+  private String distribution = "normal";
+
+  /**
+   * Mean latency of the normal distribution.
+   */
+  @JsonProperty
+  private long meanMillis = 0;
+
+  /**
+   * Standard deviation of the normal distribution, which is cut off at one deviation.
+   */
+  @JsonProperty
+  private long deltaMillis = 0;
+
+  /**
+   * Median latency of the log-normal distribution.
+   */
+  @JsonProperty
+  private long medianMillis = 0;
+
+  /**
+   * Standard deviation of the logarithm of the log-normal distribution.
+   */
+  @JsonProperty
+  private double sigma = 0.5;
+
+  /**
+   * Lowest latency of the Pareto distribution.
+   */
+  @JsonProperty
+  private long minMillis = 0;
+
+  /**
+   * Tail index of the Pareto distribution.
+   */
+  @JsonProperty
+  private double shape = 1.16;
+
+  /**
+   * Highest latency of the Pareto distribution.
+   */
+  @JsonProperty
+  private long maxMillis = 60000;
+
+  /**
+   * File of observed latencies of the empirical distribution, see
+   * {@link LatencyDistribution#empirical(File, PerThreadRandom)}.
+   */
+  @JsonProperty
+  private String file;
+
+  public LatencyModelConfig() {
+  }
+
+  /**
+   * Normal distribution.
+   */
+  public LatencyModelConfig(long meanMillis, long deltaMillis) {
+    this.meanMillis = meanMillis;
+    this.deltaMillis = deltaMillis;
+  }
+
+  /**
+   * @param base directory relative file names are resolved against.
+   */
+  public LatencyDistribution build(PerThreadRandom random, File base) throws IOException {
+    switch (distribution) {
+      case "normal":
+        return LatencyDistribution.normal(meanMillis, deltaMillis, random);
+      case "logNormal":
+        return LatencyDistribution.logNormal(medianMillis, sigma, random);
+      case "pareto":
+        return LatencyDistribution.pareto(minMillis, shape, maxMillis, random);
+      case "empirical":
+        if (file == null) {
+          throw new IllegalArgumentException("empirical latency distribution without a file");
+        }
+        File latencies = new File(file);
+        return LatencyDistribution.empirical(latencies.isAbsolute() || base == null ?
+            latencies : new File(base, file), random);
+      default:
+        throw new IllegalArgumentException("unknown latency distribution: " + distribution);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package com.wfsample.common;
+
+import org.jboss.resteasy.client.jaxrs.engines.AsyncClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.internal.ClientConfiguration;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponse;
+import org.jboss.resteasy.tracing.RESTEasyTracingLogger;
+import org.jboss.resteasy.util.CaseInsensitiveMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * RESTEasy engine making its calls through an {@link OkHttpClient}. When the client is set up for
+ * HTTP/2 many concurrent calls are multiplexed as streams over a few connections, where the
+ * Apache engine needs a connection per call in flight. Asynchronous calls, such as the ones made
+ * by proxy methods returning a CompletionStage, are enqueued with okhttp rather than blocking the
+ * caller. okhttp still holds one of its dispatcher threads per call until the response is read,
+ * so the dispatcher's executor bounds how many run at once, see {@link HttpClientPool}. The
+ * client is shared and isn't closed along with the engine.
+ */
+public class OkHttpClientEngine implements AsyncClientHttpEngine {
+  private static final byte[] EMPTY = new byte[0];
+
+  private final OkHttpClient client;
+
+  public OkHttpClientEngine(OkHttpClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public Response invoke(Invocation invocation) {
+    ClientInvocation request = (ClientInvocation) invocation;
+    okhttp3.Response response;
+    try {
+      response = client.newCall(toRequest(request)).execute();
+    } catch (IOException e) {
+      throw new ProcessingException("Unable to invoke request: " + e, e);
+    }
+    return toClientResponse(request, response);
+  }
+
+  @Override
+  public <T> Future<T> submit(ClientInvocation request, boolean buffered,
+                              InvocationCallback<T> callback, ResultExtractor<T> extractor) {
+    CompletableFuture<T> future = submit(request, buffered, extractor, null);
+    if (callback != null) {
+      future.whenComplete((result, error) -> {
+        if (error == null) {
+          callback.completed(result);
+        } else {
+          callback.failed(error instanceof CompletionException ? error.getCause() : error);
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Enqueues the call with okhttp, the result is extracted and the future completed on the okhttp
+   * dispatcher thread that made the call, so the caller doesn't wait for the response.
+   */
+  @Override
+  public <T> CompletableFuture<T> submit(ClientInvocation request, boolean buffered,
+                                         ResultExtractor<T> extractor,
+                                         ExecutorService executorService) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Call call = client.newCall(toRequest(request));
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        future.completeExceptionally(new ProcessingException("Unable to invoke request: " + e, e));
+      }
+
+      @Override
+      public void onResponse(Call call, okhttp3.Response response) {
+        try {
+          ClientResponse clientResponse = toClientResponse(request, response);
+          if (buffered) {
+            clientResponse.bufferEntity();
+          }
+          future.complete(extractor.extractResult(clientResponse));
+        } catch (RuntimeException e) {
+          response.close();
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    future.whenComplete((result, error) -> {
+      if (future.isCancelled()) {
+        call.cancel();
+      }
+    });
+    return future;
+  }
+
+  @Override
+  public SSLContext getSslContext() {
+    return null;
+  }
+
+  @Override
+  public HostnameVerifier getHostnameVerifier() {
+    return client.hostnameVerifier();
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private static Request toRequest(ClientInvocation request) {
+    Request.Builder builder = new Request.Builder().url(request.getUri().toString());
+    for (Map.Entry<String, List<String>> header : request.getHeaders().asMap().entrySet()) {
+      // okhttp works out the length of the body itself.
+      if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getKey())) {
+        for (String value : header.getValue()) {
+          builder.addHeader(header.getKey(), value);
+        }
+      }
+    }
+    return builder.method(request.getMethod(), requestBody(request)).build();
+  }
+
+  private static ClientResponse toClientResponse(ClientInvocation request,
+                                                 okhttp3.Response response) {
+    OkHttpClientResponse clientResponse = new OkHttpClientResponse(
+        request.getClientConfiguration(), request.getTracingLogger(), response);
+    clientResponse.setStatus(response.code());
+    clientResponse.setReasonPhrase(response.message());
+    CaseInsensitiveMap<String> headers = new CaseInsensitiveMap<>();
+    for (String name : response.headers().names()) {
+      headers.put(name, response.headers(name));
+    }
+    clientResponse.setHeaders(headers);
+    clientResponse.setClientConfiguration(request.getClientConfiguration());
+    clientResponse.setProperties(request.getMutableProperties());
+    return clientResponse;
+  }
+
+  private static RequestBody requestBody(ClientInvocation request) {
+    if (request.getEntity() == null) {
+      // okhttp insists on a body for the methods that require one.
+      return requiresBody(request.getMethod()) ? RequestBody.create(EMPTY, null) : null;
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    request.getDelegatingOutputStream().setDelegate(body);
+    try {
+      request.writeRequestBody(request.getEntityStream());
+    } catch (IOException e) {
+      throw new ProcessingException("Unable to write request body: " + e, e);
+    }
+    // the content type is already among the copied headers.
+    return RequestBody.create(body.toByteArray(), null);
+  }
+
+  private static boolean requiresBody(String method) {
+    return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+  }
+
+  private static final class OkHttpClientResponse extends ClientResponse {
+    private final okhttp3.Response response;
+    private InputStream stream;
+
+    OkHttpClientResponse(ClientConfiguration configuration, RESTEasyTracingLogger tracingLogger,
+                         okhttp3.Response response) {
+      super(configuration, tracingLogger);
+      this.response = response;
+    }
+
+    @Override
+    protected InputStream getInputStream() {
+      if (stream == null && !isClosed() && response.body() != null) {
+        stream = response.body().byteStream();
+      }
+      return stream;
+    }
+
+    @Override
+    protected void setInputStream(InputStream stream) {
+      this.stream = stream;
+    }
+
+    @Override
+    public void releaseConnection() throws IOException {
+      releaseConnection(true);
+    }
+
+    @Override
+    public void releaseConnection(boolean consumeInputStream) throws IOException {
+      // closing the body hands the connection, or the http/2 stream, back to okhttp.
+      response.close();
+    }
+  }
+}
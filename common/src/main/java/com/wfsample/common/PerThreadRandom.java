@@ -0,0 +1,42 @@
+package com.wfsample.common;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of random numbers giving every thread its own generator, so threads drawing numbers at
+ * once never contend on a shared seed as they do with a shared {@link java.util.Random}. Each
+ * thread's generator is seeded when the thread first draws from it, from the seed and the number
+ * of threads that drew before, so a thread gets the same numbers for the same seed as long as
+ * threads start drawing in the same order. Seeding takes no lock, as with a thread per request
+ * every request seeds a generator.
+ */
+public final class PerThreadRandom {
+  // the increment of SplitMix64, which spreads consecutive seeds over the whole range.
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final AtomicLong nextSeed;
+  private final ThreadLocal<SplittableRandom> generator;
+
+  public PerThreadRandom(long seed) {
+    this.nextSeed = new AtomicLong(seed);
+    this.generator = ThreadLocal.withInitial(
+        () -> new SplittableRandom(mix64(nextSeed.getAndAdd(GOLDEN_GAMMA))));
+  }
+
+  /**
+   * @return the generator of the calling thread, which must not be handed to other threads.
+   */
+  public SplittableRandom current() {
+    return generator.get();
+  }
+
+  /**
+   * The finalizer of SplitMix64, so that the generators of consecutive seeds are unrelated.
+   */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
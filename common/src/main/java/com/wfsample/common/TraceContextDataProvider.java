@@ -0,0 +1,50 @@
+package com.wfsample.common;
+
+import org.apache.logging.log4j.core.util.ContextDataProvider;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Adds the trace id of the message being logged by {@link TraceLoggerUtil} to the context data of
+ * its log event as traceId, registered with Log4j as a service. The id is kept in a map owned by
+ * the logging thread and reused for each of its messages, rather than put into and removed from
+ * the thread context, which copies the thread's context map on every change, so setting it costs
+ * nothing. Messages that are logged still allocate: Log4j copies the context data of the providers
+ * into a new map for each event, and the Async appender the services log through copies the event
+ * itself before handing it to its background thread.
+ */
+public class TraceContextDataProvider implements ContextDataProvider {
+  static final String TRACE_ID = "traceId";
+
+  private static final ThreadLocal<StringMap> CONTEXT =
+      ThreadLocal.withInitial(() -> new SortedArrayStringMap(1));
+
+  /**
+   * Sets the trace id of the messages the calling thread logs until {@link #clear()}, none if
+   * null.
+   */
+  static void set(String traceId) {
+    if (traceId != null) {
+      CONTEXT.get().putValue(TRACE_ID, traceId);
+    }
+  }
+
+  static void clear() {
+    CONTEXT.get().clear();
+  }
+
+  @Override
+  public Map<String, String> supplyContextData() {
+    String traceId = CONTEXT.get().getValue(TRACE_ID);
+    return traceId == null ? Collections.emptyMap() :
+        Collections.singletonMap(TRACE_ID, traceId);
+  }
+
+  @Override
+  public StringMap supplyStringMap() {
+    return CONTEXT.get();
+  }
+}
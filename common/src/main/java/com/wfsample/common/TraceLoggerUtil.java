@@ -1,26 +1,111 @@
 package com.wfsample.common;
 
-import com.wavefront.opentracing.WavefrontTracer;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
 import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LoggerContext;
 
-public class TraceLoggerUtil {
-    private static final String TRACE_ID = "traceId";
-    public static void traceLog(Logger logger, String traceID, Level level, String message) {
-        if (!message.isEmpty()) {
-            ThreadContext.put(TRACE_ID, traceID);
-            logger.log(level, message);
-            ThreadContext.remove(TRACE_ID);
-        }
-    }
-    public static void traceLog(Logger logger, WavefrontTracer tracer, Level level, String message) {
-        if (!message.isEmpty()) {
-            if (tracer.activeSpan()!= null && !tracer.activeSpan().context().toTraceId().isEmpty()) {
-                ThreadContext.put(TRACE_ID, tracer.activeSpan().context().toTraceId());
-            }
-            logger.log(level, message);
-            ThreadContext.remove(TRACE_ID);
-        }
+/**
+ * Logs messages annotated with the id of the trace they belong to, see
+ * {@link TraceContextDataProvider}. Messages take {} placeholders for their arguments, which are
+ * only formatted if the message is logged, and nothing is looked up or allocated for messages
+ * below the logger's level, so trace logging can be left in the request path.
+ *
+ * When Log4j logs through another implementation than its own, e.g. the SLF4J bridge Spring Boot
+ * brings along, the trace id is put into the thread context for the duration of the message
+ * instead, as the context data providers are only consulted by Log4j's own implementation.
+ */
+public final class TraceLoggerUtil {
+  private static final boolean CONTEXT_DATA_PROVIDED =
+      LogManager.getContext(false) instanceof LoggerContext;
+
+  private TraceLoggerUtil() {
+  }
+
+  public static void traceLog(Logger logger, String traceId, Level level, String message) {
+    if (logger.isEnabled(level) && message != null && !message.isEmpty()) {
+      setTraceId(traceId);
+      try {
+        logger.log(level, message);
+      } finally {
+        clearTraceId();
+      }
+    }
+  }
+
+  public static void traceLog(Logger logger, String traceId, Level level, String format,
+                              Object arg) {
+    if (logger.isEnabled(level)) {
+      setTraceId(traceId);
+      try {
+        logger.log(level, format, arg);
+      } finally {
+        clearTraceId();
+      }
+    }
+  }
+
+  public static void traceLog(Logger logger, String traceId, Level level, String format,
+                              Object arg0, Object arg1) {
+    if (logger.isEnabled(level)) {
+      setTraceId(traceId);
+      try {
+        logger.log(level, format, arg0, arg1);
+      } finally {
+        clearTraceId();
+      }
+    }
+  }
+
+  /**
+   * Logs the message with the trace id of the tracer's active span, or without one if there's
+   * no active span or no tracer.
+   */
+  public static void traceLog(Logger logger, Tracer tracer, Level level, String message) {
+    if (logger.isEnabled(level) && message != null && !message.isEmpty()) {
+      traceLog(logger, traceId(tracer), level, message);
+    }
+  }
+
+  public static void traceLog(Logger logger, Tracer tracer, Level level, String format,
+                              Object arg) {
+    if (logger.isEnabled(level)) {
+      traceLog(logger, traceId(tracer), level, format, arg);
+    }
+  }
+
+  public static void traceLog(Logger logger, Tracer tracer, Level level, String format,
+                              Object arg0, Object arg1) {
+    if (logger.isEnabled(level)) {
+      traceLog(logger, traceId(tracer), level, format, arg0, arg1);
+    }
+  }
+
+  private static void setTraceId(String traceId) {
+    if (CONTEXT_DATA_PROVIDED) {
+      TraceContextDataProvider.set(traceId);
+    } else if (traceId != null) {
+      ThreadContext.put(TraceContextDataProvider.TRACE_ID, traceId);
+    }
+  }
+
+  private static void clearTraceId() {
+    if (CONTEXT_DATA_PROVIDED) {
+      TraceContextDataProvider.clear();
+    } else {
+      ThreadContext.remove(TraceContextDataProvider.TRACE_ID);
+    }
+  }
+
+  private static String traceId(Tracer tracer) {
+    Span span = tracer == null ? null : tracer.activeSpan();
+    if (span == null) {
+      return null;
     }
+    String traceId = span.context().toTraceId();
+    return traceId.isEmpty() ? null : traceId;
+  }
 }
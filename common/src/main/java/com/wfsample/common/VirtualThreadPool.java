@@ -0,0 +1,81 @@
+package com.wfsample.common;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jetty thread pool running every task on a new virtual thread, so requests blocking on sleeps or
+ * downstream calls don't tie up a bounded set of platform threads. Needs virtual threads, see
+ * {@link VirtualThreads}, as a thread per task without them would be an unbounded pool.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+  private final String name;
+  private final AtomicInteger active = new AtomicInteger(0);
+  private volatile ExecutorService executor;
+
+  /**
+   * @throws UnsupportedOperationException if virtual threads aren't available.
+   */
+  public VirtualThreadPool(String name) {
+    if (!VirtualThreads.isAvailable()) {
+      throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+    }
+    this.name = name;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    executor = VirtualThreads.newThreadPerTaskExecutor(name + "-");
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(() -> {
+      active.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        active.decrementAndGet();
+      }
+    });
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    while (!executor.awaitTermination(1, TimeUnit.DAYS)) {
+      // keep waiting until the pool is stopped.
+    }
+  }
+
+  /**
+   * Number of tasks running, each on its own thread.
+   */
+  @Override
+  public int getThreads() {
+    return active.get();
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+}
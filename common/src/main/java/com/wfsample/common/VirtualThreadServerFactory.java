@@ -0,0 +1,35 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import io.dropwizard.server.DefaultServerFactory;
+
+/**
+ * Dropwizard server factory handling requests on virtual threads, selected with
+ * {@code server: type: virtual-threads} in the service configuration. Everything else is
+ * configured as for the default server. The thread pool settings only apply when virtual threads
+ * aren't available, the requests are then handled on the default server's bounded pool.
+ */
+@JsonTypeName("virtual-threads")
+public class VirtualThreadServerFactory extends DefaultServerFactory {
+  static Logger logger = LogManager.getLogger(VirtualThreadServerFactory.class);
+
+  @Override
+  protected ThreadPool createThreadPool(MetricRegistry metricRegistry) {
+    if (!VirtualThreads.isAvailable()) {
+      logger.warn("virtual threads need Java 21 or later, handling requests on at most " +
+          getMaxThreads() + " platform threads");
+      return super.createThreadPool(metricRegistry);
+    }
+    VirtualThreadPool threadPool = new VirtualThreadPool("dw-virtual");
+    metricRegistry.register(MetricRegistry.name(VirtualThreadPool.class, "dw-virtual", "active"),
+        (Gauge<Integer>) threadPool::getThreads);
+    return threadPool;
+  }
+}
@@ -0,0 +1,93 @@
+package com.wfsample.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to virtual threads when running on Java 21 or later. The services are built for Java 8,
+ * so the API is looked up reflectively and callers fall back to platform threads elsewhere.
+ */
+public final class VirtualThreads {
+  static Logger logger = LogManager.getLogger(VirtualThreads.class);
+
+  // Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory(), or null.
+  private static final Method OF_VIRTUAL;
+  private static final Method NAME;
+  private static final Method FACTORY;
+  // Executors.newThreadPerTaskExecutor(ThreadFactory), or null.
+  private static final Method THREAD_PER_TASK;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    Method threadPerTask = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      threadPerTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      // on Java 19 and 20 virtual threads are a preview feature and this fails without it.
+      ofVirtual.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+    THREAD_PER_TASK = threadPerTask;
+  }
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * @return a factory of virtual threads named prefix0, prefix1...
+   * @throws UnsupportedOperationException if virtual threads aren't available.
+   */
+  public static ThreadFactory factory(String prefix) {
+    if (!isAvailable()) {
+      throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+    }
+    try {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+      return (ThreadFactory) FACTORY.invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("unable to create virtual thread factory", e);
+    }
+  }
+
+  /**
+   * Creates an executor running every task on a new virtual thread. When virtual threads aren't
+   * available this logs a warning and returns a cached pool of platform threads instead, which
+   * is what the servers use by default.
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+    if (!isAvailable()) {
+      logger.warn("virtual threads need Java 21 or later, running " + prefix +
+          " on platform threads");
+      AtomicInteger count = new AtomicInteger(0);
+      return Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, prefix + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    try {
+      return (ExecutorService) THREAD_PER_TASK.invoke(null, factory(prefix));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("unable to create virtual thread executor", e);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.wfsample.service;
+
+import com.wfsample.common.dto.PackedShirtsDTO;
+
+import java.util.concurrent.CompletionStage;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Asynchronous client view of {@link DeliveryApi}, for callers that shouldn't hold a thread while
+ * waiting for the delivery service.
+ */
+@Path("/delivery")
+@Produces(MediaType.APPLICATION_JSON)
+public interface DeliveryAsyncApi {
+
+  @POST
+  @Path("{orderNum}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  CompletionStage<Response> dispatch(@PathParam("orderNum") String orderNum,
+                                     PackedShirtsDTO shirts);
+}
@@ -0,0 +1,33 @@
+package com.wfsample.service;
+
+import com.wfsample.common.dto.PackedShirtsDTO;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Asynchronous client view of {@link StylingApi}, for callers that shouldn't hold a thread while
+ * waiting for the styling service.
+ */
+@Path("/style")
+@Produces(MediaType.APPLICATION_JSON)
+public interface StylingAsyncApi {
+
+  @GET
+  CompletionStage<List<ShirtStyleDTO>> getAllStyles();
+
+  @GET
+  @Path("{id}/make")
+  @Consumes(MediaType.APPLICATION_JSON)
+  CompletionStage<PackedShirtsDTO> makeShirts(@PathParam("id") String id,
+                                              @QueryParam("quantity") int quantity);
+}
@@ -0,0 +1,95 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for AdaptiveConcurrencyLimiter.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testRejectsBeyondLimit() {
+        MetricRegistry metrics = new MetricRegistry();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+            new ConcurrencyLimitConfig(true, 20, 10, 100)).registerMetrics("test", metrics);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            permits.add(limiter.tryAcquire());
+        }
+        assertNull(limiter.tryAcquire());
+        assertEquals(1, metrics.counter("test.concurrency.rejected").getCount());
+        assertEquals(20, gauge(metrics, "test.concurrency.inflight"));
+
+        // releasing twice must not free two slots.
+        permits.get(0).onIgnore();
+        permits.get(0).onSuccess();
+        assertEquals(19, limiter.getInFlight());
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testGrowsWhileLatencyIsSteady() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+            new ConcurrencyLimitConfig(true, 20, 10, 100));
+        for (int i = 0; i < 200; i++) {
+            limiter.onSample(100 * MILLIS, limiter.getLimit(), false);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void testIgnoresLatencyWhileMostlyIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+            new ConcurrencyLimitConfig(true, 50, 10, 100));
+        for (int i = 0; i < 200; i++) {
+            limiter.onSample(100 * MILLIS, 5, false);
+        }
+        assertEquals(50, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksWhenRequestsQueueUp() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+            new ConcurrencyLimitConfig(true, 80, 10, 100));
+        limiter.onSample(100 * MILLIS, 80, false);
+        // requests now take 4 times as long, most of the limit is spent queueing.
+        for (int i = 0; i < 200; i++) {
+            limiter.onSample(400 * MILLIS, limiter.getLimit(), false);
+        }
+        int limit = limiter.getLimit();
+        assertTrue("limit " + limit, limit < 20);
+        assertTrue("limit " + limit, limit >= 10);
+    }
+
+    @Test
+    public void testTimeoutsCutLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+            new ConcurrencyLimitConfig(true, 100, 10, 100));
+        limiter.onSample(100 * MILLIS, 100, true);
+        assertEquals(90, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(100 * MILLIS, 100, true);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int gauge(MetricRegistry metrics, String name) {
+        return ((Gauge<Integer>) metrics.getGauges().get(name)).getValue();
+    }
+}
@@ -4,26 +4,12 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Unit tests for BeachShirtsUtils class.
  */
 public class BeachShirtsUtilsTest {
 
-    @Test
-    public void testIsErrorRequest() {
-        AtomicInteger index = new AtomicInteger(0);
-        
-        assertTrue(BeachShirtsUtils.isErrorRequest(index, 1, 10));
-        
-        index = new AtomicInteger(0);
-        
-        assertFalse(BeachShirtsUtils.isErrorRequest(index, 0, 2)); // First request (index=1)
-        assertTrue(BeachShirtsUtils.isErrorRequest(index, 0, 2));  // Second request (index=2)
-        assertFalse(BeachShirtsUtils.isErrorRequest(index, 0, 2)); // Third request (index=3)
-    }
-
     @Test
     public void testGetRequestLatency() {
         Random rand = new Random(123); // Use fixed seed for reproducibility
@@ -0,0 +1,116 @@
+package com.wfsample.common;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Void;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for ClosingServer.
+ */
+public class ClosingServerTest {
+
+    private ClosingServer server(List<String> closed) {
+        return new ClosingServer(InProcessServerBuilder.forName(
+            InProcessServerBuilder.generateName()).build()).
+            closing(() -> closed.add("injector")).
+            closing(() -> {
+                throw new IllegalStateException("already stopped");
+            }).
+            closing(() -> closed.add("sender"));
+    }
+
+    @Test
+    public void testClosesResourcesOnShutdown() throws Exception {
+        List<String> closed = new ArrayList<>();
+        ClosingServer server = server(closed).start();
+        assertTrue(closed.isEmpty());
+        server.shutdown();
+        assertTrue(server.awaitTermination(5, TimeUnit.SECONDS));
+        // in order, and despite the resource failing to close.
+        assertEquals(Arrays.asList("injector", "sender"), closed);
+    }
+
+    @Test
+    public void testClosesResourcesOnce() throws Exception {
+        List<String> closed = new ArrayList<>();
+        ClosingServer server = server(closed).start();
+        server.shutdown();
+        server.shutdownNow();
+        assertTrue(server.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(server.isShutdown());
+        assertEquals(Arrays.asList("injector", "sender"), closed);
+    }
+
+    @Test
+    public void testClosesResourcesAfterCallsInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String name = InProcessServerBuilder.generateName();
+        List<String> closed = Collections.synchronizedList(new ArrayList<>());
+        ClosingServer server = new ClosingServer(InProcessServerBuilder.forName(name).
+            addService(new PrintingGrpc.PrintingImplBase() {
+                @Override
+                public void getAvailableColors(Void request,
+                                               StreamObserver<AvailableColors> responseObserver) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    responseObserver.onNext(AvailableColors.getDefaultInstance());
+                    responseObserver.onCompleted();
+                }
+            }).build()).
+            closing(() -> closed.add("limiter")).
+            start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+        try {
+            ListenableFuture<AvailableColors> call = PrintingGrpc.newFutureStub(channel).
+                getAvailableColors(Void.getDefaultInstance());
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            server.shutdown();
+            assertFalse(server.awaitTermination(100, TimeUnit.MILLISECONDS));
+            // the call in flight may still use what the server would close.
+            assertTrue(closed.isEmpty());
+
+            release.countDown();
+            call.get(5, TimeUnit.SECONDS);
+            assertTrue(server.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("limiter"), closed);
+        } finally {
+            channel.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClosesResourcesWithoutAwaitingTermination() throws Exception {
+        List<String> closed = Collections.synchronizedList(new ArrayList<>());
+        server(closed).start().shutdown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (closed.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList("injector", "sender"), closed);
+    }
+}
@@ -0,0 +1,111 @@
+package com.wfsample.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+
+import io.dropwizard.Application;
+import io.dropwizard.Configuration;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for ConcurrencyLimitFilter.
+ */
+public class ConcurrencyLimitFilterTest {
+
+    private static final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        new ConcurrencyLimitConfig(true, 2, 2, 2));
+    private static final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor();
+
+    private final DropwizardTestSupport<Configuration> app = new DropwizardTestSupport<>(
+        TestApp.class, (String) null,
+        ConfigOverride.config("server.applicationConnectors[0].port", "0"),
+        ConfigOverride.config("server.adminConnectors[0].port", "0"));
+
+    public static class TestApp extends Application<Configuration> {
+        @Override
+        public void run(Configuration configuration, Environment environment) {
+            environment.jersey().register(new TestResource());
+            environment.jersey().register(new ConcurrencyLimitFilter(limiter));
+        }
+    }
+
+    @Path("/test")
+    public static class TestResource {
+        @GET
+        @Path("/sync")
+        public String sync() {
+            return "done";
+        }
+
+        @GET
+        @Path("/async")
+        public void async(@Suspended AsyncResponse asyncResponse) {
+            scheduler.schedule(() -> asyncResponse.resume("done"), 10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        app.before();
+    }
+
+    @After
+    public void tearDown() {
+        app.after();
+    }
+
+    @Test
+    public void testReleasesPermitOfSyncRequests() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, get("/test/sync"));
+            assertInFlightDrops();
+        }
+    }
+
+    @Test
+    public void testReleasesPermitOfAsyncRequests() throws Exception {
+        // more requests than the limit, each waiting for the permit of the previous one, which
+        // may be released only after its response arrived.
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, get("/test/async"));
+            assertInFlightDrops();
+        }
+    }
+
+    private int get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" +
+            app.getLocalPort() + path).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void assertInFlightDrops() throws InterruptedException {
+        // the permit is released after the response has been sent.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,111 @@
+package com.wfsample.common;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Void;
+
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for ConcurrencyLimitInterceptor.
+ */
+public class ConcurrencyLimitInterceptorTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        new ConcurrencyLimitConfig(true, 2, 2, 2));
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(2);
+    private String name;
+
+    private class BlockingPrintingImpl extends PrintingGrpc.PrintingImplBase {
+        @Override
+        public void getAvailableColors(Void request,
+                                       StreamObserver<AvailableColors> responseObserver) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(AvailableColors.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(name).addService(
+            ServerInterceptors.intercept(new BlockingPrintingImpl(),
+                new ConcurrencyLimitInterceptor(limiter))).build().start());
+    }
+
+    @Test
+    public void testRejectsCallsBeyondLimit() throws Exception {
+        PrintingGrpc.PrintingFutureStub stub = PrintingGrpc.newFutureStub(
+            grpcCleanup.register(InProcessChannelBuilder.forName(name).build()));
+        List<ListenableFuture<AvailableColors>> admitted = new ArrayList<>();
+        admitted.add(stub.getAvailableColors(Void.getDefaultInstance()));
+        admitted.add(stub.getAvailableColors(Void.getDefaultInstance()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            PrintingGrpc.newBlockingStub(grpcCleanup.register(
+                InProcessChannelBuilder.forName(name).build())).
+                getAvailableColors(Void.getDefaultInstance());
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+        }
+        assertEquals(1, limiter.getRejected());
+
+        release.countDown();
+        for (ListenableFuture<AvailableColors> call : admitted) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCancelledCallReleasesPermit() throws Exception {
+        PrintingGrpc.PrintingFutureStub stub = PrintingGrpc.newFutureStub(
+            grpcCleanup.register(InProcessChannelBuilder.forName(name).build()));
+        ListenableFuture<AvailableColors> call = stub.getAvailableColors(Void.getDefaultInstance());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getInFlight() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, limiter.getInFlight());
+
+        // the permit is held until the handler gives its thread back.
+        call.cancel(true);
+        release.countDown();
+        while (limiter.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+}
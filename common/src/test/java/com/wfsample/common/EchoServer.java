@@ -0,0 +1,77 @@
+package com.wfsample.common;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Jetty server speaking both HTTP/1.1 and cleartext HTTP/2 that echoes request bodies back after
+ * a fixed delay, for exercising the HTTP client engines.
+ */
+class EchoServer implements AutoCloseable {
+
+    private final Server server = new Server();
+    private final ServerConnector connector;
+
+    EchoServer(long delayMillis) throws Exception {
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig),
+            new HTTP2CServerConnectionFactory(httpConfig));
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                byte[] body = readFully(request.getInputStream());
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(200);
+                response.setContentType("application/json");
+                response.getOutputStream().write(body.length > 0 ? body : "{}".getBytes());
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://localhost:" + connector.getLocalPort();
+    }
+
+    /**
+     * Number of client connections currently open.
+     */
+    int connections() {
+        return connector.getConnectedEndPoints().size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stop();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
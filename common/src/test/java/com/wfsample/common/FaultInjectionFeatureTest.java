@@ -0,0 +1,135 @@
+package com.wfsample.common;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import io.dropwizard.Application;
+import io.dropwizard.Configuration;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for FaultInjectionFeature.
+ */
+public class FaultInjectionFeatureTest {
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final AtomicInteger handled = new AtomicInteger(0);
+    private static FaultInjector injector;
+
+    private final DropwizardTestSupport<Configuration> app = new DropwizardTestSupport<>(
+        TestApp.class, (String) null,
+        ConfigOverride.config("server.applicationConnectors[0].port", "0"),
+        ConfigOverride.config("server.adminConnectors[0].port", "0"));
+
+    public static class TestApp extends Application<Configuration> {
+        @Override
+        public void run(Configuration configuration, Environment environment) {
+            environment.jersey().register(new TestResource());
+            environment.jersey().register(new FaultInjectionFeature(injector, null));
+        }
+    }
+
+    @Path("/test")
+    public static class TestResource {
+        @GET
+        @Path("/failing")
+        public String failing() {
+            handled.incrementAndGet();
+            return "done";
+        }
+
+        @GET
+        @Path("/healthy")
+        public String healthy() {
+            handled.incrementAndGet();
+            return "done";
+        }
+    }
+
+    @BeforeClass
+    public static void setUpInjector() throws Exception {
+        File rules = folder.newFile("faults.yaml");
+        Files.write(rules.toPath(), Arrays.asList("rules:",
+            "  TestResource.failing:",
+            "    errorRate: 1",
+            "    status: 400",
+            "    message: order number not found"), StandardCharsets.UTF_8);
+        injector = new FaultInjector(new FaultInjectionConfig(rules.getPath(), 0));
+    }
+
+    @AfterClass
+    public static void closeInjector() {
+        injector.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        handled.set(0);
+        app.before();
+    }
+
+    @After
+    public void tearDown() {
+        app.after();
+    }
+
+    @Test
+    public void testFailsRequestWithoutHandlingIt() throws Exception {
+        HttpURLConnection connection = get("/test/failing");
+        try {
+            assertEquals(400, connection.getResponseCode());
+            assertEquals("{\"status\":\"order number not found\"}",
+                read(connection.getErrorStream()));
+        } finally {
+            connection.disconnect();
+        }
+        assertEquals(0, handled.get());
+    }
+
+    @Test
+    public void testLeavesOtherRoutesAlone() throws Exception {
+        HttpURLConnection connection = get("/test/healthy");
+        try {
+            assertEquals(200, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+        assertEquals(1, handled.get());
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + app.getLocalPort() + path).
+            openConnection();
+    }
+
+    private static String read(InputStream stream) {
+        try (Scanner scanner = new Scanner(stream, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.wfsample.common;
+
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.Color;
+import com.wfsample.beachshirts.PackagingGrpc;
+import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Void;
+import com.wfsample.beachshirts.WrapRequest;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for FaultInjectionInterceptor.
+ */
+public class FaultInjectionInterceptorTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger handled = new AtomicInteger(0);
+    private FaultInjector injector;
+    private PrintingGrpc.PrintingBlockingStub stub;
+    private PackagingGrpc.PackagingStub packagingStub;
+
+    private class PrintingImpl extends PrintingGrpc.PrintingImplBase {
+        @Override
+        public void getAvailableColors(Void request,
+                                       StreamObserver<AvailableColors> responseObserver) {
+            handled.incrementAndGet();
+            responseObserver.onNext(AvailableColors.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void addPrintColor(Color request,
+                                  StreamObserver<com.wfsample.beachshirts.Status> responseObserver) {
+            handled.incrementAndGet();
+            responseObserver.onNext(com.wfsample.beachshirts.Status.newBuilder().
+                setStatus(true).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private class PackagingImpl extends PackagingGrpc.PackagingImplBase {
+        @Override
+        public StreamObserver<WrapRequest> wrapShirtsStream(
+            StreamObserver<PackedShirts> responseObserver) {
+            handled.incrementAndGet();
+            return new StreamObserver<WrapRequest>() {
+                @Override
+                public void onNext(WrapRequest value) {
+                    handled.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onNext(PackedShirts.getDefaultInstance());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File rules = folder.newFile("faults.yaml");
+        Files.write(rules.toPath(), Arrays.asList("rules:",
+            "  Printing/getAvailableColors:",
+            "    errorRate: 1",
+            "    status: CANCELLED",
+            "    message: unable to get available colors",
+            "  Packaging/wrapShirtsStream:",
+            "    errorRate: 1",
+            "    status: UNAVAILABLE",
+            "    message: unable to wrap shirts",
+            "  Printing:",
+            "    latency: {meanMillis: 200}"), StandardCharsets.UTF_8);
+        injector = new FaultInjector(new FaultInjectionConfig(rules.getPath(), 0));
+        String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(name).addService(
+            ServerInterceptors.intercept(new PrintingImpl(),
+                new FaultInjectionInterceptor(injector, null))).
+            addService(ServerInterceptors.intercept(new PackagingImpl(),
+                new FaultInjectionInterceptor(injector, null))).build().start());
+        ManagedChannel channel = grpcCleanup.register(
+            InProcessChannelBuilder.forName(name).build());
+        stub = PrintingGrpc.newBlockingStub(channel);
+        packagingStub = PackagingGrpc.newStub(channel);
+    }
+
+    @After
+    public void tearDown() {
+        injector.close();
+    }
+
+    @Test
+    public void testFailsCallWithoutHandlingIt() {
+        try {
+            stub.getAvailableColors(Void.getDefaultInstance());
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.CANCELLED, e.getStatus().getCode());
+            assertEquals("unable to get available colors", e.getStatus().getDescription());
+        }
+        assertEquals(0, handled.get());
+    }
+
+    @Test
+    public void testDelaysCall() {
+        long start = System.nanoTime();
+        assertTrue(stub.addPrintColor(Color.getDefaultInstance()).getStatus());
+        assertTrue((System.nanoTime() - start) / 1000000 >= 200);
+        assertEquals(1, handled.get());
+    }
+
+    @Test
+    public void testFailsClientStreamingCallWithoutHandlingIt() throws Exception {
+        CompletableFuture<PackedShirts> response = new CompletableFuture<>();
+        StreamObserver<WrapRequest> requests = packagingStub.wrapShirtsStream(
+            new StreamObserver<PackedShirts>() {
+                @Override
+                public void onNext(PackedShirts value) {
+                    response.complete(value);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    response.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+        requests.onNext(WrapRequest.getDefaultInstance());
+        requests.onNext(WrapRequest.getDefaultInstance());
+        requests.onCompleted();
+        try {
+            response.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            Status status = Status.fromThrowable(e.getCause());
+            assertEquals(Status.Code.UNAVAILABLE, status.getCode());
+            assertEquals("unable to wrap shirts", status.getDescription());
+        }
+        // neither the call was started nor were the shirts received.
+        assertEquals(0, handled.get());
+    }
+}
@@ -0,0 +1,214 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.MetricRegistry;
+import io.grpc.Status;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for FaultInjector.
+ */
+public class FaultInjectorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private FaultInjector injector;
+
+    @After
+    public void tearDown() {
+        if (injector != null) {
+            injector.close();
+        }
+    }
+
+    private File rules(String... lines) throws IOException {
+        File file = new File(folder.getRoot(), "faults.yaml");
+        long previous = file.lastModified();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        // the modification time may be as coarse as a second.
+        file.setLastModified(Math.max(System.currentTimeMillis(), previous + 2000));
+        return file;
+    }
+
+    private FaultInjector injector(File file) throws IOException {
+        injector = new FaultInjector(new FaultInjectionConfig(file.getPath(), 0));
+        return injector;
+    }
+
+    @Test
+    public void testNoRules() throws Exception {
+        injector = new FaultInjector(new FaultInjectionConfig());
+        assertNull(injector.forRoute("Printing", "Printing/printShirts"));
+        injector(new File(folder.getRoot(), "missing.yaml"));
+        assertNull(injector.forRoute("Printing", "Printing/printShirts"));
+        injector(rules("rules: {}"));
+        assertNull(injector.forRoute("Printing", "Printing/printShirts"));
+    }
+
+    @Test
+    public void testRouteFallsBackToService() throws Exception {
+        injector(rules("rules:",
+            "  Printing:",
+            "    errorRate: 1",
+            "  Printing/printShirts:",
+            "    errorRate: 0"));
+        assertFalse(injector.forRoute("Printing", "Printing/printShirts").nextError());
+        assertTrue(injector.forRoute("Printing", "Printing/addPrintColor").nextError());
+        assertNull(injector.forRoute("Packaging", "Packaging/wrapShirts"));
+    }
+
+    @Test
+    public void testErrorRate() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        FaultInjector.Fault fault = injector(rules("rules:",
+            "  Printing:",
+            "    errorRate: 0.2")).registerMetrics("printing", metrics).
+            forRoute("Printing", "Printing/printShirts");
+        int errors = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (fault.nextError()) {
+                errors++;
+            }
+        }
+        assertEquals(2000, errors, 200);
+        assertEquals(errors, metrics.counter("printing.faults.errors").getCount());
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        FaultInjector.Fault fault = injector(rules("rules:",
+            "  Printing:",
+            "    latencyRate: 0.5",
+            "    latency: {meanMillis: 30}",
+            "    errorLatency: {distribution: pareto, minMillis: 100, maxMillis: 100}")).
+            registerMetrics("printing", metrics).forRoute("Printing", "Printing/printShirts");
+        int delayed = 0;
+        for (int i = 0; i < 1000; i++) {
+            long millis = fault.nextLatencyMillis();
+            assertTrue("latency " + millis, millis == 0 || millis == 30);
+            if (millis > 0) {
+                delayed++;
+            }
+        }
+        assertEquals(500, delayed, 80);
+        assertEquals(delayed, metrics.counter("printing.faults.delayed").getCount());
+        assertEquals(100, fault.nextErrorLatencyMillis());
+        assertFalse(fault.nextError());
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        injector(rules("rules:",
+            "  Printing:",
+            "    status: RESOURCE_EXHAUSTED",
+            "    message: not enough ink",
+            "  DeliveryController:",
+            "    status: 400",
+            "  StylingWebResource: {}"));
+        FaultInjector.Fault grpc = injector.forRoute("Printing", "Printing/printShirts");
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, grpc.getGrpcStatus().getCode());
+        assertEquals("not enough ink", grpc.getGrpcStatus().getDescription());
+        assertEquals(500, grpc.getHttpStatus());
+        FaultInjector.Fault http = injector.forRoute("DeliveryController",
+            "DeliveryController.dispatch");
+        assertEquals(400, http.getHttpStatus());
+        assertEquals(Status.Code.INTERNAL, http.getGrpcStatus().getCode());
+        FaultInjector.Fault defaults = injector.forRoute("StylingWebResource",
+            "StylingWebResource.getAllStyles");
+        assertEquals(500, defaults.getHttpStatus());
+        assertEquals(Status.Code.INTERNAL, defaults.getGrpcStatus().getCode());
+    }
+
+    @Test
+    public void testInvalidRules() throws Exception {
+        for (String rule : Arrays.asList("status: TEAPOT", "status: 200", "errorRate: 2",
+            "latency: {distribution: gamma}", "burst: {periodSeconds: 1, durationSeconds: 1, "
+                + "latencyRate: -1}")) {
+            try {
+                injector(rules("rules:", "  Printing: {" + rule + "}"));
+                fail(rule);
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().startsWith("Printing: "));
+            }
+        }
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        injector(rules("rules:",
+            "  Printing:",
+            "    errorRate: 0",
+            "    burst: {periodSeconds: 60, durationSeconds: 60, errorRate: 1}",
+            "  Packaging:",
+            "    errorRate: 1",
+            "    latency: {meanMillis: 10}",
+            "    burst: {periodSeconds: 60, durationSeconds: 60, latency: {meanMillis: 500}}"));
+        // a burst as long as its period never ends.
+        assertTrue(injector.forRoute("Printing", "Printing/printShirts").nextError());
+        FaultInjector.Fault fault = injector.forRoute("Packaging", "Packaging/wrapShirts");
+        assertTrue(fault.nextError());
+        assertEquals(500, fault.nextLatencyMillis());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File file = rules("rules:",
+            "  Printing: {errorRate: 1}");
+        injector(file);
+        FaultInjector.Fault fault = injector.forRoute("Printing", "Printing/printShirts");
+        assertTrue(fault.nextError());
+
+        injector.reload();
+        assertSame(fault, injector.forRoute("Printing", "Printing/printShirts"));
+
+        rules("rules:",
+            "  Printing: {errorRate: 0}");
+        injector.reload();
+        assertFalse(injector.forRoute("Printing", "Printing/printShirts").nextError());
+
+        // invalid rules leave the previous ones in place.
+        rules("rules:",
+            "  Printing: {errorRate: often}");
+        injector.reload();
+        assertNotNull(injector.forRoute("Printing", "Printing/printShirts"));
+        assertFalse(injector.forRoute("Printing", "Printing/printShirts").nextError());
+
+        assertTrue(file.delete());
+        injector.reload();
+        assertNull(injector.forRoute("Printing", "Printing/printShirts"));
+    }
+
+    @Test
+    public void testReloadsInBackground() throws Exception {
+        File file = new File(folder.getRoot(), "faults.yaml");
+        injector = new FaultInjector(new FaultInjectionConfig(file.getPath(), 1));
+        assertNull(injector.forRoute("Printing", "Printing/printShirts"));
+        rules("rules:",
+            "  Printing: {errorRate: 1}");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (injector.forRoute("Printing", "Printing/printShirts") == null &&
+            System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(injector.forRoute("Printing", "Printing/printShirts").nextError());
+    }
+}
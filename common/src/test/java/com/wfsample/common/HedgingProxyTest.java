@@ -0,0 +1,191 @@
+package com.wfsample.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for HedgingProxy.
+ */
+public class HedgingProxyTest {
+
+    public interface OrderApi {
+        CompletionStage<Response> order(String id);
+
+        CompletionStage<Response> track(String id);
+
+        Response cancel(String id);
+    }
+
+    /**
+     * Answers each call with the next of the prepared futures.
+     */
+    private static class ScriptedOrderApi implements OrderApi {
+        private final List<CompletableFuture<Response>> answers = new ArrayList<>();
+        private int calls = 0;
+
+        ScriptedOrderApi answer(CompletableFuture<Response> answer) {
+            answers.add(answer);
+            return this;
+        }
+
+        @Override
+        public synchronized CompletionStage<Response> order(String id) {
+            return answers.get(calls++);
+        }
+
+        @Override
+        public synchronized CompletionStage<Response> track(String id) {
+            return answers.get(calls++);
+        }
+
+        @Override
+        public Response cancel(String id) {
+            calls++;
+            return Response.ok().build();
+        }
+
+        synchronized int calls() {
+            return calls;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private OrderApi wrap(OrderApi api, LatencyBudget budget) {
+        Map<String, LatencyBudget> routes = new HashMap<>();
+        routes.put("OrderApi.order", budget);
+        return HedgingProxy.wrap(OrderApi.class, api, routes, scheduler, null);
+    }
+
+    @Test
+    public void testHedgeAnswersFirst() throws Exception {
+        Response ok = Response.ok().build();
+        ScriptedOrderApi api = new ScriptedOrderApi().answer(new CompletableFuture<>()).
+            answer(CompletableFuture.completedFuture(ok));
+        OrderApi hedged = wrap(api, new LatencyBudget(5000, 50, 2));
+
+        long start = System.nanoTime();
+        assertSame(ok, hedged.order("1").toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, api.calls());
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws Exception {
+        Response ok = Response.ok().build();
+        ScriptedOrderApi api = new ScriptedOrderApi().
+            answer(CompletableFuture.completedFuture(Response.serverError().build())).
+            answer(CompletableFuture.completedFuture(ok));
+        OrderApi retried = wrap(api, new LatencyBudget(5000, 0, 3));
+
+        assertSame(ok, retried.order("1").toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(2, api.calls());
+    }
+
+    @Test
+    public void testLastFailureIsReturned() throws Exception {
+        ScriptedOrderApi api = new ScriptedOrderApi().
+            answer(CompletableFuture.completedFuture(Response.serverError().build())).
+            answer(CompletableFuture.completedFuture(Response.status(503).build()));
+        OrderApi retried = wrap(api, new LatencyBudget(5000, 0, 2));
+
+        assertEquals(503, retried.order("1").toCompletableFuture().get(5, TimeUnit.SECONDS).
+            getStatus());
+        assertEquals(2, api.calls());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() throws Exception {
+        ScriptedOrderApi api = new ScriptedOrderApi().
+            answer(CompletableFuture.completedFuture(Response.status(400).build()));
+        OrderApi retried = wrap(api, new LatencyBudget(5000, 0, 3));
+
+        assertEquals(400, retried.order("1").toCompletableFuture().get(5, TimeUnit.SECONDS).
+            getStatus());
+        assertEquals(1, api.calls());
+    }
+
+    @Test
+    public void testBudgetExceeded() throws Exception {
+        ScriptedOrderApi api = new ScriptedOrderApi().answer(new CompletableFuture<>()).
+            answer(new CompletableFuture<>());
+        OrderApi hedged = wrap(api, new LatencyBudget(200, 50, 2));
+
+        try {
+            hedged.order("1").toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(504, ((WebApplicationException) e.getCause()).getResponse().getStatus());
+        }
+        assertEquals(2, api.calls());
+    }
+
+    @Test
+    public void testSlowCallerDoesntHoldUpHedges() throws Exception {
+        Response ok = Response.ok().build();
+        CompletableFuture<Response> first = new CompletableFuture<>();
+        ScriptedOrderApi api = new ScriptedOrderApi().answer(first).
+            answer(new CompletableFuture<>()).answer(CompletableFuture.completedFuture(ok));
+        OrderApi hedged = wrap(api, new LatencyBudget(5000, 200, 2));
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Response> slow = hedged.order("1").thenApply(response -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return response;
+        }).toCompletableFuture();
+        CompletableFuture<Response> hedgedCall = hedged.order("2").toCompletableFuture();
+        // the first call's dependent stage runs on, and blocks, the thread answering it.
+        new Thread(() -> first.complete(ok)).start();
+
+        try {
+            // the first call's hedge timer fires too, it must not wait for the blocked stage.
+            assertSame(ok, hedgedCall.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertSame(ok, slow.get(5, TimeUnit.SECONDS));
+        assertEquals(3, api.calls());
+    }
+
+    @Test
+    public void testRoutesWithoutBudgetPassThrough() throws Exception {
+        Response ok = Response.ok().build();
+        ScriptedOrderApi api = new ScriptedOrderApi().
+            answer(CompletableFuture.completedFuture(Response.serverError().build()));
+        OrderApi wrapped = wrap(api, new LatencyBudget(5000, 0, 3));
+
+        assertEquals(500, wrapped.track("1").toCompletableFuture().get().getStatus());
+        assertEquals(200, wrapped.cancel("1").getStatus());
+        assertEquals(2, api.calls());
+        assertSame(api, HedgingProxy.wrap(OrderApi.class, api, new HashMap<>(), scheduler, null));
+    }
+}
@@ -0,0 +1,116 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for HttpClientPool.
+ */
+public class HttpClientPoolTest {
+
+    private HttpServer server;
+    private HttpClientPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 2);
+            exchange.getResponseBody().write("ok".getBytes());
+            exchange.close();
+        });
+        server.start();
+        pool = new HttpClientPool(new HttpClientConfig());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsAreReturnedToThePool() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        pool.registerMetrics("test", metrics);
+        String url = "http://localhost:" + server.getAddress().getPort() + "/";
+
+        for (int i = 0; i < 5; i++) {
+            try (CloseableHttpResponse response = pool.httpClient().execute(new HttpGet(url))) {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                assertEquals(1, gauge(metrics, "http.client.test.leased"));
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+
+        // the one keep-alive connection was reused for every request.
+        assertEquals(0, gauge(metrics, "http.client.test.leased"));
+        assertEquals(1, gauge(metrics, "http.client.test.available"));
+        assertEquals(0, gauge(metrics, "http.client.test.pending"));
+        assertEquals(new HttpClientConfig().getMaxConnTotal(), gauge(metrics, "http.client.test.max"));
+    }
+
+    @Test
+    public void testApacheAsyncCallsShareBoundedThreads() throws Exception {
+        assertAsyncCallsShareBoundedThreads(HttpClientConfig.Engine.APACHE);
+    }
+
+    @Test
+    public void testOkHttpAsyncCallsShareBoundedThreads() throws Exception {
+        assertAsyncCallsShareBoundedThreads(HttpClientConfig.Engine.OKHTTP_H2C);
+    }
+
+    private static void assertAsyncCallsShareBoundedThreads(HttpClientConfig.Engine engine)
+        throws Exception {
+        HttpClientPool asyncPool = new HttpClientPool(new ObjectMapper().readValue(
+            "{\"engine\": \"" + engine + "\", \"maxAsyncCalls\": 8}", HttpClientConfig.class));
+        ResteasyClient client = new ResteasyClientBuilderImpl().
+            register(ResteasyJackson2Provider.class).httpEngine(asyncPool.newEngine()).
+            executorService(asyncPool.asyncExecutor(), false).build();
+        try (EchoServer echoServer = new EchoServer(100)) {
+            OkHttpClientEngineTest.EchoApi echoApi =
+                client.target(echoServer.url()).proxy(OkHttpClientEngineTest.EchoApi.class);
+            List<CompletableFuture<ShirtStyleDTO>> calls = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                calls.add(echoApi.echoAsync(new ShirtStyleDTO("style" + i, "image" + i)).
+                    toCompletableFuture());
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals("style" + i, calls.get(i).get(10, TimeUnit.SECONDS).getName());
+            }
+            // 100 calls in flight at once, queued behind 8 threads rather than a thread each.
+            int threads = ((ThreadPoolExecutor) asyncPool.asyncExecutor()).getLargestPoolSize();
+            assertTrue("created " + threads + " threads", threads > 0 && threads <= 8);
+        } finally {
+            client.close();
+            asyncPool.close();
+        }
+    }
+
+    private static int gauge(MetricRegistry metrics, String name) {
+        return (Integer) ((Gauge<?>) metrics.getGauges().get(name)).getValue();
+    }
+}
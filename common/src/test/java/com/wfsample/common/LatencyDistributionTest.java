@@ -0,0 +1,116 @@
+package com.wfsample.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for LatencyDistribution and PerThreadRandom.
+ */
+public class LatencyDistributionTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNormalStaysWithinDelta() {
+        LatencyDistribution distribution = LatencyDistribution.normal(100, 70,
+            new PerThreadRandom(0L));
+        long sum = 0;
+        for (int i = 0; i < 10000; i++) {
+            long millis = distribution.nextMillis();
+            assertTrue("latency " + millis, millis >= 30 && millis <= 170);
+            sum += millis;
+        }
+        assertEquals(100, sum / 10000.0, 2);
+        assertEquals(100, distribution.getQuantile(0.5));
+        assertTrue(distribution.getQuantile(0.9) > 140);
+    }
+
+    @Test
+    public void testNormalIsNeverNegative() {
+        LatencyDistribution distribution = LatencyDistribution.normal(10, 50,
+            new PerThreadRandom(0L));
+        assertEquals(0, distribution.getQuantile(0));
+        assertEquals(60, distribution.getQuantile(1));
+    }
+
+    @Test
+    public void testLogNormal() {
+        LatencyDistribution distribution = LatencyDistribution.logNormal(100, 0.5,
+            new PerThreadRandom(0L));
+        assertEquals(100, distribution.getQuantile(0.5));
+        // exp(0.5 * 2.326) of the median at the 99th percentile.
+        assertEquals(320, distribution.getQuantile(0.99), 5);
+    }
+
+    @Test
+    public void testParetoIsCutOff() {
+        LatencyDistribution distribution = LatencyDistribution.pareto(10, 1.16, 5000,
+            new PerThreadRandom(0L));
+        assertEquals(10, distribution.getQuantile(0));
+        assertEquals(16, distribution.getQuantile(0.4));
+        assertEquals(5000, distribution.getQuantile(1));
+    }
+
+    @Test
+    public void testEmpirical() throws Exception {
+        File file = folder.newFile("latencies.txt");
+        Files.write(file.toPath(), Arrays.asList("# millis count", "", "500, 1", "10 6", "20",
+            "50 2"), StandardCharsets.UTF_8);
+        LatencyDistribution distribution = LatencyDistribution.empirical(file,
+            new PerThreadRandom(0L));
+        assertEquals(10, distribution.getQuantile(0));
+        assertEquals(10, distribution.getQuantile(0.55));
+        assertEquals(20, distribution.getQuantile(0.65));
+        assertEquals(50, distribution.getQuantile(0.85));
+        assertEquals(500, distribution.getQuantile(0.95));
+
+        Files.write(file.toPath(), Arrays.asList("10 1 2"), StandardCharsets.UTF_8);
+        try {
+            LatencyDistribution.empirical(file, new PerThreadRandom(0L));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSameSeedSameLatencies() {
+        LatencyDistribution first = LatencyDistribution.normal(100, 70, new PerThreadRandom(42L));
+        LatencyDistribution second = LatencyDistribution.normal(100, 70, new PerThreadRandom(42L));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.nextMillis(), second.nextMillis());
+        }
+    }
+
+    @Test
+    public void testThreadsGetTheirOwnGenerators() throws Exception {
+        PerThreadRandom random = new PerThreadRandom(42L);
+        long first = random.current().nextLong();
+        AtomicLong other = new AtomicLong();
+        Thread thread = new Thread(() -> other.set(random.current().nextLong()));
+        thread.start();
+        thread.join();
+        assertNotEquals(first, other.get());
+
+        // a second thread starting in the same order draws the same numbers.
+        PerThreadRandom again = new PerThreadRandom(42L);
+        assertEquals(first, again.current().nextLong());
+        AtomicLong otherAgain = new AtomicLong();
+        thread = new Thread(() -> otherAgain.set(again.current().nextLong()));
+        thread.start();
+        thread.join();
+        assertEquals(other.get(), otherAgain.get());
+    }
+}
@@ -0,0 +1,127 @@
+package com.wfsample.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.jboss.resteasy.client.jaxrs.internal.ResteasyClientBuilderImpl;
+import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for OkHttpClientEngine.
+ */
+public class OkHttpClientEngineTest {
+
+    @Path("/")
+    public interface EchoApi {
+        @POST
+        @Path("echo")
+        @Consumes(MediaType.APPLICATION_JSON)
+        @Produces(MediaType.APPLICATION_JSON)
+        ShirtStyleDTO echo(ShirtStyleDTO style);
+
+        @POST
+        @Path("echo")
+        @Consumes(MediaType.APPLICATION_JSON)
+        @Produces(MediaType.APPLICATION_JSON)
+        CompletionStage<ShirtStyleDTO> echoAsync(ShirtStyleDTO style);
+
+        @GET
+        @Path("status")
+        Response status();
+    }
+
+    private EchoServer server;
+    private HttpClientPool pool;
+    private ResteasyClient client;
+    private EchoApi echoApi;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EchoServer(100);
+        HttpClientConfig config = new ObjectMapper().readValue(
+            "{\"engine\": \"OKHTTP_H2C\"}", HttpClientConfig.class);
+        pool = new HttpClientPool(config);
+        client = new ResteasyClientBuilderImpl().register(ResteasyJackson2Provider.class).
+            httpEngine(pool.newEngine()).build();
+        echoApi = client.target(server.url()).proxy(EchoApi.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ShirtStyleDTO style = echoApi.echo(new ShirtStyleDTO("style1", "style1Image"));
+        assertEquals("style1", style.getName());
+        assertEquals("style1Image", style.getImageUrl());
+
+        Response response = echoApi.status();
+        assertEquals(200, response.getStatus());
+        assertEquals("application/json", response.getHeaderString("content-type"));
+        assertEquals("{}", response.readEntity(String.class));
+    }
+
+    @Test
+    public void testConcurrentCallsShareAConnection() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        try {
+            List<Future<ShirtStyleDTO>> calls = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                ShirtStyleDTO style = new ShirtStyleDTO("style" + i, "image" + i);
+                calls.add(executor.submit(() -> echoApi.echo(style)));
+            }
+            for (int i = 0; i < 50; i++) {
+                assertEquals("style" + i, calls.get(i).get().getName());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // all 50 calls were in flight at once, as streams of one or two connections.
+        assertTrue(server.connections() <= 2);
+        assertTrue(pool.connections() <= 2);
+    }
+
+    @Test
+    public void testAsyncCallsDontHoldTheCaller() throws Exception {
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(echoApi.echoAsync(new ShirtStyleDTO("style" + i, "image" + i)).
+                thenApply(style -> Thread.currentThread().getName() + ":" + style.getName()).
+                toCompletableFuture());
+        }
+        for (int i = 0; i < 200; i++) {
+            // completed by okhttp rather than by the caller.
+            assertTrue(calls.get(i).get(10, TimeUnit.SECONDS).startsWith("OkHttp"));
+            assertTrue(calls.get(i).get().endsWith(":style" + i));
+        }
+        assertTrue(pool.connections() <= 2);
+    }
+}
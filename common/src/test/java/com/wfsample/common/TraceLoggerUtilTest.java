@@ -0,0 +1,87 @@
+package com.wfsample.common;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for TraceLoggerUtil and TraceContextDataProvider.
+ */
+public class TraceLoggerUtilTest {
+
+    private final TraceContextDataProvider provider = new TraceContextDataProvider();
+
+    @Test
+    public void testProvidesTraceIdWhileLogging() {
+        assertTrue(provider.supplyContextData().isEmpty());
+        TraceContextDataProvider.set("trace-1");
+        assertEquals(Collections.singletonMap("traceId", "trace-1"), provider.supplyContextData());
+        assertEquals("trace-1", provider.supplyStringMap().getValue("traceId"));
+        TraceContextDataProvider.clear();
+        assertTrue(provider.supplyContextData().isEmpty());
+        assertTrue(provider.supplyStringMap().isEmpty());
+
+        TraceContextDataProvider.set(null);
+        assertTrue(provider.supplyContextData().isEmpty());
+    }
+
+    @Test
+    public void testDisabledLevelLooksNothingUp() {
+        Logger logger = mock(Logger.class);
+        Tracer tracer = mock(Tracer.class);
+        TraceLoggerUtil.traceLog(logger, tracer, Level.DEBUG, "{} processed!", "hawaiian");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.DEBUG, "dispatch started!");
+        verifyNoInteractions(tracer);
+        verify(logger, never()).log(any(Level.class), any(String.class), any(Object.class));
+        verify(logger, never()).log(any(Level.class), any(String.class));
+    }
+
+    @Test
+    public void testLogsWithTraceIdOfActiveSpan() {
+        Logger logger = mock(Logger.class);
+        when(logger.isEnabled(Level.INFO)).thenReturn(true);
+        AtomicReference<Object> traceIdWhileLogging = new AtomicReference<>();
+        doAnswer(invocation -> {
+            // the thread context holds it instead when Log4j logs through another implementation.
+            String traceId = provider.supplyContextData().get("traceId");
+            traceIdWhileLogging.set(traceId != null ? traceId : ThreadContext.get("traceId"));
+            return null;
+        }).when(logger).log(eq(Level.INFO), eq("{} processed!"), eq((Object) "hawaiian"));
+        Tracer tracer = mock(Tracer.class);
+        Span span = mock(Span.class);
+        SpanContext context = mock(SpanContext.class);
+        when(tracer.activeSpan()).thenReturn(span);
+        when(span.context()).thenReturn(context);
+        when(context.toTraceId()).thenReturn("trace-2");
+
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "{} processed!", "hawaiian");
+        verify(tracer).activeSpan();
+        assertEquals("trace-2", traceIdWhileLogging.get());
+        assertTrue(provider.supplyContextData().isEmpty());
+        assertEquals(null, ThreadContext.get("traceId"));
+
+        // without an active span the message is logged without a trace id.
+        when(tracer.activeSpan()).thenReturn(null);
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "{} processed!", "hawaiian");
+        assertEquals(null, traceIdWhileLogging.get());
+    }
+}
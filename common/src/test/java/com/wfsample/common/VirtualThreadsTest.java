@@ -0,0 +1,140 @@
+package com.wfsample.common;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.server.ServerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for VirtualThreads and the virtual thread server factory.
+ */
+public class VirtualThreadsTest {
+
+    @Test
+    public void testThreadPerTaskExecutor() throws Exception {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            thread.set(Thread.currentThread());
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertTrue(thread.get().getName().startsWith("test-"));
+        // falls back to platform threads before Java 21.
+        assertEquals(VirtualThreads.isAvailable(), isVirtual(thread.get()));
+    }
+
+    @Test
+    public void testFactoryNeedsVirtualThreads() {
+        if (VirtualThreads.isAvailable()) {
+            assertTrue(isVirtual(VirtualThreads.factory("test-").newThread(() -> { })));
+            return;
+        }
+        try {
+            VirtualThreads.factory("test-");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testServerFactoryType() throws Exception {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        ServerFactory factory = mapper.readValue("{\"type\": \"virtual-threads\"}",
+            ServerFactory.class);
+        assertTrue(factory instanceof VirtualThreadServerFactory);
+    }
+
+    @Test
+    public void testServerFactoryFallsBackToBoundedPool() throws Exception {
+        VirtualThreadServerFactory factory = (VirtualThreadServerFactory) Jackson.
+            newObjectMapper().readValue("{\"type\": \"virtual-threads\", \"maxThreads\": 64}",
+                ServerFactory.class);
+        ThreadPool threadPool = factory.createThreadPool(new MetricRegistry());
+        if (VirtualThreads.isAvailable()) {
+            assertTrue(threadPool instanceof VirtualThreadPool);
+            return;
+        }
+        // the configured pool rather than a thread per request.
+        assertTrue(threadPool instanceof QueuedThreadPool);
+        assertEquals(64, ((QueuedThreadPool) threadPool).getMaxThreads());
+    }
+
+    @Test
+    public void testVirtualThreadPoolNeedsVirtualThreads() {
+        if (VirtualThreads.isAvailable()) {
+            new VirtualThreadPool("test");
+            return;
+        }
+        try {
+            new VirtualThreadPool("test");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testJettyOnVirtualThreadPool() throws Exception {
+        if (!VirtualThreads.isAvailable()) {
+            return;
+        }
+        VirtualThreadPool threadPool = new VirtualThreadPool("test");
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        AtomicReference<String> handledBy = new AtomicReference<>();
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                handledBy.set(Thread.currentThread().getName());
+                response.setStatus(204);
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        try (HttpClientPool pool = new HttpClientPool(new HttpClientConfig());
+             CloseableHttpResponse response = pool.httpClient().execute(
+                 new HttpGet("http://localhost:" + connector.getLocalPort() + "/"))) {
+            assertEquals(204, response.getStatusLine().getStatusCode());
+            assertTrue(handledBy.get().startsWith("test-"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
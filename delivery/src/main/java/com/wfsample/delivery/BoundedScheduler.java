@@ -0,0 +1,108 @@
+package com.wfsample.delivery;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.springframework.core.env.Environment;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * A fixed size pool of worker threads with a bounded queue, exposed as an RxJava
+ * {@link Scheduler}, so background work keeps the thread count of delivery flat no matter how
+ * fast orders come in. Work that doesn't fit in the queue is handled according to the
+ * {@link RejectionPolicy}. Active workers, queued tasks and rejections are reported to the
+ * {@link MetricRegistry} as delivery.{name}.active, delivery.{name}.queued and
+ * delivery.{name}.rejected.
+ */
+public class BoundedScheduler {
+
+  /**
+   * What to do with work submitted while all workers are busy and the queue is full.
+   */
+  public enum RejectionPolicy {
+    /**
+     * Fail the submission, RxJava reports the error to its error handler.
+     */
+    ABORT(new ThreadPoolExecutor.AbortPolicy()),
+    /**
+     * Run the work on the submitting thread, slowing down the caller.
+     */
+    CALLER_RUNS(new ThreadPoolExecutor.CallerRunsPolicy()),
+    /**
+     * Drop the new work.
+     */
+    DISCARD(new ThreadPoolExecutor.DiscardPolicy()),
+    /**
+     * Drop the oldest queued work in favour of the new one.
+     */
+    DISCARD_OLDEST(new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    private final RejectedExecutionHandler handler;
+
+    RejectionPolicy(RejectedExecutionHandler handler) {
+      this.handler = handler;
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final Scheduler scheduler;
+
+  public BoundedScheduler(String name, int threads, int queueDepth, RejectionPolicy policy,
+                          MetricRegistry metrics) {
+    Counter rejected = metrics.counter(MetricRegistry.name("delivery", name, "rejected"));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    ThreadFactory threadFactory = r -> {
+      Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queueDepth), threadFactory, (r, e) -> {
+      rejected.inc();
+      policy.handler.rejectedExecution(r, e);
+    });
+    // idle workers are released so a quiet delivery service doesn't hold on to the whole pool.
+    executor.allowCoreThreadTimeOut(true);
+    metrics.register(MetricRegistry.name("delivery", name, "active"),
+        (Gauge<Integer>) executor::getActiveCount);
+    metrics.register(MetricRegistry.name("delivery", name, "queued"),
+        (Gauge<Integer>) () -> executor.getQueue().size());
+    this.scheduler = Schedulers.from(executor);
+  }
+
+  /**
+   * Creates a scheduler sized by the {name}.threads, {name}.queue.depth and
+   * {name}.rejection.policy properties, falling back to the given defaults.
+   */
+  public static BoundedScheduler fromEnvironment(String name, Environment env, int threads,
+                                                 int queueDepth, RejectionPolicy policy,
+                                                 MetricRegistry metrics) {
+    Integer configuredThreads = env.getProperty(name + ".threads", Integer.class);
+    Integer configuredQueueDepth = env.getProperty(name + ".queue.depth", Integer.class);
+    String configuredPolicy = env.getProperty(name + ".rejection.policy");
+    return new BoundedScheduler(name,
+        configuredThreads == null ? threads : configuredThreads,
+        configuredQueueDepth == null ? queueDepth : configuredQueueDepth,
+        configuredPolicy == null ? policy :
+            RejectionPolicy.valueOf(configuredPolicy.trim().toUpperCase().replace('-', '_')),
+        metrics);
+  }
+
+  public Scheduler scheduler() {
+    return scheduler;
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
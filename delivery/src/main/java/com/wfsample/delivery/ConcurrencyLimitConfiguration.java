@@ -0,0 +1,32 @@
+package com.wfsample.delivery;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
+import com.wfsample.common.ConcurrencyLimitConfig;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Limits the number of requests delivery handles at once unless concurrency.limit.enabled is
+ * false, see {@link JerseyConfig}. The limit adapts to the observed latency within the
+ * concurrency.limit.min and concurrency.limit.max properties.
+ */
+@Configuration
+@ConditionalOnProperty(name = "concurrency.limit.enabled", havingValue = "true",
+    matchIfMissing = true)
+public class ConcurrencyLimitConfiguration {
+
+  @Bean
+  public AdaptiveConcurrencyLimiter concurrencyLimiter(Environment env,
+                                                       MetricRegistry metricRegistry) {
+    ConcurrencyLimitConfig defaults = new ConcurrencyLimitConfig();
+    return new AdaptiveConcurrencyLimiter(new ConcurrencyLimitConfig(true,
+        env.getProperty("concurrency.limit.initial", Integer.class, defaults.getInitialLimit()),
+        env.getProperty("concurrency.limit.min", Integer.class, defaults.getMinLimit()),
+        env.getProperty("concurrency.limit.max", Integer.class, defaults.getMaxLimit()))).
+        registerMetrics("delivery", metricRegistry);
+  }
+}
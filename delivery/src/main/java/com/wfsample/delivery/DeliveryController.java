@@ -2,7 +2,9 @@ package com.wfsample.delivery;
 
 import com.google.common.collect.ImmutableMap;
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
-import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
 import com.wfsample.common.TraceLoggerUtil;
 import com.wfsample.common.dto.DeliveryStatusDTO;
 import com.wfsample.common.dto.PackedShirtsDTO;
@@ -15,24 +17,22 @@ import io.opentracing.rxjava2.TracingObserver;
 import io.opentracing.rxjava2.TracingRxJava2Utils;
 import io.reactivex.Observable;
 import io.reactivex.Observer;
+import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
 
-import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.env.Environment;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.ws.rs.core.Response;
-import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import static com.wfsample.common.BeachShirtsUtils.getFixedLatency;
 import static com.wfsample.common.BeachShirtsUtils.getRequestLatency;
 
 /**
@@ -44,67 +44,70 @@ import static com.wfsample.common.BeachShirtsUtils.getRequestLatency;
 @RestController
 public class DeliveryController implements DeliveryApi {
   static Logger logger =  LogManager.getLogger(DeliveryController.class);
-  AtomicInteger tracking = new AtomicInteger(0);
-  AtomicInteger dispatch = new AtomicInteger(0);
-  AtomicInteger cancel = new AtomicInteger(0);
-  private final Random rand = new Random(0L);
+  private final LatencyModel processingLatency = LatencyDistribution.normal(100, 70,
+      new PerThreadRandom(0L));
   private final Tracer tracer;
 
-  private double percentage;
-  private long latency;
-  private int globalErrorInterval;
-
   private Observer<ShirtDTO> dispatchObserver;
   private Observer<String> asyncCleanUpObserver;
+  private final Scheduler cleanUpScheduler;
+  private final OrderDispatcher orderDispatcher;
+  private final OrderStore orderStore;
+  // whether shirts are dispatched in the background after the order is acknowledged.
+  private final boolean asyncDispatch;
 
   @Autowired
-  public DeliveryController(Environment env, WavefrontJerseyFactory wavefrontJerseyFactory) {
-    percentage = env.getProperty("request.slow.percentage", Double.class);
-    latency = env.getProperty("request.slow.latency", Long.class);
-    globalErrorInterval = env.getProperty("request.error.interval", Integer.class);
+  public DeliveryController(Environment env, WavefrontJerseyFactory wavefrontJerseyFactory,
+                            @Qualifier("cleanUpScheduler") BoundedScheduler cleanUpScheduler,
+                            OrderDispatcher orderDispatcher, OrderStore orderStore) {
     this.tracer = wavefrontJerseyFactory.getTracer();
+    this.cleanUpScheduler = cleanUpScheduler.scheduler();
+    this.orderDispatcher = orderDispatcher;
+    this.orderStore = orderStore;
+    this.asyncDispatch = Boolean.TRUE.equals(env.getProperty("dispatch.async", Boolean.class));
     TracingRxJava2Utils.enableTracing(tracer);
     this.dispatchObserver = new TracingObserver<>(new Observer<ShirtDTO>() {
       @Override
       public void onSubscribe(Disposable disposable) {
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, "dispatch started!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "dispatch started!");
       }
 
       @Override
       public void onNext(ShirtDTO shirtDTO) {
         try {
-          Thread.sleep(5);
-          TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, shirtDTO.getStyle().getName() + " processed!");
+          Thread.sleep(getFixedLatency(5));
+          TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "{} processed!",
+              shirtDTO.getStyle().getName());
         } catch (InterruptedException ignored) {
         }
       }
 
       @Override
       public void onError(Throwable throwable) {
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.WARN, "dispatch error!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "dispatch error!");
       }
 
       @Override
       public void onComplete() {
         try {
-          Thread.sleep(200);
+          Thread.sleep(getFixedLatency(200));
         } catch (InterruptedException ignored) {
         }
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, "dispatch completed!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "dispatch completed!");
       }
     }, "dispatchObserver", tracer);
 
     this.asyncCleanUpObserver = new TracingObserver<>(new Observer<String>() {
       @Override
       public void onSubscribe(Disposable disposable) {
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, "clean up started!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "clean up started!");
       }
 
       @Override
       public void onNext(String jobName) {
         try {
-          Thread.sleep(1000);
-          TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, "working on " + jobName);
+          Thread.sleep(getFixedLatency(1000));
+          TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "working on {}", jobName);
         } catch (InterruptedException ignored) {
 
         }
@@ -112,12 +115,12 @@ public class DeliveryController implements DeliveryApi {
 
       @Override
       public void onError(Throwable throwable) {
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.WARN, "clean up failed!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "clean up failed!");
       }
 
       @Override
       public void onComplete() {
-        TraceLoggerUtil.traceLog(logger, tracer.activeSpan().context().toTraceId(), Level.INFO, "clean up completed!");
+        TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "clean up completed!");
 
       }
     }, "asyncCleanUpObserver", tracer);
@@ -126,66 +129,58 @@ public class DeliveryController implements DeliveryApi {
   @Override
   public Response dispatch(String orderNum, PackedShirtsDTO packedShirts) {
     try {
-      if (rand.nextDouble() < percentage) {
-        Thread.sleep(latency);
-      } else {
-        Thread.sleep(getRequestLatency(100, 70, rand));
-      }
+      Thread.sleep(getRequestLatency(processingLatency));
     } catch (InterruptedException e) {
       e.printStackTrace();
     }
-    if (BeachShirtsUtils.isErrorRequest(dispatch, globalErrorInterval, 20)) {
-      try {
-        Thread.sleep(15000);
-        throw new TimeoutException();
-      } catch (Exception e) {
-        Span span = tracer == null ? null : tracer.activeSpan();
-        if (span != null) {
-          span.log(ImmutableMap.of(
-              Fields.EVENT, "error",
-              Fields.ERROR_KIND, e.getClass().getName(),
-              Fields.STACK, ExceptionUtils.getStackTrace(e)
-          ));
-          TraceLoggerUtil.traceLog(logger, span.context().toTraceId(), Level.WARN, ExceptionUtils.getStackTrace(e));
-        }
-        return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(
-            new DeliveryStatusDTO(null, "shirt dispatch timed out")).build();
-      }
-    }
     String trackingNum = UUID.randomUUID().toString();
-    System.out.println("Tracking number of Order:" + orderNum + " is " + trackingNum);
+    OrderStore.Order order = orderStore.dispatchedIfAbsent(orderNum, trackingNum);
+    if (!order.getTrackingNum().equals(trackingNum)) {
+      // a retried or hedged dispatch of an order that has been dispatched already.
+      DispatchProgress progress = orderDispatcher.getProgress(orderNum);
+      return Response.ok(new DeliveryStatusDTO(order.getTrackingNum(),
+          progress != null ? progress.describe() : "shirts delivery dispatched")).build();
+    }
+    TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "tracking number of order {} is {}",
+        orderNum, trackingNum);
+    if (asyncDispatch) {
+      DispatchProgress progress = orderDispatcher.dispatch(orderNum, trackingNum,
+          packedShirts.getShirts());
+      Observable.just("clean up job").subscribeOn(cleanUpScheduler).subscribe(this.asyncCleanUpObserver);
+      return Response.ok(new DeliveryStatusDTO(trackingNum, progress.describe())).build();
+    }
     Observable.fromIterable(packedShirts.getShirts()).subscribe(this.dispatchObserver);
-    Observable.just("clean up job").subscribeOn(Schedulers.newThread()).subscribe(this.asyncCleanUpObserver);
+    Observable.just("clean up job").subscribeOn(cleanUpScheduler).subscribe(this.asyncCleanUpObserver);
     return Response.ok(new DeliveryStatusDTO(trackingNum, "shirts delivery dispatched")).build();
   }
 
   @Override
   public Response trackOrder(String orderNum) {
-    if (BeachShirtsUtils.isErrorRequest(tracking, globalErrorInterval, 8)) {
-      Span span = tracer == null ? null : tracer.activeSpan();
-      if (span != null) {
-        span.log(ImmutableMap.of(Fields.ERROR_KIND, "order number not found", "orderNum",
-            orderNum));
-        TraceLoggerUtil.traceLog(logger, span.context().toTraceId(), Level.WARN, "order number not found");
-      }
-      return Response.status(Response.Status.BAD_REQUEST).build();
-    }
     try {
-      Thread.sleep(getRequestLatency(100, 70, rand));
+      Thread.sleep(getRequestLatency(processingLatency));
     } catch (InterruptedException e) {
       e.printStackTrace();
     }
-    return Response.ok().build();
+    OrderStore.Order order = orderStore.get(orderNum);
+    if (order == null) {
+      // orders placed before the store was introduced, or made up by load generators.
+      return Response.ok().build();
+    }
+    DispatchProgress progress = orderDispatcher.getProgress(orderNum);
+    String status = order.getState() == OrderStore.State.CANCELLED ? "order cancelled" :
+        progress != null ? progress.describe() : "shirts delivery dispatched";
+    return Response.ok(new DeliveryStatusDTO(order.getTrackingNum(), status)).build();
   }
 
   @Override
   public Response cancelOrder(String orderNum) {
     try {
-      Thread.sleep(getRequestLatency(100, 70, rand));
+      Thread.sleep(getRequestLatency(processingLatency));
     } catch (InterruptedException e) {
       e.printStackTrace();
     }
-    if (BeachShirtsUtils.isErrorRequest(cancel, globalErrorInterval, 7)) {
+    OrderStore.Order order = orderStore.cancel(orderNum);
+    if (order != null && order.getState() == OrderStore.State.CANCELLED) {
       Span span = tracer == null ? null : tracer.activeSpan();
       if (span != null) {
         span.log(ImmutableMap.of(Fields.ERROR_KIND, "order has already been cancelled", "orderNum",
@@ -194,6 +189,9 @@ public class DeliveryController implements DeliveryApi {
       }
       return Response.status(Response.Status.BAD_REQUEST).build();
     }
+    if (order != null) {
+      return Response.ok(new DeliveryStatusDTO(order.getTrackingNum(), "order cancelled")).build();
+    }
     return Response.ok().build();
   }
 }
\ No newline at end of file
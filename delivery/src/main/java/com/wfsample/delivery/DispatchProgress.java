@@ -0,0 +1,66 @@
+package com.wfsample.delivery;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of an order being dispatched in the background.
+ */
+public class DispatchProgress {
+
+  public enum State {
+    DISPATCHING, DISPATCHED, FAILED
+  }
+
+  private final String trackingNum;
+  private final int totalShirts;
+  private final AtomicInteger dispatchedShirts = new AtomicInteger(0);
+  private volatile State state = State.DISPATCHING;
+
+  public DispatchProgress(String trackingNum, int totalShirts) {
+    this.trackingNum = trackingNum;
+    this.totalShirts = totalShirts;
+  }
+
+  void shirtDispatched() {
+    dispatchedShirts.incrementAndGet();
+  }
+
+  void completed() {
+    state = State.DISPATCHED;
+  }
+
+  void failed() {
+    state = State.FAILED;
+  }
+
+  public String getTrackingNum() {
+    return trackingNum;
+  }
+
+  public int getTotalShirts() {
+    return totalShirts;
+  }
+
+  public int getDispatchedShirts() {
+    return dispatchedShirts.get();
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Human readable status, as returned by trackOrder.
+   */
+  public String describe() {
+    switch (state) {
+      case DISPATCHED:
+        return "shirts delivery dispatched";
+      case FAILED:
+        return "shirts dispatch failed after " + getDispatchedShirts() + " of " + totalShirts +
+            " shirts";
+      default:
+        return getDispatchedShirts() + " of " + totalShirts + " shirts dispatched";
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.wfsample.delivery;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wfsample.common.FaultInjectionConfig;
+import com.wfsample.common.FaultInjector;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+
+/**
+ * Fails and slows down requests on purpose according to the rules of the faults.rules.file
+ * property, checked for changes every faults.reload.seconds, see {@link JerseyConfig}.
+ */
+@Configuration
+public class FaultInjectionConfiguration {
+
+  @Bean
+  public FaultInjector faultInjector(Environment env, MetricRegistry metricRegistry)
+      throws IOException {
+    FaultInjectionConfig defaults = new FaultInjectionConfig();
+    String rulesFile = env.getProperty("faults.rules.file", "");
+    return new FaultInjector(new FaultInjectionConfig(rulesFile.isEmpty() ? null : rulesFile,
+        env.getProperty("faults.reload.seconds", Long.class, defaults.getReloadSeconds()))).
+        registerMetrics("delivery", metricRegistry);
+  }
+}
@@ -1,8 +1,14 @@
 package com.wfsample.delivery;
 
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
+import com.wfsample.common.ConcurrencyLimitFilter;
+import com.wfsample.common.FaultInjectionFeature;
+import com.wfsample.common.FaultInjector;
 
 import org.glassfish.jersey.server.ResourceConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
@@ -19,9 +25,16 @@ import javax.ws.rs.ApplicationPath;
 public class JerseyConfig extends ResourceConfig {
 
   @Inject
-  public JerseyConfig(WavefrontJerseyFactory wavefrontJerseyFactory, Environment env) {
+  public JerseyConfig(WavefrontJerseyFactory wavefrontJerseyFactory, Environment env,
+                      @Qualifier("cleanUpScheduler") BoundedScheduler cleanUpScheduler,
+                      OrderDispatcher orderDispatcher, OrderStore orderStore,
+                      ObjectProvider<AdaptiveConcurrencyLimiter> concurrencyLimiter,
+                      FaultInjector faultInjector) {
     register(wavefrontJerseyFactory.getWavefrontJerseyFilter());
-    register(new DeliveryController(env, wavefrontJerseyFactory));
+    concurrencyLimiter.ifAvailable(limiter -> register(new ConcurrencyLimitFilter(limiter)));
+    register(new FaultInjectionFeature(faultInjector, wavefrontJerseyFactory.getTracer()));
+    register(new DeliveryController(env, wavefrontJerseyFactory, cleanUpScheduler,
+        orderDispatcher, orderStore));
   }
 
 }
\ No newline at end of file
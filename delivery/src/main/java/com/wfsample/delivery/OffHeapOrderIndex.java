@@ -0,0 +1,263 @@
+package com.wfsample.delivery;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Off-heap index of orders whose order and tracking numbers are both UUIDs, which is every order
+ * placed through the shopping service. Keys are the two longs of the order number in an
+ * open-addressing hash table with linear probing, and each slot points to a fixed size record in
+ * a slab of direct buffers holding the tracking number, state and update time. An order costs
+ * 70 to 100 bytes of direct memory depending on the table load and nothing on the heap, where a
+ * HashMap of strings takes ~150 bytes of heap per order and slows down garbage collection.
+ *
+ * Lookups are lock free (optimistic reads validated against a {@link StampedLock}) while writes
+ * are exclusive. Orders are never removed.
+ */
+class OffHeapOrderIndex {
+  // slot: order msb, order lsb, record number + 1 (0 marks an empty slot), padding.
+  private static final int SLOT_BYTES = 24;
+  // record: tracking msb, tracking lsb, updated millis, state, padding.
+  private static final int RECORD_BYTES = 32;
+  private static final int RECORDS_PER_CHUNK_SHIFT = 16;
+  private static final int RECORDS_PER_CHUNK = 1 << RECORDS_PER_CHUNK_SHIFT;
+  // largest power of two number of slots that fits in a single direct buffer.
+  private static final int MAX_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+  private static final double MAX_LOAD = 0.7;
+  private static final int FOR_EACH_BATCH_SLOTS = 4096;
+
+  /**
+   * A hash table together with its mask, so optimistic readers always see a consistent pair.
+   */
+  private static final class Table {
+    final ByteBuffer slots;
+    final int mask;
+
+    Table(int capacity) {
+      this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+      this.mask = capacity - 1;
+    }
+  }
+
+  private final StampedLock lock = new StampedLock();
+  private volatile Table table;
+  private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+  private volatile int size = 0;
+
+  /**
+   * @param initialCapacity number of orders to size the table for, rounded up to a power of two.
+   */
+  OffHeapOrderIndex(int initialCapacity) {
+    int slots = Integer.highestOneBit(Math.max(16, (int) (initialCapacity / MAX_LOAD)) - 1) << 1;
+    this.table = new Table(Math.min(slots, MAX_SLOTS));
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Adds the order or updates it if already present.
+   */
+  void put(OrderStore.Order order) {
+    String orderNum = order.getOrderNum();
+    String trackingNum = order.getTrackingNum();
+    long msb = mostSignificantBits(orderNum);
+    long lsb = leastSignificantBits(orderNum);
+    long stamp = lock.writeLock();
+    try {
+      Table current = table;
+      int slot = find(current, msb, lsb);
+      int offset = slot * SLOT_BYTES;
+      int record = current.slots.getInt(offset + 16) - 1;
+      if (record < 0) {
+        if (size + 1 > (current.mask + 1) * MAX_LOAD) {
+          current = resize(current);
+          offset = find(current, msb, lsb) * SLOT_BYTES;
+        }
+        record = size;
+        if ((record >>> RECORDS_PER_CHUNK_SHIFT) == chunks.length) {
+          addChunk();
+        }
+      }
+      ByteBuffer chunk = chunks[record >>> RECORDS_PER_CHUNK_SHIFT];
+      int recordOffset = (record & (RECORDS_PER_CHUNK - 1)) * RECORD_BYTES;
+      chunk.putLong(recordOffset, mostSignificantBits(trackingNum));
+      chunk.putLong(recordOffset + 8, leastSignificantBits(trackingNum));
+      chunk.putLong(recordOffset + 16, order.getUpdatedMillis());
+      chunk.put(recordOffset + 24, (byte) order.getState().ordinal());
+      if (record == size) {
+        current.slots.putLong(offset, msb);
+        current.slots.putLong(offset + 8, lsb);
+        current.slots.putInt(offset + 16, record + 1);
+        size = record + 1;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @param orderNum order number in canonical UUID form, see {@link #isCanonicalUuid(String)}.
+   * @return the order or null if it isn't in the index.
+   */
+  OrderStore.Order get(String orderNum) {
+    long msb = mostSignificantBits(orderNum);
+    long lsb = leastSignificantBits(orderNum);
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        OrderStore.Order order = read(orderNum, msb, lsb);
+        if (lock.validate(stamp)) {
+          return order;
+        }
+      } catch (RuntimeException e) {
+        // a concurrent write moved things around, retry under the read lock below.
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return read(orderNum, msb, lsb);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Visits every order in the index at the time of the call. Slots are visited a batch at a time
+   * under the read lock so writes are only held up briefly, orders added or updated meanwhile may
+   * be visited in either state or, when added, not at all.
+   */
+  void forEach(Consumer<OrderStore.Order> consumer) {
+    // a resize leaves this table as it was, so it keeps every order present now.
+    Table current = table;
+    for (int batch = 0; batch <= current.mask; batch += FOR_EACH_BATCH_SLOTS) {
+      long stamp = lock.readLock();
+      try {
+        int end = Math.min(batch + FOR_EACH_BATCH_SLOTS - 1, current.mask);
+        for (int slot = batch; slot <= end; slot++) {
+          int offset = slot * SLOT_BYTES;
+          int record = current.slots.getInt(offset + 16) - 1;
+          if (record >= 0) {
+            long msb = current.slots.getLong(offset);
+            long lsb = current.slots.getLong(offset + 8);
+            consumer.accept(readRecord(new UUID(msb, lsb).toString(), record));
+          }
+        }
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+  }
+
+  /**
+   * Whether the string is a UUID as produced by {@link UUID#toString()}, lower case hex digits
+   * in 8-4-4-4-12 groups. Only those round trip exactly through the two longs kept in the index.
+   */
+  static boolean isCanonicalUuid(String s) {
+    if (s == null || s.length() != 36) {
+      return false;
+    }
+    for (int i = 0; i < 36; i++) {
+      char c = s.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static long mostSignificantBits(String uuid) {
+    return hex(uuid, 0, 8) << 32 | hex(uuid, 9, 13) << 16 | hex(uuid, 14, 18);
+  }
+
+  static long leastSignificantBits(String uuid) {
+    return hex(uuid, 19, 23) << 48 | hex(uuid, 24, 36);
+  }
+
+  private OrderStore.Order read(String orderNum, long msb, long lsb) {
+    Table current = table;
+    int offset = find(current, msb, lsb) * SLOT_BYTES;
+    int record = current.slots.getInt(offset + 16) - 1;
+    return record < 0 ? null : readRecord(orderNum, record);
+  }
+
+  private OrderStore.Order readRecord(String orderNum, int record) {
+    ByteBuffer chunk = chunks[record >>> RECORDS_PER_CHUNK_SHIFT];
+    int recordOffset = (record & (RECORDS_PER_CHUNK - 1)) * RECORD_BYTES;
+    String trackingNum = new UUID(chunk.getLong(recordOffset),
+        chunk.getLong(recordOffset + 8)).toString();
+    return new OrderStore.Order(orderNum, trackingNum,
+        OrderStore.State.values()[chunk.get(recordOffset + 24)], chunk.getLong(recordOffset + 16));
+  }
+
+  /**
+   * @return the slot holding the key, or the empty slot it would be inserted at.
+   */
+  private static int find(Table table, long msb, long lsb) {
+    int slot = hash(msb, lsb) & table.mask;
+    for (int probes = 0; probes <= table.mask; probes++) {
+      int offset = slot * SLOT_BYTES;
+      if (table.slots.getInt(offset + 16) == 0 ||
+          (table.slots.getLong(offset) == msb && table.slots.getLong(offset + 8) == lsb)) {
+        return slot;
+      }
+      slot = (slot + 1) & table.mask;
+    }
+    throw new IllegalStateException("order index is full");
+  }
+
+  private Table resize(Table current) {
+    int capacity = current.mask + 1;
+    if (capacity >= MAX_SLOTS) {
+      throw new IllegalStateException("order index can't grow beyond " + MAX_SLOTS + " slots");
+    }
+    Table resized = new Table(capacity << 1);
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = slot * SLOT_BYTES;
+      int record = current.slots.getInt(offset + 16);
+      if (record != 0) {
+        long msb = current.slots.getLong(offset);
+        long lsb = current.slots.getLong(offset + 8);
+        int newOffset = find(resized, msb, lsb) * SLOT_BYTES;
+        resized.slots.putLong(newOffset, msb);
+        resized.slots.putLong(newOffset + 8, lsb);
+        resized.slots.putInt(newOffset + 16, record);
+      }
+    }
+    table = resized;
+    return resized;
+  }
+
+  private void addChunk() {
+    ByteBuffer[] grown = new ByteBuffer[chunks.length + 1];
+    System.arraycopy(chunks, 0, grown, 0, chunks.length);
+    grown[chunks.length] = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_BYTES);
+    chunks = grown;
+  }
+
+  private static int hash(long msb, long lsb) {
+    // murmur3 finalizer, random UUIDs are well spread already but other versions aren't.
+    long h = msb ^ Long.rotateLeft(lsb, 32);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  private static long hex(String s, int from, int to) {
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      value = value << 4 | Character.digit(s.charAt(i), 16);
+    }
+    return value;
+  }
+}
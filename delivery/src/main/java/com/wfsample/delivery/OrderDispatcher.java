@@ -0,0 +1,80 @@
+package com.wfsample.delivery;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.wfsample.common.TraceLoggerUtil;
+import com.wfsample.common.dto.ShirtDTO;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.opentracing.Tracer;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static com.wfsample.common.BeachShirtsUtils.getFixedLatency;
+
+/**
+ * Dispatches the shirts of an order in the background, so the dispatch request can be
+ * acknowledged as soon as the order is accepted. Shirts flow through a backpressured
+ * {@link Flowable} that is split into parallel rails on the dispatch scheduler, and the progress
+ * of each order is kept for a while so it can be looked up by order number.
+ */
+public class OrderDispatcher {
+  static Logger logger = LogManager.getLogger(OrderDispatcher.class);
+
+  private final Scheduler scheduler;
+  private final int parallelism;
+  private final Tracer tracer;
+  private final Cache<String, DispatchProgress> progress = CacheBuilder.newBuilder().
+      expireAfterWrite(1, TimeUnit.HOURS).
+      maximumSize(100_000).
+      build();
+
+  /**
+   * @param parallelism number of rails shirts of a single order are dispatched on.
+   */
+  public OrderDispatcher(Scheduler scheduler, int parallelism, Tracer tracer) {
+    this.scheduler = scheduler;
+    this.parallelism = parallelism;
+    this.tracer = tracer;
+  }
+
+  /**
+   * Starts dispatching the shirts and returns right away.
+   */
+  public DispatchProgress dispatch(String orderNum, String trackingNum, List<ShirtDTO> shirts) {
+    DispatchProgress orderProgress = new DispatchProgress(trackingNum, shirts.size());
+    progress.put(orderNum, orderProgress);
+    Flowable.fromIterable(shirts).
+        parallel(parallelism).
+        runOn(scheduler).
+        map(shirt -> {
+          Thread.sleep(getFixedLatency(5));
+          TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "{} processed!",
+              shirt.getStyle().getName());
+          return shirt;
+        }).
+        sequential().
+        subscribe(shirt -> orderProgress.shirtDispatched(), throwable -> {
+          orderProgress.failed();
+          TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "dispatch error!");
+        }, () -> {
+          Thread.sleep(getFixedLatency(200));
+          orderProgress.completed();
+          TraceLoggerUtil.traceLog(logger, tracer, Level.INFO, "dispatch completed!");
+        });
+    return orderProgress;
+  }
+
+  /**
+   * @return progress of the order or null if it isn't known.
+   */
+  public DispatchProgress getProgress(String orderNum) {
+    return progress.getIfPresent(orderNum);
+  }
+}
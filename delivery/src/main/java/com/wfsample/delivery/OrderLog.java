@@ -0,0 +1,220 @@
+package com.wfsample.delivery;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of order records in a memory-mapped file. The file is mapped in windows of a
+ * fixed size and a record never straddles two windows. Each record is laid out as
+ *
+ * <pre>
+ * int length, int crc32, byte state, long updatedMillis, short n, n bytes orderNum,
+ * short m, m bytes trackingNum
+ * </pre>
+ *
+ * where length and crc cover everything after the crc. A length of 0 marks the end of the log and
+ * -1 the end of a window. The length is written last, so a record torn by a crash is either
+ * invisible or fails its checksum, and replay stops right before it.
+ *
+ * Not thread safe apart from {@link #force()}, {@link OrderStore} serializes access otherwise.
+ */
+class OrderLog implements Closeable {
+  private static final int HEADER_BYTES = 8;
+  private static final int END_OF_WINDOW = -1;
+  private static final int MAX_FIELD_BYTES = Short.MAX_VALUE;
+  // outcomes of reading the next record, see next(ByteBuffer, Consumer).
+  private static final int RECORD = 0;
+  private static final int WINDOW_END = 1;
+  private static final int LOG_END = 2;
+  private static final int BAD_RECORD = 3;
+
+  private final FileChannel channel;
+  private final int windowBytes;
+  private final CRC32 crc = new CRC32();
+  private MappedByteBuffer window;
+  private long windowStart = 0;
+  private long records = 0;
+
+  /**
+   * @param windowBytes size of the mapped windows the file grows by.
+   */
+  OrderLog(File file, int windowBytes) throws IOException {
+    this.windowBytes = windowBytes;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0, windowBytes);
+  }
+
+  /**
+   * Reads every intact record in order and leaves the log positioned to append after the last
+   * one. Must be called before the first {@link #append} on an existing file.
+   */
+  void replay(Consumer<OrderStore.Order> consumer) throws IOException {
+    while (true) {
+      int start = window.position();
+      int next = next(window, consumer);
+      if (next == RECORD) {
+        records++;
+      } else if (next == WINDOW_END) {
+        nextWindow();
+      } else {
+        if (next == BAD_RECORD) {
+          clearFrom(start);
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Reads the records appended since the given {@link #position()}, in order.
+   */
+  void readFrom(long position, Consumer<OrderStore.Order> consumer) throws IOException {
+    long end = position();
+    while (position < end) {
+      long start = position - position % windowBytes;
+      ByteBuffer buffer = start == windowStart ? window.duplicate() :
+          channel.map(FileChannel.MapMode.READ_ONLY, start, windowBytes);
+      buffer.position((int) (position - start));
+      int next;
+      while (start + buffer.position() < end && (next = next(buffer, consumer)) != WINDOW_END) {
+        if (next != RECORD) {
+          throw new IOException("bad order record at " + (start + buffer.position()));
+        }
+      }
+      position = start + buffer.position() < end ? start + windowBytes : end;
+    }
+  }
+
+  /**
+   * Position right after the last record appended, see {@link #readFrom}.
+   */
+  long position() {
+    return windowStart + window.position();
+  }
+
+  void append(OrderStore.Order order) throws IOException {
+    byte[] orderNum = order.getOrderNum().getBytes(StandardCharsets.UTF_8);
+    byte[] trackingNum = order.getTrackingNum().getBytes(StandardCharsets.UTF_8);
+    if (orderNum.length > MAX_FIELD_BYTES || trackingNum.length > MAX_FIELD_BYTES) {
+      throw new IllegalArgumentException("order or tracking number too long");
+    }
+    int length = 1 + 8 + 2 + orderNum.length + 2 + trackingNum.length;
+    if (HEADER_BYTES + length > windowBytes) {
+      throw new IllegalArgumentException("order record larger than the log window");
+    }
+    if (window.remaining() < HEADER_BYTES + length) {
+      if (window.remaining() >= 4) {
+        window.putInt(window.position(), END_OF_WINDOW);
+      }
+      nextWindow();
+    }
+    int start = window.position();
+    window.position(start + HEADER_BYTES);
+    ByteBuffer payload = window.slice();
+    payload.put((byte) order.getState().ordinal());
+    payload.putLong(order.getUpdatedMillis());
+    payload.putShort((short) orderNum.length);
+    payload.put(orderNum);
+    payload.putShort((short) trackingNum.length);
+    payload.put(trackingNum);
+    payload.flip();
+    crc.reset();
+    crc.update(payload);
+    window.putInt(start + 4, (int) crc.getValue());
+    window.putInt(start, length);
+    window.position(start + HEADER_BYTES + length);
+    records++;
+  }
+
+  /**
+   * Flushes appended records to the storage device. Unlike the rest of the log this may be called
+   * concurrently with appends, a window retired meanwhile has been flushed when it was.
+   */
+  void force() {
+    window.force();
+  }
+
+  /**
+   * Number of records in the log, including the ones superseded by later records.
+   */
+  long records() {
+    return records;
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+  /**
+   * Reads the record at the buffer's position, handing it to the consumer and moving past it if
+   * intact, or leaving the position unchanged otherwise.
+   */
+  private int next(ByteBuffer buffer, Consumer<OrderStore.Order> consumer) {
+    if (buffer.remaining() < HEADER_BYTES) {
+      return WINDOW_END;
+    }
+    int start = buffer.position();
+    int length = buffer.getInt(start);
+    if (length == END_OF_WINDOW) {
+      return WINDOW_END;
+    }
+    if (length == 0) {
+      return LOG_END;
+    }
+    if (length < 0 || length > buffer.remaining() - HEADER_BYTES) {
+      return BAD_RECORD;
+    }
+    ByteBuffer payload = buffer.duplicate();
+    payload.position(start + HEADER_BYTES);
+    payload.limit(start + HEADER_BYTES + length);
+    crc.reset();
+    crc.update(payload.duplicate());
+    if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+      return BAD_RECORD;
+    }
+    consumer.accept(read(payload));
+    buffer.position(start + HEADER_BYTES + length);
+    return RECORD;
+  }
+
+  /**
+   * Zeroes whatever a torn write left behind from the given offset of the current window on, so
+   * it can't be mistaken for records once appends continue there. Bytes that are zero already
+   * aren't written, leaving the pages a crash didn't touch clean.
+   */
+  private void clearFrom(int start) {
+    for (int i = start; i < window.limit(); i++) {
+      if (window.get(i) != 0) {
+        window.put(i, (byte) 0);
+      }
+    }
+  }
+
+  private void nextWindow() throws IOException {
+    window.force();
+    windowStart += windowBytes;
+    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowBytes);
+  }
+
+  private static OrderStore.Order read(ByteBuffer payload) {
+    OrderStore.State state = OrderStore.State.values()[payload.get()];
+    long updatedMillis = payload.getLong();
+    byte[] orderNum = new byte[payload.getShort() & 0xFFFF];
+    payload.get(orderNum);
+    byte[] trackingNum = new byte[payload.getShort() & 0xFFFF];
+    payload.get(trackingNum);
+    return new OrderStore.Order(new String(orderNum, StandardCharsets.UTF_8),
+        new String(trackingNum, StandardCharsets.UTF_8), state, updatedMillis);
+  }
+}
@@ -0,0 +1,316 @@
+package com.wfsample.delivery;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of the orders handed to delivery, keyed by order number. Lookups are served from memory:
+ * orders with UUID order and tracking numbers, i.e. all orders placed through shopping, live in
+ * an {@link OffHeapOrderIndex} and any others in a concurrent map. When a log file is configured
+ * every change is also appended to an {@link OrderLog}, which is replayed on start up so orders
+ * survive restarts. The log is flushed periodically and compacted down to the live orders once
+ * superseded records dominate it, neither of which holds up changes to the store for long.
+ */
+public class OrderStore implements Closeable {
+  static Logger logger = LogManager.getLogger(OrderStore.class);
+  private static final int WINDOW_BYTES = 64 * 1024 * 1024;
+  // compaction is only worth it once the log holds this many superseded records.
+  private static final long MIN_GARBAGE_RECORDS = 100_000;
+
+  /**
+   * States of an order, the ordinal is persisted so new states must only be added at the end.
+   */
+  public enum State {
+    DISPATCHED, CANCELLED
+  }
+
+  /**
+   * Immutable state of a single order.
+   */
+  public static final class Order {
+    private final String orderNum;
+    private final String trackingNum;
+    private final State state;
+    private final long updatedMillis;
+
+    public Order(String orderNum, String trackingNum, State state, long updatedMillis) {
+      this.orderNum = orderNum;
+      this.trackingNum = trackingNum;
+      this.state = state;
+      this.updatedMillis = updatedMillis;
+    }
+
+    public String getOrderNum() {
+      return orderNum;
+    }
+
+    public String getTrackingNum() {
+      return trackingNum;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public long getUpdatedMillis() {
+      return updatedMillis;
+    }
+  }
+
+  private final OffHeapOrderIndex uuidOrders = new OffHeapOrderIndex(1 << 16);
+  private final ConcurrentMap<String, Order> otherOrders = new ConcurrentHashMap<>();
+  // orders of the index shadowed by the map, see index(Order), only written while locked.
+  private volatile int shadowed = 0;
+  // null when orders are only kept in memory.
+  private final File logFile;
+  private final ScheduledExecutorService maintenance;
+  private OrderLog log;
+
+  private OrderStore() {
+    this.logFile = null;
+    this.maintenance = null;
+  }
+
+  /**
+   * Opens the store backed by the given log file, replaying the orders already in it.
+   *
+   * @param flushIntervalMillis how often appended records are flushed to disk.
+   * @param compactionIntervalSeconds how often to check whether the log needs compacting.
+   */
+  public OrderStore(File logFile, long flushIntervalMillis, long compactionIntervalSeconds)
+      throws IOException {
+    this.logFile = logFile;
+    this.log = new OrderLog(logFile, WINDOW_BYTES);
+    log.replay(this::index);
+    logger.info("recovered " + size() + " orders from " + log.records() +
+        " records in " + logFile);
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "order-store-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+    maintenance.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    maintenance.scheduleWithFixedDelay(this::compactIfNeeded, compactionIntervalSeconds,
+        compactionIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Creates a store that keeps orders in memory only.
+   */
+  public static OrderStore inMemory() {
+    return new OrderStore();
+  }
+
+  /**
+   * @return the order or null if it isn't known.
+   */
+  public Order get(String orderNum) {
+    // the map is usually empty and takes precedence, see index(Order).
+    Order order = otherOrders.get(orderNum);
+    if (order == null && OffHeapOrderIndex.isCanonicalUuid(orderNum)) {
+      order = uuidOrders.get(orderNum);
+    }
+    return order;
+  }
+
+  /**
+   * Records that the order has been dispatched under the given tracking number.
+   */
+  public Order dispatched(String orderNum, String trackingNum) {
+    Order order = new Order(orderNum, trackingNum, State.DISPATCHED, System.currentTimeMillis());
+    synchronized (this) {
+      append(order);
+      index(order);
+    }
+    return order;
+  }
+
+  /**
+   * Records that the order has been dispatched under the given tracking number, unless it has
+   * been already, so that a repeated dispatch of the same order keeps its tracking number.
+   *
+   * @return the order as dispatched, with the tracking number it was first dispatched under.
+   */
+  public Order dispatchedIfAbsent(String orderNum, String trackingNum) {
+    synchronized (this) {
+      Order order = get(orderNum);
+      if (order != null && order.getState() == State.DISPATCHED) {
+        return order;
+      }
+      return dispatched(orderNum, trackingNum);
+    }
+  }
+
+  /**
+   * Cancels the order if it is known and not cancelled yet.
+   *
+   * @return the state of the order before cancelling, or null if it isn't known.
+   */
+  public Order cancel(String orderNum) {
+    synchronized (this) {
+      Order order = get(orderNum);
+      if (order == null || order.getState() == State.CANCELLED) {
+        return order;
+      }
+      Order cancelled = new Order(orderNum, order.getTrackingNum(), State.CANCELLED,
+          System.currentTimeMillis());
+      append(cancelled);
+      index(cancelled);
+      return order;
+    }
+  }
+
+  /**
+   * @return the number of orders known, each counted once however it's kept.
+   */
+  public int size() {
+    return uuidOrders.size() + otherOrders.size() - shadowed;
+  }
+
+  /**
+   * Rewrites the log with only the live orders if superseded records make up most of it.
+   */
+  public void compactIfNeeded() {
+    synchronized (this) {
+      int live = size();
+      if (log == null || log.records() - live < Math.max(MIN_GARBAGE_RECORDS, live)) {
+        return;
+      }
+    }
+    try {
+      compact();
+    } catch (IOException e) {
+      logger.warn("order log compaction failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Rewrites the log with only the live orders. The store is only locked to mark where the
+   * current log ends and, once the live orders are written, to copy the records appended since
+   * the mark and swap the logs. Those records follow the live orders in the new log, so on replay
+   * they override whatever state the live orders were written in.
+   */
+  void compact() throws IOException {
+    OrderLog current;
+    long mark;
+    synchronized (this) {
+      if (log == null) {
+        return;
+      }
+      current = log;
+      mark = log.position();
+    }
+    File compacted = new File(logFile.getPath() + ".compact");
+    Files.deleteIfExists(compacted.toPath());
+    OrderLog compactedLog = new OrderLog(compacted, WINDOW_BYTES);
+    try {
+      uuidOrders.forEach(order -> {
+        if (otherOrders.containsKey(order.getOrderNum())) {
+          return;
+        }
+        appendTo(compactedLog, order);
+      });
+      for (Order order : otherOrders.values()) {
+        compactedLog.append(order);
+      }
+      compactedLog.force();
+      synchronized (this) {
+        if (log != current) {
+          throw new IOException("order store closed while compacting");
+        }
+        current.readFrom(mark, order -> appendTo(compactedLog, order));
+        compactedLog.force();
+        Files.move(compacted.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        // the compacted log keeps its open file handle across the rename.
+        log = compactedLog;
+      }
+    } catch (IOException | RuntimeException e) {
+      compactedLog.close();
+      Files.deleteIfExists(compacted.toPath());
+      throw e;
+    }
+    long before = current.records();
+    try {
+      current.close();
+    } catch (IOException e) {
+      logger.warn("closing the order log compacted away failed: " + e.getMessage());
+    }
+    logger.info("compacted order log from " + before + " to " + compactedLog.records() +
+        " records");
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (maintenance != null) {
+      maintenance.shutdownNow();
+    }
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+  }
+
+  private void flush() {
+    OrderLog current;
+    synchronized (this) {
+      current = log;
+    }
+    // forced outside the lock, appends carry on meanwhile.
+    if (current != null) {
+      current.force();
+    }
+  }
+
+  private void index(Order order) {
+    String orderNum = order.getOrderNum();
+    boolean uuidOrderNum = OffHeapOrderIndex.isCanonicalUuid(orderNum);
+    if (uuidOrderNum && OffHeapOrderIndex.isCanonicalUuid(order.getTrackingNum())) {
+      boolean wasShadowed = otherOrders.containsKey(orderNum) && uuidOrders.get(orderNum) != null;
+      uuidOrders.put(order);
+      otherOrders.remove(orderNum);
+      if (wasShadowed) {
+        shadowed--;
+      }
+    } else if (otherOrders.put(orderNum, order) == null && uuidOrderNum &&
+        uuidOrders.get(orderNum) != null) {
+      // orders can't be removed from the index, so this shadows any earlier state kept there.
+      shadowed++;
+    }
+  }
+
+  private static void appendTo(OrderLog log, Order order) {
+    try {
+      log.append(order);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void append(Order order) {
+    if (logFile == null) {
+      return;
+    }
+    if (log == null) {
+      throw new IllegalStateException("order store is closed");
+    }
+    try {
+      log.append(order);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.wfsample.delivery;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Configuration for the store of order states.
+ */
+@Configuration
+public class OrderStoreConfiguration {
+
+  @Bean(destroyMethod = "close")
+  public OrderStore orderStore(Environment env) throws IOException {
+    String path = env.getProperty("orders.log.path");
+    if (path == null || path.trim().isEmpty()) {
+      return OrderStore.inMemory();
+    }
+    return new OrderStore(new File(path),
+        env.getProperty("orders.log.flush.interval.ms", Long.class, 1000L),
+        env.getProperty("orders.compaction.interval.seconds", Long.class, 300L));
+  }
+}
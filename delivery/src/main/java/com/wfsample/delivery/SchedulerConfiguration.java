@@ -0,0 +1,38 @@
+package com.wfsample.delivery;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Configuration for the worker pools delivery runs background work on.
+ */
+@Configuration
+public class SchedulerConfiguration {
+
+  @Bean(destroyMethod = "shutdown")
+  public BoundedScheduler cleanUpScheduler(Environment env, MetricRegistry metricRegistry) {
+    return BoundedScheduler.fromEnvironment("cleanup", env, 4, 1000,
+        BoundedScheduler.RejectionPolicy.DISCARD, metricRegistry);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public BoundedScheduler dispatchScheduler(Environment env, MetricRegistry metricRegistry) {
+    // dispatching must not lose shirts, so a full queue pushes back on the caller instead.
+    return BoundedScheduler.fromEnvironment("dispatch", env, 8, 1000,
+        BoundedScheduler.RejectionPolicy.CALLER_RUNS, metricRegistry);
+  }
+
+  @Bean
+  public OrderDispatcher orderDispatcher(
+      Environment env, @Qualifier("dispatchScheduler") BoundedScheduler dispatchScheduler,
+      WavefrontJerseyFactory wavefrontJerseyFactory) {
+    return new OrderDispatcher(dispatchScheduler.scheduler(),
+        env.getProperty("dispatch.parallelism", Integer.class, 4),
+        wavefrontJerseyFactory.getTracer());
+  }
+}
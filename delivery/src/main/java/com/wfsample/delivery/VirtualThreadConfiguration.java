@@ -0,0 +1,25 @@
+package com.wfsample.delivery;
+
+import com.wfsample.common.VirtualThreads;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs the Tomcat request workers, and with them the Jersey resources, on virtual threads when
+ * spring.threads.virtual.enabled is true. Needs Java 21 or later, earlier versions fall back to
+ * platform threads.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+  @Bean
+  public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadCustomizer() {
+    return factory -> factory.addProtocolHandlerCustomizers(protocolHandler ->
+        protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-virtual-")));
+  }
+}
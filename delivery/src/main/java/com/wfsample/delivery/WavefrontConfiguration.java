@@ -1,5 +1,7 @@
 package com.wfsample.delivery;
 
+import com.codahale.metrics.MetricRegistry;
+import com.wavefront.sdk.dropwizard.reporter.WavefrontDropwizardReporter;
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
 
 import org.springframework.context.annotation.Bean;
@@ -19,4 +21,21 @@ public class WavefrontConfiguration {
     return new WavefrontJerseyFactory(env.getProperty("applicationTagsYamlFile"),
         env.getProperty("wfReportingConfigYamlFile"));
   }
+
+  @Bean
+  public MetricRegistry metricRegistry() {
+    return new MetricRegistry();
+  }
+
+  @Bean
+  public WavefrontDropwizardReporter wavefrontDropwizardReporter(
+      MetricRegistry metricRegistry, WavefrontJerseyFactory wavefrontJerseyFactory) {
+    WavefrontDropwizardReporter dropwizardReporter = new WavefrontDropwizardReporter.Builder(
+        metricRegistry, wavefrontJerseyFactory.getApplicationTags()).
+        withSource(wavefrontJerseyFactory.getSource()).
+        reportingIntervalSeconds(30).
+        build(wavefrontJerseyFactory.getWavefrontSender());
+    dropwizardReporter.start();
+    return dropwizardReporter;
+  }
 }
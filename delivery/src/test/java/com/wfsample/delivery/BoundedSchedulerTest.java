@@ -0,0 +1,68 @@
+package com.wfsample.delivery;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.plugins.RxJavaPlugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for BoundedScheduler.
+ */
+public class BoundedSchedulerTest {
+
+    private MetricRegistry metrics;
+    private BoundedScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        // other tests install the tracing hooks of TracingRxJava2Utils globally.
+        RxJavaPlugins.reset();
+        metrics = new MetricRegistry();
+        scheduler = new BoundedScheduler("test", 1, 1, BoundedScheduler.RejectionPolicy.DISCARD,
+            metrics);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testDiscardsWorkBeyondQueueDepth() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger(0);
+        Observable.just("blocking job").subscribeOn(scheduler.scheduler()).subscribe(job -> {
+            started.countDown();
+            release.await();
+            completed.incrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // one job fits in the queue, the other two are discarded.
+        for (int i = 0; i < 3; i++) {
+            Observable.just("job").subscribeOn(scheduler.scheduler()).
+                subscribe(job -> completed.incrementAndGet());
+        }
+        assertEquals(1, metrics.getGauges().get("delivery.test.active").getValue());
+        assertEquals(1, metrics.getGauges().get("delivery.test.queued").getValue());
+        assertEquals(2, metrics.counter("delivery.test.rejected").getCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (completed.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, completed.get());
+    }
+}
@@ -1,11 +1,13 @@
 package com.wfsample.delivery;
 
+import com.codahale.metrics.MetricRegistry;
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
 import com.wfsample.common.dto.DeliveryStatusDTO;
 import com.wfsample.common.dto.PackedShirtsDTO;
 import com.wfsample.common.dto.ShirtDTO;
 
 import io.opentracing.Tracer;
+import io.reactivex.schedulers.Schedulers;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -21,7 +23,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for DeliveryController.
@@ -39,11 +40,10 @@ public class DeliveryControllerTest {
 
     @Before
     public void setUp() {
-        when(env.getProperty("request.slow.percentage", Double.class)).thenReturn(0.0);
-        when(env.getProperty("request.slow.latency", Long.class)).thenReturn(0L);
-        when(env.getProperty("request.error.interval", Integer.class)).thenReturn(0);
-        
-        deliveryController = new DeliveryController(env, wavefrontJerseyFactory);
+        deliveryController = new DeliveryController(env, wavefrontJerseyFactory,
+            new BoundedScheduler("cleanup", 1, 10, BoundedScheduler.RejectionPolicy.DISCARD,
+                new MetricRegistry()), new OrderDispatcher(Schedulers.trampoline(), 1, null),
+            OrderStore.inMemory());
     }
 
     @Test
@@ -0,0 +1,68 @@
+package com.wfsample.delivery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for OffHeapOrderIndex.
+ */
+public class OffHeapOrderIndexTest {
+
+    @Test
+    public void testPutAndGetAcrossResizes() {
+        OffHeapOrderIndex index = new OffHeapOrderIndex(16);
+        List<String> orderNums = new ArrayList<>();
+        List<String> trackingNums = new ArrayList<>();
+        // enough orders to grow the table several times and span multiple record chunks.
+        for (int i = 0; i < 100_000; i++) {
+            orderNums.add(UUID.randomUUID().toString());
+            trackingNums.add(UUID.randomUUID().toString());
+            index.put(new OrderStore.Order(orderNums.get(i), trackingNums.get(i),
+                OrderStore.State.DISPATCHED, i));
+        }
+        assertEquals(100_000, index.size());
+        for (int i = 0; i < 100_000; i += 997) {
+            OrderStore.Order order = index.get(orderNums.get(i));
+            assertEquals(orderNums.get(i), order.getOrderNum());
+            assertEquals(trackingNums.get(i), order.getTrackingNum());
+            assertEquals(i, order.getUpdatedMillis());
+        }
+        assertNull(index.get(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testUpdatesInPlace() {
+        OffHeapOrderIndex index = new OffHeapOrderIndex(16);
+        String orderNum = UUID.randomUUID().toString();
+        String trackingNum = UUID.randomUUID().toString();
+        index.put(new OrderStore.Order(orderNum, trackingNum, OrderStore.State.DISPATCHED, 1));
+        index.put(new OrderStore.Order(orderNum, trackingNum, OrderStore.State.CANCELLED, 2));
+
+        assertEquals(1, index.size());
+        assertEquals(OrderStore.State.CANCELLED, index.get(orderNum).getState());
+        List<OrderStore.Order> orders = new ArrayList<>();
+        index.forEach(orders::add);
+        assertEquals(1, orders.size());
+        assertEquals(orderNum, orders.get(0).getOrderNum());
+    }
+
+    @Test
+    public void testCanonicalUuids() {
+        UUID uuid = UUID.randomUUID();
+        assertTrue(OffHeapOrderIndex.isCanonicalUuid(uuid.toString()));
+        assertEquals(uuid.getMostSignificantBits(),
+            OffHeapOrderIndex.mostSignificantBits(uuid.toString()));
+        assertEquals(uuid.getLeastSignificantBits(),
+            OffHeapOrderIndex.leastSignificantBits(uuid.toString()));
+        assertFalse(OffHeapOrderIndex.isCanonicalUuid(uuid.toString().toUpperCase()));
+        assertFalse(OffHeapOrderIndex.isCanonicalUuid("1234"));
+    }
+}
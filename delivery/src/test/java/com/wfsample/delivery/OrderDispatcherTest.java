@@ -0,0 +1,63 @@
+package com.wfsample.delivery;
+
+import com.wfsample.common.dto.ShirtDTO;
+import com.wfsample.common.dto.ShirtStyleDTO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for OrderDispatcher.
+ */
+public class OrderDispatcherTest {
+
+    @Before
+    public void setUp() {
+        // other tests install the tracing hooks of TracingRxJava2Utils globally.
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void testDispatchesInBackground() throws Exception {
+        OrderDispatcher dispatcher = new OrderDispatcher(Schedulers.io(), 4, null);
+        DispatchProgress progress = dispatcher.dispatch("order1", "tracking1", shirts(40));
+
+        // 40 shirts take 200ms on a single thread, the call returns before that.
+        assertTrue(progress.getDispatchedShirts() < 40);
+        assertEquals(DispatchProgress.State.DISPATCHING, progress.getState());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (progress.getState() == DispatchProgress.State.DISPATCHING &&
+            System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(DispatchProgress.State.DISPATCHED, progress.getState());
+        assertEquals(40, progress.getDispatchedShirts());
+        assertEquals("tracking1", dispatcher.getProgress("order1").getTrackingNum());
+        assertEquals("shirts delivery dispatched", dispatcher.getProgress("order1").describe());
+    }
+
+    @Test
+    public void testUnknownOrder() {
+        OrderDispatcher dispatcher = new OrderDispatcher(Schedulers.trampoline(), 1, null);
+        assertNull(dispatcher.getProgress("unknown"));
+    }
+
+    private static List<ShirtDTO> shirts(int count) {
+        List<ShirtDTO> shirts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            shirts.add(new ShirtDTO(new ShirtStyleDTO("style" + i, "style" + i + "Image")));
+        }
+        return shirts;
+    }
+}
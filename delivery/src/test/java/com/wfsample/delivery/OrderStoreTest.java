@@ -0,0 +1,196 @@
+package com.wfsample.delivery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for OrderStore.
+ */
+public class OrderStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCancel() throws Exception {
+        OrderStore store = OrderStore.inMemory();
+        store.dispatched("order1", "tracking1");
+
+        assertEquals(OrderStore.State.DISPATCHED, store.cancel("order1").getState());
+        assertEquals(OrderStore.State.CANCELLED, store.cancel("order1").getState());
+        assertEquals(OrderStore.State.CANCELLED, store.get("order1").getState());
+        assertNull(store.cancel("unknown"));
+    }
+
+    @Test
+    public void testDispatchedIfAbsentKeepsTrackingNumber() throws Exception {
+        OrderStore store = OrderStore.inMemory();
+
+        assertEquals("tracking1", store.dispatchedIfAbsent("order1", "tracking1").getTrackingNum());
+        assertEquals("tracking1", store.dispatchedIfAbsent("order1", "tracking2").getTrackingNum());
+        store.cancel("order1");
+        // a cancelled order can be dispatched again.
+        assertEquals("tracking3", store.dispatchedIfAbsent("order1", "tracking3").getTrackingNum());
+        assertEquals(OrderStore.State.DISPATCHED, store.get("order1").getState());
+    }
+
+    @Test
+    public void testRecoversOrdersAfterRestart() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        for (int i = 0; i < 1000; i++) {
+            store.dispatched("order" + i, "tracking" + i);
+        }
+        store.cancel("order7");
+        store.close();
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(1000, reopened.size());
+        assertEquals("tracking42", reopened.get("order42").getTrackingNum());
+        assertEquals(OrderStore.State.CANCELLED, reopened.get("order7").getState());
+        reopened.dispatched("order1000", "tracking1000");
+        reopened.close();
+
+        assertEquals(1001, new OrderStore(log, 1000, 300).size());
+    }
+
+    @Test
+    public void testIgnoresTornRecord() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        store.dispatched("order1", "tracking1");
+        store.dispatched("order2", "tracking2");
+        store.close();
+        // corrupt the last byte of the second record.
+        int recordBytes = 8 + 1 + 8 + 2 + "order1".length() + 2 + "tracking1".length();
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(2 * recordBytes - 1);
+            file.write('x');
+        }
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(1, reopened.size());
+        assertNull(reopened.get("order2"));
+        reopened.dispatched("order3", "tracking3");
+        reopened.close();
+
+        OrderStore recovered = new OrderStore(log, 1000, 300);
+        assertEquals(2, recovered.size());
+        assertEquals("tracking3", recovered.get("order3").getTrackingNum());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        for (int i = 0; i < 100; i++) {
+            store.dispatched("order" + i, "tracking" + i);
+            store.cancel("order" + i);
+        }
+        store.compact();
+        store.dispatched("order100", "tracking100");
+        store.close();
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(101, reopened.size());
+        assertEquals(OrderStore.State.CANCELLED, reopened.get("order99").getState());
+        assertEquals(OrderStore.State.DISPATCHED, reopened.get("order100").getState());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionKeepsConcurrentChanges() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        List<String> orderNums = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            orderNums.add(UUID.randomUUID().toString());
+            store.dispatched(orderNums.get(i), UUID.randomUUID().toString());
+        }
+        AtomicBoolean compacting = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; compacting.get() || i < 1000; i++) {
+                String orderNum = orderNums.get(i % orderNums.size());
+                if (store.cancel(orderNum).getState() == OrderStore.State.CANCELLED) {
+                    store.dispatched(orderNum, UUID.randomUUID().toString());
+                }
+                store.dispatched("order" + i, "tracking" + i);
+            }
+        });
+        writer.start();
+        store.compact();
+        compacting.set(false);
+        writer.join();
+        Map<String, OrderStore.Order> expected = new HashMap<>();
+        for (String orderNum : orderNums) {
+            expected.put(orderNum, store.get(orderNum));
+        }
+        int size = store.size();
+        store.close();
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(size, reopened.size());
+        for (Map.Entry<String, OrderStore.Order> entry : expected.entrySet()) {
+            OrderStore.Order order = reopened.get(entry.getKey());
+            assertEquals(entry.getValue().getTrackingNum(), order.getTrackingNum());
+            assertEquals(entry.getValue().getState(), order.getState());
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testRecoversUuidOrders() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        String orderNum = UUID.randomUUID().toString();
+        String trackingNum = UUID.randomUUID().toString();
+        store.dispatched(orderNum, trackingNum);
+        store.dispatched("1234", "tracking1234");
+        store.cancel(orderNum);
+        store.close();
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(2, reopened.size());
+        assertEquals(trackingNum, reopened.get(orderNum).getTrackingNum());
+        assertEquals(OrderStore.State.CANCELLED, reopened.get(orderNum).getState());
+        assertEquals("tracking1234", reopened.get("1234").getTrackingNum());
+        reopened.close();
+    }
+
+    @Test
+    public void testCountsShadowedUuidOrdersOnce() throws Exception {
+        File log = new File(folder.getRoot(), "orders.log");
+        OrderStore store = new OrderStore(log, 1000, 300);
+        String orderNum = UUID.randomUUID().toString();
+        store.dispatched(orderNum, UUID.randomUUID().toString());
+        // a tracking number the index can't hold moves the order to the map.
+        store.dispatched(orderNum, "tracking1");
+        store.cancel(orderNum);
+        assertEquals(1, store.size());
+        store.compact();
+        store.close();
+
+        OrderStore reopened = new OrderStore(log, 1000, 300);
+        assertEquals(1, reopened.size());
+        assertEquals("tracking1", reopened.get(orderNum).getTrackingNum());
+        assertEquals(OrderStore.State.CANCELLED, reopened.get(orderNum).getState());
+        String trackingNum = UUID.randomUUID().toString();
+        reopened.dispatched(orderNum, trackingNum);
+        assertEquals(1, reopened.size());
+        assertEquals(trackingNum, reopened.get(orderNum).getTrackingNum());
+        reopened.close();
+    }
+}
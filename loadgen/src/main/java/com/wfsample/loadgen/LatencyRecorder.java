@@ -0,0 +1,197 @@
+package com.wfsample.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records client side latencies per shopping endpoint in HdrHistograms and periodically reports
+ * p50/p90/p99/p99.9/max and throughput. Open loop and replayed requests are measured from their
+ * intended start time, and closed loop requests, which can't start before the previous one
+ * completed, have the requests a slow response held back back-filled, see
+ * {@link #recordClosedLoop}. Either way queueing delays caused by a slow service show up in the
+ * percentiles instead of being hidden by the load generator waiting (coordinated omission).
+ *
+ * Interval histograms can be written to an HdrHistogram log (tagged by endpoint) and a JSON
+ * summary of the whole run is written on {@link #close()}.
+ */
+class LatencyRecorder {
+  private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50Ms", "p90Ms", "p99Ms", "p999Ms"};
+
+  private final Map<ShopEndpoint, Recorder> recorders = new EnumMap<>(ShopEndpoint.class);
+  private final Map<ShopEndpoint, Histogram> intervals = new EnumMap<>(ShopEndpoint.class);
+  private final Map<ShopEndpoint, Histogram> totals = new EnumMap<>(ShopEndpoint.class);
+  private final Map<ShopEndpoint, LongAdder> errors = new EnumMap<>(ShopEndpoint.class);
+  private final Map<ShopEndpoint, Long> reportedErrors = new EnumMap<>(ShopEndpoint.class);
+  private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+      r -> {
+        Thread thread = new Thread(r, "loadgen-latency-reporter");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private final HistogramLogWriter logWriter;
+  private final File jsonReport;
+  private final long startMillis = System.currentTimeMillis();
+  private long lastReportMillis = startMillis;
+  private boolean closed = false;
+
+  /**
+   * @param hdrLog     file to write interval histograms to, or null.
+   * @param jsonReport file to write the final summary to, or null.
+   */
+  LatencyRecorder(File hdrLog, File jsonReport) throws FileNotFoundException {
+    for (ShopEndpoint endpoint : ShopEndpoint.values()) {
+      recorders.put(endpoint, new Recorder(3));
+      totals.put(endpoint, new Histogram(3));
+      errors.put(endpoint, new LongAdder());
+      reportedErrors.put(endpoint, 0L);
+    }
+    this.jsonReport = jsonReport;
+    if (hdrLog != null) {
+      logWriter = new HistogramLogWriter(hdrLog);
+      logWriter.outputLogFormatVersion();
+      logWriter.outputStartTime(startMillis);
+      logWriter.setBaseTime(startMillis);
+      logWriter.outputLegend();
+    } else {
+      logWriter = null;
+    }
+  }
+
+  /**
+   * Records a completed (or failed) request.
+   *
+   * @param intendedStartNanos {@link System#nanoTime()} at which the request should have started.
+   * @param endNanos           {@link System#nanoTime()} at which the response was received.
+   */
+  void record(ShopEndpoint endpoint, long intendedStartNanos, long endNanos, boolean success) {
+    recorders.get(endpoint).recordValue(
+        Math.max(0, TimeUnit.NANOSECONDS.toMicros(endNanos - intendedStartNanos)));
+    if (!success) {
+      errors.get(endpoint).increment();
+    }
+  }
+
+  /**
+   * Records a request of a closed loop, which issues the next request only once this one
+   * completed. A response slower than the interval the loop means to issue requests at held back
+   * the requests that were due meanwhile, so their latencies are recorded too, each an interval
+   * shorter than the one before, as HdrHistogram's coordinated omission correction does.
+   *
+   * @param startNanos            {@link System#nanoTime()} at which the request was sent.
+   * @param endNanos              {@link System#nanoTime()} at which the response was received.
+   * @param expectedIntervalNanos interval at which the loop means to issue requests of the
+   *                              endpoint.
+   */
+  void recordClosedLoop(ShopEndpoint endpoint, long startNanos, long endNanos,
+                        long expectedIntervalNanos, boolean success) {
+    recorders.get(endpoint).recordValueWithExpectedInterval(
+        Math.max(0, TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos)),
+        TimeUnit.NANOSECONDS.toMicros(expectedIntervalNanos));
+    if (!success) {
+      errors.get(endpoint).increment();
+    }
+  }
+
+  /**
+   * Records a request that could not be issued at all, it only counts towards errors.
+   */
+  void recordDropped(ShopEndpoint endpoint) {
+    errors.get(endpoint).increment();
+  }
+
+  void start(long reportIntervalSeconds) {
+    reporter.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops periodic reporting, then reports the last interval and the totals for the whole run.
+   */
+  synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    reporter.shutdownNow();
+    report();
+    long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+    System.out.println("=== totals over " + elapsedMillis / 1000 + "s ===");
+    printHeader();
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    ObjectNode summary = mapper.createObjectNode();
+    summary.put("startTimeMillis", startMillis);
+    summary.put("durationMillis", elapsedMillis);
+    ObjectNode endpoints = summary.putObject("endpoints");
+    for (ShopEndpoint endpoint : ShopEndpoint.values()) {
+      Histogram total = totals.get(endpoint);
+      long errorCount = errors.get(endpoint).sum();
+      printRow(endpoint, total, errorCount, elapsedMillis);
+      ObjectNode node = endpoints.putObject(endpoint.name().toLowerCase());
+      node.put("count", total.getTotalCount());
+      node.put("errors", errorCount);
+      node.put("throughputPerSecond", total.getTotalCount() * 1000.0 / elapsedMillis);
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        node.put(PERCENTILE_NAMES[i], total.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+      }
+      node.put("maxMs", total.getMaxValue() / 1000.0);
+    }
+    if (logWriter != null) {
+      logWriter.close();
+    }
+    if (jsonReport != null) {
+      mapper.writeValue(jsonReport, summary);
+    }
+  }
+
+  private synchronized void report() {
+    long now = System.currentTimeMillis();
+    long elapsedMillis = Math.max(1, now - lastReportMillis);
+    lastReportMillis = now;
+    printHeader();
+    for (ShopEndpoint endpoint : ShopEndpoint.values()) {
+      Histogram interval = recorders.get(endpoint).getIntervalHistogram(intervals.get(endpoint));
+      intervals.put(endpoint, interval);
+      totals.get(endpoint).add(interval);
+      long errorCount = errors.get(endpoint).sum();
+      printRow(endpoint, interval, errorCount - reportedErrors.put(endpoint, errorCount),
+          elapsedMillis);
+      if (logWriter != null && interval.getTotalCount() > 0) {
+        interval.setTag(endpoint.name().toLowerCase());
+        logWriter.outputIntervalHistogram(interval);
+      }
+    }
+  }
+
+  private static void printHeader() {
+    System.out.println(String.format("%-17s %9s %9s %7s %9s %9s %9s %9s %9s", "endpoint",
+        "count", "req/s", "errors", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+  }
+
+  private static void printRow(ShopEndpoint endpoint, Histogram histogram, long errorCount,
+                               long elapsedMillis) {
+    System.out.println(String.format("%-17s %9d %9.1f %7d %9.1f %9.1f %9.1f %9.1f %9.1f",
+        endpoint.name().toLowerCase(), histogram.getTotalCount(),
+        histogram.getTotalCount() * 1000.0 / elapsedMillis, errorCount,
+        histogram.getValueAtPercentile(50.0) / 1000.0,
+        histogram.getValueAtPercentile(90.0) / 1000.0,
+        histogram.getValueAtPercentile(99.0) / 1000.0,
+        histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0));
+  }
+}
@@ -0,0 +1,179 @@
+package com.wfsample.loadgen;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Open-loop load generator which schedules arrivals at a fixed or Poisson rate independently of
+ * how fast the shopping service responds, so a slow service cannot throttle the offered load
+ * (i.e. no coordinated omission). Requests are issued asynchronously via OkHttp and the number of
+ * outstanding requests is capped by {@code maxInFlight}; arrivals beyond the cap are dropped and
+ * counted instead of queued. Latencies are recorded from the scheduled arrival time of each
+ * request.
+ */
+class OpenLoopGenerator {
+  private final OkHttpClient client;
+  private final HttpUrl shopUrl;
+  private final double ratePerSecond;
+  private final boolean poisson;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final LatencyRecorder latencyRecorder;
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile boolean running = true;
+
+  OpenLoopGenerator(String host, int port, double ratePerSecond, boolean poisson,
+                    int maxInFlight, LatencyRecorder latencyRecorder) {
+    this.shopUrl = new HttpUrl.Builder().scheme("http").host(host).port(port).
+        addPathSegments("api/shop").build();
+    this.ratePerSecond = ratePerSecond;
+    this.poisson = poisson;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.latencyRecorder = latencyRecorder;
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService callExecutor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "loadgen-call-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // the default dispatcher only allows 64 calls (5 per host) in flight.
+    Dispatcher dispatcher = new Dispatcher(callExecutor);
+    dispatcher.setMaxRequests(maxInFlight);
+    dispatcher.setMaxRequestsPerHost(maxInFlight);
+    this.client = new OkHttpClient().newBuilder().
+        dispatcher(dispatcher).
+        connectionPool(new ConnectionPool(Math.min(maxInFlight, 1024), 5, TimeUnit.MINUTES)).
+        readTimeout(2, TimeUnit.MINUTES).
+        build();
+  }
+
+  /**
+   * Generates load on the calling thread until {@link #stop()} is called or the duration elapses.
+   *
+   * @param durationSeconds how long to run for, 0 to run until stopped.
+   */
+  void run(long durationSeconds) {
+    long start = System.nanoTime();
+    long deadline = durationSeconds > 0 ? start + TimeUnit.SECONDS.toNanos(durationSeconds) :
+        Long.MAX_VALUE;
+    long lastProgress = start;
+    long arrivals = 0;
+    long intendedStart = start;
+    while (running && intendedStart < deadline) {
+      long now = System.nanoTime();
+      if (intendedStart > now) {
+        LockSupport.parkNanos(intendedStart - now);
+        continue;
+      }
+      // each cycle lasts a minute, mirroring the closed loop load pattern.
+      long loadCycle = TimeUnit.NANOSECONDS.toMinutes(intendedStart - start) % 55;
+      List<ShopEndpoint> endpoints = ShirtOrderGenerator.endpointsForCycle(loadCycle);
+      ShopEndpoint endpoint = endpoints.get((int) (arrivals++ % endpoints.size()));
+      String body = endpoint == ShopEndpoint.ORDER ?
+          ShopEndpoint.orderBody(ShirtOrderGenerator.numShirtsToOrder(loadCycle)) : null;
+      submit(endpoint, body, intendedStart);
+      intendedStart += nextInterArrivalNanos();
+      if (now - lastProgress > TimeUnit.SECONDS.toNanos(10)) {
+        lastProgress = now;
+        System.out.println("arrivals: " + arrivals + ", completed: " + completed.get() +
+            ", failed: " + failed.get() + ", dropped: " + dropped.get());
+      }
+    }
+  }
+
+  HttpUrl shopUrl() {
+    return shopUrl;
+  }
+
+  void stop() {
+    running = false;
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Waits for outstanding requests to complete.
+   *
+   * @return false if requests were still in flight when the timeout elapsed.
+   */
+  boolean awaitInFlight(long timeout, TimeUnit unit) {
+    try {
+      if (inFlight.tryAcquire(maxInFlight, timeout, unit)) {
+        inFlight.release(maxInFlight);
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /**
+   * Issues the request asynchronously, or drops it if too many requests are already in flight.
+   *
+   * @param intendedStartNanos {@link System#nanoTime()} at which the request was scheduled.
+   */
+  void submit(ShopEndpoint endpoint, String body, long intendedStartNanos) {
+    submit(endpoint, endpoint.newRequest(shopUrl, body), intendedStartNanos);
+  }
+
+  void submit(ShopEndpoint endpoint, Request request, long intendedStartNanos) {
+    if (!inFlight.tryAcquire()) {
+      dropped.incrementAndGet();
+      latencyRecorder.recordDropped(endpoint);
+      return;
+    }
+    client.newCall(request).enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        inFlight.release();
+        failed.incrementAndGet();
+        latencyRecorder.record(endpoint, intendedStartNanos, System.nanoTime(), false);
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        inFlight.release();
+        boolean success = response.code() == 200;
+        latencyRecorder.record(endpoint, intendedStartNanos, System.nanoTime(), success);
+        if (success) {
+          completed.incrementAndGet();
+        } else {
+          failed.incrementAndGet();
+        }
+        response.close();
+      }
+    });
+  }
+
+  private long nextInterArrivalNanos() {
+    double meanNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+    if (poisson) {
+      // exponentially distributed gaps give a Poisson arrival process.
+      return (long) (-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * meanNanos);
+    }
+    return (long) meanNanos;
+  }
+}
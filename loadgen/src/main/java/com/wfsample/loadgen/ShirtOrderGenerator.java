@@ -1,12 +1,15 @@
 package com.wfsample.loadgen;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -14,26 +17,140 @@ import okhttp3.Response;
  * simple load pattern of high number shirt requests periodically. This script needs host and port
  * on which sample app is running, and Requests per minute should be provided as input parameters.
  *
+ * With {@code --open-loop} the rate is interpreted as requests per second and requests are issued
+ * asynchronously at a fixed ({@code --arrivals=fixed}, default) or Poisson
+ * ({@code --arrivals=poisson}) rate, see {@link OpenLoopGenerator}. With {@code --replay=file}
+ * a recorded trace is replayed instead, see {@link TraceReplayer}.
+ *
+ * Client side latencies are reported every {@code --report-interval} seconds (default 10), and can
+ * be written as an HdrHistogram log ({@code --hdr-log=file}) and a JSON summary
+ * ({@code --json-report=file}), see {@link LatencyRecorder}.
+ *
  * @author Srujan Narkedamalli (snarkedamall@wavefront.com).
  */
 public class ShirtOrderGenerator {
-  private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-
-  public static void main(String[] args) {
-    // args are: host, port, requests per second
+  public static void main(String[] args) throws IOException {
+    // args are: host, port, requests per minute (per second in open loop mode), [--options]
     String host = args[0];
     int port = Integer.parseInt(args[1]);
+    // the rate is not needed when replaying a trace
+    boolean hasRate = args.length > 2 && !args[2].startsWith("--");
+    Map<String, String> options = parseOptions(args, hasRate ? 3 : 2);
+    LatencyRecorder latencyRecorder = new LatencyRecorder(fileOption(options, "hdr-log"),
+        fileOption(options, "json-report"));
+    latencyRecorder.start(Long.parseLong(options.getOrDefault("report-interval", "10")));
+    if (options.containsKey("open-loop") || options.containsKey("replay")) {
+      double requestsPerSecond = hasRate ? Double.parseDouble(args[2]) : 0;
+      if (!options.containsKey("replay") && requestsPerSecond <= 0) {
+        System.out.println("please use requests per second greater than 0");
+        System.exit(1);
+      }
+      double speedup = Double.parseDouble(options.getOrDefault("speedup", "1"));
+      if (!(speedup > 0)) {
+        System.out.println("please use a speedup greater than 0");
+        System.exit(1);
+      }
+      OpenLoopGenerator loadgen = new OpenLoopGenerator(host, port, requestsPerSecond,
+          "poisson".equals(options.get("arrivals")),
+          Integer.parseInt(options.getOrDefault("max-in-flight", "10000")), latencyRecorder);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        loadgen.stop();
+        closeQuietly(latencyRecorder);
+      }));
+      if (options.containsKey("replay")) {
+        TraceReplayer replayer = new TraceReplayer(loadgen, speedup);
+        long issued = replayer.replay(new File(options.get("replay")));
+        System.out.println("replayed " + issued + " requests");
+      } else {
+        loadgen.run(Long.parseLong(options.getOrDefault("duration", "0")));
+      }
+      loadgen.awaitInFlight(2, TimeUnit.MINUTES);
+      latencyRecorder.close();
+      System.exit(0);
+    }
     int requestsPerMinute = Integer.parseInt(args[2]);
     if (requestsPerMinute < 1) {
       System.out.println("please use requests per minute greater than or equal to 1");
       System.exit(1);
     }
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> closeQuietly(latencyRecorder)));
     ShirtOrderGenerator loadgen = new ShirtOrderGenerator();
-    loadgen.start(host, port, requestsPerMinute);
+    loadgen.start(host, port, requestsPerMinute, latencyRecorder);
+  }
+
+  private static File fileOption(Map<String, String> options, String name) {
+    return options.containsKey(name) ? new File(options.get(name)) : null;
   }
 
-  void start(String host, int port, int requestsPerMinute) {
+  private static void closeQuietly(LatencyRecorder latencyRecorder) {
+    try {
+      latencyRecorder.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Parses {@code --name=value} (or bare {@code --name}) options starting at the given index.
+   */
+  static Map<String, String> parseOptions(String[] args, int from) {
+    Map<String, String> options = new HashMap<>();
+    for (int i = from; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("unrecognized argument: " + args[i]);
+      }
+      int eq = args[i].indexOf('=');
+      if (eq < 0) {
+        options.put(args[i].substring(2), "true");
+      } else {
+        options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+      }
+    }
+    return options;
+  }
+
+  /**
+   * Number of shirts ordered during the given load cycle, cycles repeat every 55 iterations.
+   */
+  static int numShirtsToOrder(long loadCycleCount) {
+    if (loadCycleCount > 45 && loadCycleCount < 55) {
+      // high number of shirts that can cause high latency
+      return 45;
+    } else if (loadCycleCount % 5 == 0) {
+      // can cause errors
+      return 35;
+    } else {
+      return 8;
+    }
+  }
+
+  /**
+   * APIs that are invoked during the given load cycle.
+   */
+  static List<ShopEndpoint> endpointsForCycle(long loadCycleCount) {
+    List<ShopEndpoint> endpoints = new ArrayList<>(5);
+    if (loadCycleCount % 2 == 0) {
+      endpoints.add(ShopEndpoint.MENU);
+    }
+    endpoints.add(ShopEndpoint.ORDER);
+    if (loadCycleCount % 3 == 0) {
+      endpoints.add(ShopEndpoint.INVENTORY_UPDATE);
+    }
+    if (loadCycleCount % 4 == 0) {
+      endpoints.add(ShopEndpoint.CANCEL);
+    }
+    if (loadCycleCount % 5 == 0) {
+      endpoints.add(ShopEndpoint.STATUS);
+    }
+    return endpoints;
+  }
+
+  void start(String host, int port, int requestsPerMinute, LatencyRecorder latencyRecorder) {
     OkHttpClient client = new OkHttpClient().newBuilder().readTimeout(2, TimeUnit.MINUTES).build();
+    HttpUrl shopUrl = new HttpUrl.Builder().scheme("http").host(host).port(port).
+        addPathSegments("api/shop").build();
+    // the loop means to issue each endpoint's requests this far apart, see recordClosedLoop.
+    long expectedIntervalNanos = TimeUnit.MINUTES.toNanos(1) / requestsPerMinute;
     int requestsInCurrentMinute = 0;
     long start = System.currentTimeMillis();
     // each cycle is when we hit a num of requests per minute i.e. approx a minute
@@ -47,124 +164,89 @@ public class ShirtOrderGenerator {
         if (timeLeft <= 0) {
           System.out.println("loadgen is cpu bound and is not meeting target");
         } else {
-          try {
-            Thread.sleep(timeLeft);
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
+          sleep(timeLeft);
         }
         start = System.currentTimeMillis();
       }
       requestsInCurrentMinute++;
       if (loadCycleCount % 2 == 0) {
-        try {
-          HttpUrl url = new HttpUrl.Builder().scheme("http").host(host).port(port).
-              addPathSegments("api/shop/menu")
-              .build();
-          Request.Builder requestBuilder = new Request.Builder().url(url);
-          Request request = requestBuilder.build();
-          Response response = client.newCall(request).execute();
-          if (response.code() != 200) {
-            //throw new RuntimeException("Bad HTTP result: " + response);
-            System.out.println("error getting shopping menu");
-          } else {
-            System.out.println("successfully got menu");
-          }
-          response.close();
-        } catch (Exception e) {
-          e.printStackTrace();
+        if (execute(client, shopUrl, ShopEndpoint.MENU, null, expectedIntervalNanos,
+            latencyRecorder)) {
+          System.out.println("successfully got menu");
+        } else {
+          System.out.println("error getting shopping menu");
         }
       }
-      if (loadCycleCount > 45 && loadCycleCount < 55) {
-        // high number of shirts that can cause high latency
-        numShirtsToOrder = 45;
-      } else if (loadCycleCount >= 55) {
+      if (loadCycleCount >= 55) {
         // reset loadCycle to beginning to repeat pattern
         loadCycleCount = 0;
-      } else if (loadCycleCount % 5 == 0) {
-        // can cause errors
-        numShirtsToOrder = 35;
-      } else {
-        numShirtsToOrder = 8;
       }
+      numShirtsToOrder = numShirtsToOrder(loadCycleCount);
       // order shirts
-      try {
-        RequestBody json = RequestBody.create(JSON, "{\"styleName\" : \"foo\",\"quantity\" : " +
-            "" + numShirtsToOrder + "}");
-        Request.Builder requestBuilder = new Request.Builder().url
-            ("http://" + host + ":" + port + "/api/shop/order").post(json);
-        Request request = requestBuilder.build();
-        Response response = client.newCall(request).execute();
-        if (response.code() != 200) {
-          System.out.println("error ordering shirts");
-        } else {
-          System.out.println("successfully ordered shirts");
-        }
-        response.close();
-        Thread.sleep(1000);
-      } catch (Exception e) {
+      if (execute(client, shopUrl, ShopEndpoint.ORDER, ShopEndpoint.orderBody(numShirtsToOrder),
+          expectedIntervalNanos, latencyRecorder)) {
+        System.out.println("successfully ordered shirts");
+      } else {
         System.out.println("error ordering shirts");
       }
+      sleep(1000);
       // inventory update
       if (loadCycleCount % 3 == 0) {
-        try {
-          RequestBody json2 = RequestBody.create(JSON, "{}");
-          Request.Builder requestBuilder = new Request.Builder().url
-              ("http://" + host + ":" + port + "/api/shop/inventory/update").post(json2);
-          Request request = requestBuilder.build();
-          Response response = client.newCall(request).execute();
-          if (response.code() != 200) {
-            System.out.println("error updating inventory");
-          } else {
-            System.out.println("updated inventory successfully");
-          }
-          response.close();
-          Thread.sleep(1000);
-
-        } catch (Exception e) {
-          e.printStackTrace();
+        if (execute(client, shopUrl, ShopEndpoint.INVENTORY_UPDATE, null, expectedIntervalNanos,
+            latencyRecorder)) {
+          System.out.println("updated inventory successfully");
+        } else {
           System.out.println("error updating inventory");
         }
+        sleep(1000);
       }
       // cancel orders
       if (loadCycleCount % 4 == 0) {
-        try {
-          RequestBody json2 = RequestBody.create(JSON, "{}");
-          Request.Builder requestBuilder = new Request.Builder().url
-              ("http://" + host + ":" + port + "/api/shop/cancel").post(json2);
-          Request request = requestBuilder.build();
-          Response response = client.newCall(request).execute();
-          if (response.code() != 200) {
-            System.out.println("error cancelling order");
-          } else {
-            System.out.println("cancelled order successfully");
-          }
-          response.close();
-          Thread.sleep(1000);
-
-        } catch (Exception e) {
-          e.printStackTrace();
-          System.out.println("error updating inventory");
+        if (execute(client, shopUrl, ShopEndpoint.CANCEL, null, expectedIntervalNanos,
+            latencyRecorder)) {
+          System.out.println("cancelled order successfully");
+        } else {
+          System.out.println("error cancelling order");
         }
+        sleep(1000);
       }
       // check status
       if (loadCycleCount % 5 == 0) {
-        try {
-          HttpUrl url = new HttpUrl.Builder().scheme("http").host(host).port(port).
-              addPathSegments("api/shop/status/1234").build();
-          Request.Builder requestBuilder = new Request.Builder().url(url);
-          Request request = requestBuilder.build();
-          Response response = client.newCall(request).execute();
-          if (response.code() != 200) {
-            System.out.println("error getting order status");
-          } else {
-            System.out.println("successfully got order status");
-          }
-          response.close();
-        } catch (Exception e) {
-          e.printStackTrace();
+        if (execute(client, shopUrl, ShopEndpoint.STATUS, null, expectedIntervalNanos,
+            latencyRecorder)) {
+          System.out.println("successfully got order status");
+        } else {
+          System.out.println("error getting order status");
         }
       }
     }
   }
+
+  /**
+   * Invokes the endpoint synchronously and records its latency.
+   *
+   * @return true if the request succeeded.
+   */
+  private static boolean execute(OkHttpClient client, HttpUrl shopUrl, ShopEndpoint endpoint,
+                                 String body, long expectedIntervalNanos,
+                                 LatencyRecorder latencyRecorder) {
+    long start = System.nanoTime();
+    boolean success = false;
+    try (Response response = client.newCall(endpoint.newRequest(shopUrl, body)).execute()) {
+      success = response.code() == 200;
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    latencyRecorder.recordClosedLoop(endpoint, start, System.nanoTime(), expectedIntervalNanos,
+        success);
+    return success;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
 }
@@ -0,0 +1,76 @@
+package com.wfsample.loadgen;
+
+import java.util.UUID;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * The consumer facing shopping APIs exercised by the load generator.
+ */
+enum ShopEndpoint {
+  MENU("menu", false),
+  ORDER("order", true),
+  INVENTORY_UPDATE("inventory/update", true),
+  CANCEL("cancel", true),
+  STATUS("status/1234", false);
+
+  private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+  private final String path;
+  private final boolean post;
+
+  ShopEndpoint(String path, boolean post) {
+    this.path = path;
+    this.post = post;
+  }
+
+  /**
+   * Builds the request for this endpoint.
+   *
+   * @param shopUrl base url of the shopping API, i.e. http://host:port/api/shop
+   * @param body    JSON payload for POST endpoints, if null an empty object is used, or an unknown
+   *                order for cancellations.
+   */
+  Request newRequest(HttpUrl shopUrl, String body) {
+    return newRequestForUrl(shopUrl.newBuilder().addPathSegments(path).build(), body);
+  }
+
+  /**
+   * Builds the request for this endpoint against an explicit url, e.g. one recorded in a trace.
+   */
+  Request newRequestForUrl(HttpUrl url, String body) {
+    Request.Builder builder = new Request.Builder().url(url);
+    if (post) {
+      builder.post(RequestBody.create(JSON, body != null ? body : this == CANCEL ?
+          cancelBody(UUID.randomUUID().toString()) : "{}"));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Finds the endpoint serving the given path relative to the shopping API, e.g. "order" or
+   * "status/42".
+   *
+   * @return the matching endpoint or null if there is none.
+   */
+  static ShopEndpoint fromPath(String relativePath) {
+    for (ShopEndpoint endpoint : values()) {
+      if (relativePath.equals(endpoint.path)) {
+        return endpoint;
+      }
+    }
+    // order status is looked up by order number.
+    return relativePath.startsWith("status/") ? STATUS : null;
+  }
+
+  static String orderBody(int numShirts) {
+    return "{\"styleName\" : \"foo\",\"quantity\" : " + numShirts + "}";
+  }
+
+  static String cancelBody(String orderId) {
+    return "{\"orderId\" : \"" + orderId + "\"}";
+  }
+}
@@ -0,0 +1,104 @@
+package com.wfsample.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Replays a recorded traffic trace against the shopping service. The trace is a JSONL file with
+ * one request per line, for example:
+ *
+ * <pre>
+ * {"timestampMillis": 1700000000000, "path": "/api/shop/order", "body": {"styleName": "foo", "quantity": 8}}
+ * {"timestampMillis": 1700000000042, "path": "/api/shop/menu"}
+ * {"timestampMillis": 1700000000107, "path": "/api/shop/status/1234"}
+ * </pre>
+ *
+ * The file is streamed line by line so traces of any size can be replayed. Requests are issued
+ * open loop through {@link OpenLoopGenerator} at the recorded inter-arrival times, optionally
+ * compressed by a speed-up factor.
+ */
+class TraceReplayer {
+  private static final String API_PREFIX = "/api/shop/";
+
+  private final OpenLoopGenerator dispatcher;
+  private final double speedup;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * @param speedup factor by which recorded inter-arrival times are divided, 1 replays in real
+   *                time.
+   */
+  TraceReplayer(OpenLoopGenerator dispatcher, double speedup) {
+    if (!(speedup > 0)) {
+      throw new IllegalArgumentException("speedup must be greater than 0: " + speedup);
+    }
+    this.dispatcher = dispatcher;
+    this.speedup = speedup;
+  }
+
+  /**
+   * Replays the trace on the calling thread.
+   *
+   * @return number of requests issued.
+   */
+  long replay(File trace) throws IOException {
+    HttpUrl shopUrl = dispatcher.shopUrl();
+    long start = System.nanoTime();
+    long firstTimestamp = -1;
+    long issued = 0;
+    long skipped = 0;
+    try (BufferedReader reader = Files.newBufferedReader(trace.toPath(),
+        StandardCharsets.UTF_8)) {
+      String line;
+      while (dispatcher.isRunning() && (line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        JsonNode record;
+        try {
+          record = mapper.readTree(line);
+        } catch (IOException e) {
+          skipped++;
+          continue;
+        }
+        String path = record.path("path").asText("");
+        ShopEndpoint endpoint = path.startsWith(API_PREFIX) ?
+            ShopEndpoint.fromPath(path.substring(API_PREFIX.length())) : null;
+        HttpUrl url = shopUrl.resolve(path);
+        if (endpoint == null || url == null || !record.has("timestampMillis")) {
+          skipped++;
+          continue;
+        }
+        long timestamp = record.get("timestampMillis").asLong();
+        if (firstTimestamp < 0) {
+          firstTimestamp = timestamp;
+        }
+        long intendedStart = start + (long) (TimeUnit.MILLISECONDS.toNanos(
+            timestamp - firstTimestamp) / speedup);
+        long now;
+        while ((now = System.nanoTime()) < intendedStart) {
+          LockSupport.parkNanos(intendedStart - now);
+        }
+        JsonNode body = record.get("body");
+        String payload = body == null || body.isNull() ? null :
+            body.isTextual() ? body.asText() : body.toString();
+        dispatcher.submit(endpoint, endpoint.newRequestForUrl(url, payload), intendedStart);
+        issued++;
+      }
+    }
+    if (skipped > 0) {
+      System.out.println("skipped " + skipped + " unrecognized trace records");
+    }
+    return issued;
+  }
+}
@@ -0,0 +1,85 @@
+package com.wfsample.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for LatencyRecorder.
+ */
+public class LatencyRecorderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testJsonSummary() throws Exception {
+        File hdrLog = new File(folder.getRoot(), "latency.hlog");
+        File jsonReport = new File(folder.getRoot(), "summary.json");
+        LatencyRecorder recorder = new LatencyRecorder(hdrLog, jsonReport);
+        long start = System.nanoTime();
+        recorder.record(ShopEndpoint.ORDER, start, start + TimeUnit.MILLISECONDS.toNanos(10), true);
+        recorder.record(ShopEndpoint.ORDER, start, start + TimeUnit.MILLISECONDS.toNanos(20), true);
+        recorder.record(ShopEndpoint.ORDER, start, start + TimeUnit.MILLISECONDS.toNanos(30), false);
+        recorder.record(ShopEndpoint.MENU, start, start + TimeUnit.MILLISECONDS.toNanos(5), true);
+        recorder.recordDropped(ShopEndpoint.STATUS);
+        recorder.close();
+
+        JsonNode endpoints = new ObjectMapper().readTree(jsonReport).get("endpoints");
+        assertEquals(ShopEndpoint.values().length, endpoints.size());
+        assertEquals(3, endpoints.get("order").get("count").asLong());
+        assertEquals(1, endpoints.get("order").get("errors").asLong());
+        assertEquals(30.0, endpoints.get("order").get("maxMs").asDouble(), 0.1);
+        assertEquals(1, endpoints.get("menu").get("count").asLong());
+        assertEquals(0, endpoints.get("menu").get("errors").asLong());
+        // dropped requests count as errors but have no latency.
+        assertEquals(0, endpoints.get("status").get("count").asLong());
+        assertEquals(1, endpoints.get("status").get("errors").asLong());
+        assertTrue(hdrLog.length() > 0);
+    }
+
+    @Test
+    public void testClosedLoopBackFillsStalledRequests() throws Exception {
+        File jsonReport = new File(folder.getRoot(), "summary.json");
+        LatencyRecorder recorder = new LatencyRecorder(null, jsonReport);
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        long start = System.nanoTime();
+        // held back the 9 requests due 100ms, 200ms, ... 900ms after it was sent.
+        recorder.recordClosedLoop(ShopEndpoint.ORDER, start,
+            start + TimeUnit.MILLISECONDS.toNanos(1000), interval, true);
+        // faster than the interval, nothing was held back.
+        recorder.recordClosedLoop(ShopEndpoint.MENU, start,
+            start + TimeUnit.MILLISECONDS.toNanos(50), interval, true);
+        recorder.close();
+
+        JsonNode endpoints = new ObjectMapper().readTree(jsonReport).get("endpoints");
+        assertEquals(10, endpoints.get("order").get("count").asLong());
+        assertEquals(1000.0, endpoints.get("order").get("maxMs").asDouble(), 2.0);
+        assertEquals(500.0, endpoints.get("order").get("p50Ms").asDouble(), 1.0);
+        assertEquals(1, endpoints.get("menu").get("count").asLong());
+    }
+
+    @Test
+    public void testCloseTwice() throws Exception {
+        File jsonReport = new File(folder.getRoot(), "summary.json");
+        LatencyRecorder recorder = new LatencyRecorder(null, jsonReport);
+        long start = System.nanoTime();
+        recorder.record(ShopEndpoint.ORDER, start, start + TimeUnit.MILLISECONDS.toNanos(10), true);
+        recorder.close();
+        assertTrue(jsonReport.delete());
+
+        recorder.close();
+
+        assertFalse(jsonReport.exists());
+    }
+}
@@ -0,0 +1,74 @@
+package com.wfsample.loadgen;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for ShirtOrderGenerator.
+ */
+public class ShirtOrderGeneratorTest {
+
+    @Test
+    public void testParseOptions() {
+        Map<String, String> options = ShirtOrderGenerator.parseOptions(new String[]{"localhost",
+            "8080", "50", "--open-loop", "--arrivals=poisson", "--hdr-log=/tmp/a=b.hlog"}, 3);
+
+        assertEquals(3, options.size());
+        assertEquals("true", options.get("open-loop"));
+        assertEquals("poisson", options.get("arrivals"));
+        // only the first '=' separates the name from the value.
+        assertEquals("/tmp/a=b.hlog", options.get("hdr-log"));
+    }
+
+    @Test
+    public void testParseOptionsWithoutRate() {
+        Map<String, String> options = ShirtOrderGenerator.parseOptions(new String[]{"localhost",
+            "8080", "--replay=trace.jsonl"}, 2);
+
+        assertEquals(1, options.size());
+        assertEquals("trace.jsonl", options.get("replay"));
+        assertTrue(ShirtOrderGenerator.parseOptions(new String[]{"localhost", "8080"}, 2).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseOptionsRejectsPositionalArguments() {
+        ShirtOrderGenerator.parseOptions(new String[]{"localhost", "8080", "50", "--open-loop",
+            "poisson"}, 3);
+    }
+
+    @Test
+    public void testNumShirtsToOrder() {
+        assertEquals(35, ShirtOrderGenerator.numShirtsToOrder(0));
+        assertEquals(8, ShirtOrderGenerator.numShirtsToOrder(1));
+        assertEquals(35, ShirtOrderGenerator.numShirtsToOrder(45));
+        assertEquals(45, ShirtOrderGenerator.numShirtsToOrder(46));
+        // the high load window takes precedence over every fifth cycle.
+        assertEquals(45, ShirtOrderGenerator.numShirtsToOrder(50));
+        assertEquals(45, ShirtOrderGenerator.numShirtsToOrder(54));
+        assertEquals(35, ShirtOrderGenerator.numShirtsToOrder(55));
+    }
+
+    @Test
+    public void testEndpointsForCycle() {
+        assertEquals(Arrays.asList(ShopEndpoint.MENU, ShopEndpoint.ORDER,
+            ShopEndpoint.INVENTORY_UPDATE, ShopEndpoint.CANCEL, ShopEndpoint.STATUS),
+            ShirtOrderGenerator.endpointsForCycle(0));
+        assertEquals(Arrays.asList(ShopEndpoint.ORDER), ShirtOrderGenerator.endpointsForCycle(1));
+        assertEquals(Arrays.asList(ShopEndpoint.MENU, ShopEndpoint.ORDER),
+            ShirtOrderGenerator.endpointsForCycle(2));
+        assertEquals(Arrays.asList(ShopEndpoint.ORDER, ShopEndpoint.INVENTORY_UPDATE),
+            ShirtOrderGenerator.endpointsForCycle(3));
+        assertEquals(Arrays.asList(ShopEndpoint.MENU, ShopEndpoint.ORDER, ShopEndpoint.CANCEL),
+            ShirtOrderGenerator.endpointsForCycle(4));
+        assertEquals(Arrays.asList(ShopEndpoint.ORDER, ShopEndpoint.STATUS),
+            ShirtOrderGenerator.endpointsForCycle(5));
+        assertEquals(Arrays.asList(ShopEndpoint.ORDER), ShirtOrderGenerator.endpointsForCycle(49));
+        assertEquals(Arrays.asList(ShopEndpoint.MENU, ShopEndpoint.ORDER,
+            ShopEndpoint.INVENTORY_UPDATE), ShirtOrderGenerator.endpointsForCycle(54));
+    }
+}
@@ -0,0 +1,103 @@
+package com.wfsample.loadgen;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okio.Buffer;
+import okhttp3.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for TraceReplayer.
+ */
+public class TraceReplayerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Captures the requests the replayer issues instead of sending them.
+     */
+    private static class CapturingGenerator extends OpenLoopGenerator {
+        final List<ShopEndpoint> endpoints = new ArrayList<>();
+        final List<Request> requests = new ArrayList<>();
+        final List<Long> intendedStarts = new ArrayList<>();
+
+        CapturingGenerator() throws Exception {
+            super("localhost", 8080, 0, false, 10, new LatencyRecorder(null, null));
+        }
+
+        @Override
+        void submit(ShopEndpoint endpoint, Request request, long intendedStartNanos) {
+            endpoints.add(endpoint);
+            requests.add(request);
+            intendedStarts.add(intendedStartNanos);
+        }
+    }
+
+    @Test
+    public void testFromPath() {
+        assertEquals(ShopEndpoint.MENU, ShopEndpoint.fromPath("menu"));
+        assertEquals(ShopEndpoint.ORDER, ShopEndpoint.fromPath("order"));
+        assertEquals(ShopEndpoint.INVENTORY_UPDATE, ShopEndpoint.fromPath("inventory/update"));
+        assertEquals(ShopEndpoint.CANCEL, ShopEndpoint.fromPath("cancel"));
+        assertEquals(ShopEndpoint.STATUS, ShopEndpoint.fromPath("status/1234"));
+        assertEquals(ShopEndpoint.STATUS, ShopEndpoint.fromPath("status/42"));
+        assertNull(ShopEndpoint.fromPath("inventory"));
+        assertNull(ShopEndpoint.fromPath("status"));
+        assertNull(ShopEndpoint.fromPath(""));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        File trace = folder.newFile("trace.jsonl");
+        Files.write(trace.toPath(), Arrays.asList(
+            "{\"timestampMillis\": 1700000000000, \"path\": \"/api/shop/menu\"}",
+            "",
+            "{\"timestampMillis\": 1700000000100, \"path\": \"/api/shop/order\", " +
+                "\"body\": {\"styleName\": \"foo\", \"quantity\": 8}}",
+            "not json",
+            "{\"timestampMillis\": 1700000000150, \"path\": \"/api/other/menu\"}",
+            "{\"timestampMillis\": 1700000000200, \"path\": \"/api/shop/unknown\"}",
+            "{\"path\": \"/api/shop/menu\"}",
+            "{\"timestampMillis\": 1700000000300, \"path\": \"/api/shop/status/42\"}"),
+            StandardCharsets.UTF_8);
+        CapturingGenerator generator = new CapturingGenerator();
+
+        long issued = new TraceReplayer(generator, 100).replay(trace);
+
+        assertEquals(3, issued);
+        assertEquals(Arrays.asList(ShopEndpoint.MENU, ShopEndpoint.ORDER, ShopEndpoint.STATUS),
+            generator.endpoints);
+        // recorded gaps of 100ms and 200ms, a hundred times faster.
+        assertEquals(1_000_000L, generator.intendedStarts.get(1) - generator.intendedStarts.get(0));
+        assertEquals(2_000_000L, generator.intendedStarts.get(2) - generator.intendedStarts.get(1));
+        assertEquals("GET", generator.requests.get(0).method());
+        assertEquals("/api/shop/status/42", generator.requests.get(2).url().encodedPath());
+        Request order = generator.requests.get(1);
+        assertEquals("POST", order.method());
+        Buffer body = new Buffer();
+        order.body().writeTo(body);
+        assertEquals("{\"styleName\":\"foo\",\"quantity\":8}", body.readUtf8());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroSpeedup() throws Exception {
+        new TraceReplayer(new CapturingGenerator(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativeSpeedup() throws Exception {
+        new TraceReplayer(new CapturingGenerator(), -2);
+    }
+}
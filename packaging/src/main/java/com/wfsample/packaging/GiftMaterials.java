@@ -0,0 +1,51 @@
+package com.wfsample.packaging;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.wfsample.beachshirts.GiftPack;
+
+/**
+ * Pre-built gift packs for every size of gift material packaging hands out: up to
+ * {@link #SMALL_MAX} bytes for small orders and {@link #LARGE_MIN} plus up to {@link #SMALL_MAX}
+ * bytes for large ones. All of them are read-only views over one shared zeroed buffer, so gift
+ * wrapping neither allocates nor copies material per request.
+ */
+final class GiftMaterials {
+  static final int SMALL_MAX = 100;
+  static final int LARGE_MIN = 10000;
+
+  // never written to after construction, which is what makes wrapping it without a copy safe.
+  private static final byte[] MATERIAL = new byte[LARGE_MIN + SMALL_MAX];
+  private static final GiftPack[] SMALL = new GiftPack[SMALL_MAX + 1];
+  private static final GiftPack[] LARGE = new GiftPack[SMALL_MAX + 1];
+
+  static {
+    for (int i = 0; i <= SMALL_MAX; i++) {
+      SMALL[i] = giftPack(i);
+      LARGE[i] = giftPack(LARGE_MIN + i);
+    }
+  }
+
+  private GiftMaterials() {
+  }
+
+  /**
+   * @param size size of the material in bytes, between 0 and {@link #SMALL_MAX}.
+   */
+  static GiftPack small(int size) {
+    return SMALL[size];
+  }
+
+  /**
+   * @param size size of the material in bytes, between {@link #LARGE_MIN} and
+   *             {@link #LARGE_MIN} + {@link #SMALL_MAX}.
+   */
+  static GiftPack large(int size) {
+    return LARGE[size - LARGE_MIN];
+  }
+
+  private static GiftPack giftPack(int size) {
+    ByteString material = UnsafeByteOperations.unsafeWrap(MATERIAL, 0, size);
+    return GiftPack.newBuilder().setGiftMaterial(material).build();
+  }
+}
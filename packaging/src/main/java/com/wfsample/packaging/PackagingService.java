@@ -1,7 +1,6 @@
 package com.wfsample.packaging;
 
-import com.google.protobuf.ByteString;
-
+import com.codahale.metrics.MetricRegistry;
 import com.wavefront.config.ReportingUtils;
 import com.wavefront.config.WavefrontReportingConfig;
 import com.wavefront.opentracing.WavefrontTracer;
@@ -9,27 +8,41 @@ import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
 import com.wavefront.sdk.appagent.jvm.reporter.WavefrontJvmReporter;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.dropwizard.reporter.WavefrontDropwizardReporter;
 import com.wavefront.sdk.grpc.WavefrontServerTracerFactory;
 import com.wavefront.sdk.grpc.reporter.WavefrontGrpcReporter;
 import com.wfsample.beachshirts.GiftPack;
 import com.wfsample.beachshirts.PackagingGrpc;
 import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.Shirt;
 import com.wfsample.beachshirts.Void;
 import com.wfsample.beachshirts.WrapRequest;
 import com.wfsample.beachshirts.WrappingType;
 import com.wfsample.beachshirts.WrappingTypes;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
+import com.wfsample.common.AllocationInterceptor;
 import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.ClosingServer;
+import com.wfsample.common.ConcurrencyLimitInterceptor;
+import com.wfsample.common.FaultInjectionInterceptor;
+import com.wfsample.common.FaultInjector;
 import com.wfsample.common.GrpcServiceConfig;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
 
 import com.wfsample.common.TraceLoggerUtil;
+import com.wfsample.common.VirtualThreads;
 import org.apache.commons.lang3.BooleanUtils;
 
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
-import io.grpc.Status;
+import io.grpc.ServerInterceptors;
 import io.grpc.stub.StreamObserver;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -46,6 +59,22 @@ public class PackagingService {
   static Logger logger =  LogManager.getLogger(PackagingService.class);
 
   public PackagingService(GrpcServiceConfig config) throws Exception {
+    // styling pings while calls are in flight, see GrpcChannelPool.
+    Server packaging = newServer(config, ServerBuilder.forPort(config.getGrpcPort()).
+        permitKeepAliveTime(10, TimeUnit.SECONDS));
+    System.out.println("Starting Packaging server ...");
+    packaging.start();
+    System.out.println("Packaging server started");
+    packaging.awaitTermination();
+  }
+
+  /**
+   * Sets up the packaging service and its telemetry on the given server builder, listening on the
+   * configured port, or in-process when the services are run in a single JVM. Shutting down the
+   * server also stops the telemetry and fault injection of the service.
+   */
+  public static Server newServer(GrpcServiceConfig config, ServerBuilder<?> builder)
+      throws Exception {
     ApplicationTags applicationTags = ReportingUtils.constructApplicationTags
         (config.getApplicationTagsYamlFile());
     WavefrontReportingConfig wfReportingConfig = ReportingUtils.constructWavefrontReportingConfig(
@@ -68,13 +97,39 @@ public class PackagingService {
     WavefrontServerTracerFactory tracerFactory =
         new WavefrontServerTracerFactory.Builder(grpcReporter, applicationTags).
             withTracer(tracer).recordStreamingStats().build();
-    ServerBuilder builder = ServerBuilder.forPort(config.getGrpcPort()).
-        addService(new PackagingImpl(config, tracer)).addStreamTracerFactory(tracerFactory);
-    Server packaging = builder.build();
-    System.out.println("Starting Packaging server ...");
-    packaging.start();
-    System.out.println("Packaging server started");
-    packaging.awaitTermination();
+    MetricRegistry metrics = new MetricRegistry();
+    builder.addService(ServerInterceptors.intercept(new PackagingImpl(config, tracer),
+        new AllocationInterceptor(metrics))).addStreamTracerFactory(tracerFactory);
+    // added first so that it runs within the concurrency limit.
+    FaultInjector faultInjector = new FaultInjector(config.getFaultInjection()).
+        registerMetrics("packaging", metrics);
+    builder.intercept(new FaultInjectionInterceptor(faultInjector, tracer));
+    if (config.getConcurrencyLimit().isEnabled()) {
+      builder.intercept(new ConcurrencyLimitInterceptor(new AdaptiveConcurrencyLimiter(
+          config.getConcurrencyLimit()).registerMetrics("packaging", metrics)));
+    }
+    WavefrontDropwizardReporter dropwizardReporter = new WavefrontDropwizardReporter.Builder(
+        metrics, applicationTags).withSource(source).reportingIntervalSeconds(30).
+        build(wavefrontSender);
+    dropwizardReporter.start();
+    ExecutorService executor = null;
+    if (config.isVirtualThreads()) {
+      executor = VirtualThreads.newThreadPerTaskExecutor("packaging-");
+      builder.executor(executor);
+    }
+    ClosingServer server = new ClosingServer(builder.build()).
+        closing(faultInjector).
+        closing(dropwizardReporter::stop).
+        closing(grpcReporter::stop).
+        closing(wfJvmReporter::stop);
+    if (tracer != null) {
+      server.closing(tracer);
+    }
+    server.closing(wavefrontSender);
+    if (executor != null) {
+      server.closing(executor::shutdown);
+    }
+    return server;
   }
 
   public static void main(String[] args) throws Exception {
@@ -85,63 +140,102 @@ public class PackagingService {
   static class PackagingImpl extends PackagingGrpc.PackagingImplBase {
     private final WavefrontTracer tracer;
     private final GrpcServiceConfig conf;
-    private final int globalErrorInterval;
-    private final AtomicInteger getTypes = new AtomicInteger(0);
-    private final AtomicInteger restock = new AtomicInteger(0);
-    private final AtomicInteger wrap = new AtomicInteger(0);
-    private final AtomicInteger giftWrap = new AtomicInteger(0);
-    private final Random rand = new Random(0L);
+    private final PerThreadRandom random = new PerThreadRandom(0L);
+    private final LatencyModel processingLatency = LatencyDistribution.normal(100, 70, random);
+    private final LatencyModel largeGiftLatency = LatencyDistribution.normal(1400, 200, random);
 
     public PackagingImpl(GrpcServiceConfig grpcServiceConfig, WavefrontTracer tracer) {
       this.conf = grpcServiceConfig;
-      this.globalErrorInterval = conf.getErrorInterval();
       this.tracer = tracer;
     }
 
     @Override
     public void wrapShirts(WrapRequest request, StreamObserver<PackedShirts> responseObserver) {
+      wrap(request.getShirtsList(), responseObserver);
+    }
+
+    @Override
+    public void giftWrap(WrapRequest request, StreamObserver<GiftPack> responseObserver) {
+      wrapGift(request.getShirtsCount(), responseObserver);
+    }
+
+    @Override
+    public StreamObserver<WrapRequest> wrapShirtsStream(
+        StreamObserver<PackedShirts> responseObserver) {
+      PackedShirts.Builder packed = PackedShirts.newBuilder();
+      return new StreamObserver<WrapRequest>() {
+        @Override
+        public void onNext(WrapRequest chunk) {
+          packed.addAllShirts(chunk.getShirtsList());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "wrapShirtsStream aborted: {}",
+              t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+          wrap(packed.getShirtsList(), responseObserver);
+        }
+      };
+    }
+
+    @Override
+    public StreamObserver<WrapRequest> giftWrapStream(StreamObserver<GiftPack> responseObserver) {
+      // only the number of shirts matters for gift wrapping, so chunks are not retained.
+      AtomicInteger shirtsCount = new AtomicInteger(0);
+      return new StreamObserver<WrapRequest>() {
+        @Override
+        public void onNext(WrapRequest chunk) {
+          shirtsCount.addAndGet(chunk.getShirtsCount());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "giftWrapStream aborted: {}",
+              t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+          wrapGift(shirtsCount.get(), responseObserver);
+        }
+      };
+    }
+
+    private void wrap(List<Shirt> shirts, StreamObserver<PackedShirts> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      if (BeachShirtsUtils.isErrorRequest(wrap, globalErrorInterval, 40)) {
-        // can't pack more than 10 shirts at once.
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "can't pack more than 10 shirts at once");
-        responseObserver.onError(Status.INTERNAL.asRuntimeException());
-        return;
-      }
       responseObserver.onNext(PackedShirts.newBuilder().
-          addAllShirts(request.getShirtsList()).
+          addAllShirts(shirts).
           build());
       responseObserver.onCompleted();
     }
 
-    @Override
-    public void giftWrap(WrapRequest request, StreamObserver<GiftPack> responseObserver) {
-      if (BeachShirtsUtils.isErrorRequest(giftWrap, globalErrorInterval, 30)) {
-        responseObserver.onError(Status.INTERNAL.asRuntimeException());
-      }
+    private void wrapGift(int shirtsCount, StreamObserver<GiftPack> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, e.getMessage());
       }
-      if (request.getShirtsCount() > 40) {
-        int resp = (int) Math.round(rand.nextDouble() *
-            100.0) + 10000;
+      if (shirtsCount > 40) {
+        int resp = (int) Math.round(random.current().nextDouble() *
+            GiftMaterials.SMALL_MAX) + GiftMaterials.LARGE_MIN;
         try {
-          Thread.sleep(getRequestLatency(1400, 200, rand));
+          Thread.sleep(getRequestLatency(largeGiftLatency));
         } catch (InterruptedException e) {
           TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, e.getMessage());
         }
-        ByteString byteString = ByteString.copyFrom(new byte[resp]);
-        responseObserver.onNext(GiftPack.newBuilder().setGiftMaterial(byteString).build());
+        responseObserver.onNext(GiftMaterials.large(resp));
         responseObserver.onCompleted();
       } else {
-        int resp = (int) Math.round(rand.nextDouble() * 100.0);
-        ByteString byteString = ByteString.copyFrom(new byte[resp]);
-        responseObserver.onNext(GiftPack.newBuilder().setGiftMaterial(byteString).build());
+        int resp = (int) Math.round(random.current().nextDouble() * GiftMaterials.SMALL_MAX);
+        responseObserver.onNext(GiftMaterials.small(resp));
         responseObserver.onCompleted();
       }
     }
@@ -150,35 +244,25 @@ public class PackagingService {
     public void restockMaterial(WrappingType request,
                                 StreamObserver<com.wfsample.beachshirts.Status> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, e.getMessage());
       }
-      if (BeachShirtsUtils.isErrorRequest(restock, globalErrorInterval, 20)) {
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "unable to restock materials");
-        responseObserver.onError(Status.INTERNAL.asRuntimeException());
-      } else {
-        responseObserver.onNext(com.wfsample.beachshirts.Status.newBuilder().
-            setStatus(true).build());
-        responseObserver.onCompleted();
-      }
+      responseObserver.onNext(com.wfsample.beachshirts.Status.newBuilder().
+          setStatus(true).build());
+      responseObserver.onCompleted();
     }
 
     @Override
     public void getPackingTypes(Void request, StreamObserver<WrappingTypes> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, e.getMessage());
       }
-      if (BeachShirtsUtils.isErrorRequest(getTypes, globalErrorInterval, 30)) {
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "unable to get packing types");
-        responseObserver.onError(Status.INTERNAL.asRuntimeException());
-      } else {
-        responseObserver.onNext(WrappingTypes.newBuilder().addWrappingType(WrappingType.
-            newBuilder().setWrappingType("wrap wrap wrap wrap").build()).build());
-        responseObserver.onCompleted();
-      }
+      responseObserver.onNext(WrappingTypes.newBuilder().addWrappingType(WrappingType.
+          newBuilder().setWrappingType("wrap wrap wrap wrap").build()).build());
+      responseObserver.onCompleted();
     }
   }
 }
\ No newline at end of file
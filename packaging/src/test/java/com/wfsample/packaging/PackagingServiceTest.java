@@ -1,5 +1,7 @@
 package com.wfsample.packaging;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 import com.wfsample.beachshirts.GiftPack;
 import com.wfsample.beachshirts.PackagingGrpc;
 import com.wfsample.beachshirts.PackedShirts;
@@ -10,8 +12,10 @@ import com.wfsample.beachshirts.WrapRequest;
 import com.wfsample.beachshirts.WrappingType;
 import com.wfsample.beachshirts.WrappingTypes;
 import com.wfsample.beachshirts.Void;
+import com.wfsample.common.AllocationInterceptor;
 import com.wfsample.common.GrpcServiceConfig;
 
+import io.grpc.ServerInterceptors;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
@@ -31,6 +35,8 @@ import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
@@ -169,6 +175,46 @@ public class PackagingServiceTest {
         verify(responseObserver).onCompleted();
     }
     
+    @Test
+    public void testGiftMaterialsAreSharedViews() {
+        GiftPack small = GiftMaterials.small(50);
+        GiftPack large = GiftMaterials.large(GiftMaterials.LARGE_MIN + 100);
+
+        assertEquals(50, small.getGiftMaterial().size());
+        assertEquals(GiftMaterials.LARGE_MIN + 100, large.getGiftMaterial().size());
+        assertSame(small, GiftMaterials.small(50));
+    }
+
+    @Test
+    public void testGiftWrapReportsAllocations() throws IOException {
+        MetricRegistry metrics = new MetricRegistry();
+        String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder
+                .forName(name)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(
+                        new PackagingService.PackagingImpl(new GrpcServiceConfig(), null),
+                        new AllocationInterceptor(metrics)))
+                .build()
+                .start());
+        PackagingGrpc.PackagingBlockingStub stub = PackagingGrpc.newBlockingStub(
+                grpcCleanup.register(InProcessChannelBuilder
+                        .forName(name)
+                        .directExecutor()
+                        .build()));
+
+        GiftPack response = stub.giftWrap(WrapRequest.newBuilder()
+                .addAllShirts(createMockShirts(3))
+                .build());
+
+        assertTrue(response.getGiftMaterial().size() <= GiftMaterials.SMALL_MAX);
+        Histogram allocated = metrics.getHistograms().get(
+                "grpc.server.Packaging.giftWrap.allocated.bytes");
+        assertNotNull(allocated);
+        assertEquals(1, allocated.getCount());
+        assertTrue(allocated.getSnapshot().getMax() > 0);
+    }
+
     private List<Shirt> createMockShirts(int count) {
         List<Shirt> shirts = new ArrayList<>();
         for (int i = 0; i < count; i++) {
@@ -1,5 +1,6 @@
 package com.wfsample.printing;
 
+import com.codahale.metrics.MetricRegistry;
 import com.wavefront.config.ReportingUtils;
 import com.wavefront.config.WavefrontReportingConfig;
 import com.wavefront.opentracing.WavefrontTracer;
@@ -7,29 +8,39 @@ import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
 import com.wavefront.sdk.appagent.jvm.reporter.WavefrontJvmReporter;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.dropwizard.reporter.WavefrontDropwizardReporter;
 import com.wavefront.sdk.grpc.WavefrontServerTracerFactory;
 import com.wavefront.sdk.grpc.reporter.WavefrontGrpcReporter;
 import com.wfsample.beachshirts.AvailableColors;
 import com.wfsample.beachshirts.Color;
 import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintResponse;
 import com.wfsample.beachshirts.PrintingGrpc;
 import com.wfsample.beachshirts.Shirt;
 import com.wfsample.beachshirts.Void;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
 import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.ClosingServer;
+import com.wfsample.common.ConcurrencyLimitInterceptor;
+import com.wfsample.common.FaultInjectionInterceptor;
+import com.wfsample.common.FaultInjector;
 import com.wfsample.common.GrpcServiceConfig;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
 
-import com.wfsample.common.TraceLoggerUtil;
+import com.wfsample.common.VirtualThreads;
 import io.grpc.ServerInterceptor;
 import org.apache.commons.lang3.BooleanUtils;
 
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
-import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -44,6 +55,22 @@ public class PrintingService {
   static Logger logger =  LogManager.getLogger(PrintingService.class);
 
   public PrintingService(GrpcServiceConfig config) throws Exception {
+    // styling pings while calls are in flight, see GrpcChannelPool.
+    Server printingServer = newServer(config, ServerBuilder.forPort(config.getGrpcPort()).
+        permitKeepAliveTime(10, TimeUnit.SECONDS));
+    System.out.println("Starting printing server");
+    printingServer.start();
+    System.out.println("Started printing server");
+    printingServer.awaitTermination();
+  }
+
+  /**
+   * Sets up the printing service and its telemetry on the given server builder, listening on the
+   * configured port, or in-process when the services are run in a single JVM. Shutting down the
+   * server also stops the telemetry and fault injection of the service.
+   */
+  public static Server newServer(GrpcServiceConfig config, ServerBuilder<?> builder)
+      throws Exception {
     ApplicationTags applicationTags = ReportingUtils.constructApplicationTags
         (config.getApplicationTagsYamlFile());
     WavefrontReportingConfig wfReportingConfig = ReportingUtils.constructWavefrontReportingConfig(
@@ -66,13 +93,38 @@ public class PrintingService {
     WavefrontServerTracerFactory tracerFactory =
         new WavefrontServerTracerFactory.Builder(grpcReporter, applicationTags).
             withTracer(tracer).recordStreamingStats().build();
-    ServerBuilder builder = ServerBuilder.forPort(config.getGrpcPort()).
-        addService(new PrintingImpl(config, tracer)).addStreamTracerFactory(tracerFactory);
-    Server printingServer = builder.build();
-    System.out.println("Starting printing server");
-    printingServer.start();
-    System.out.println("Started printing server");
-    printingServer.awaitTermination();
+    builder.addService(new PrintingImpl(config, tracer)).addStreamTracerFactory(tracerFactory);
+    MetricRegistry metrics = new MetricRegistry();
+    // added first so that it runs within the concurrency limit.
+    FaultInjector faultInjector = new FaultInjector(config.getFaultInjection()).
+        registerMetrics("printing", metrics);
+    builder.intercept(new FaultInjectionInterceptor(faultInjector, tracer));
+    if (config.getConcurrencyLimit().isEnabled()) {
+      builder.intercept(new ConcurrencyLimitInterceptor(new AdaptiveConcurrencyLimiter(
+          config.getConcurrencyLimit()).registerMetrics("printing", metrics)));
+    }
+    WavefrontDropwizardReporter dropwizardReporter = new WavefrontDropwizardReporter.Builder(
+        metrics, applicationTags).withSource(source).reportingIntervalSeconds(30).
+        build(wavefrontSender);
+    dropwizardReporter.start();
+    ExecutorService executor = null;
+    if (config.isVirtualThreads()) {
+      executor = VirtualThreads.newThreadPerTaskExecutor("printing-");
+      builder.executor(executor);
+    }
+    ClosingServer server = new ClosingServer(builder.build()).
+        closing(faultInjector).
+        closing(dropwizardReporter::stop).
+        closing(grpcReporter::stop).
+        closing(wfJvmReporter::stop);
+    if (tracer != null) {
+      server.closing(tracer);
+    }
+    server.closing(wavefrontSender);
+    if (executor != null) {
+      server.closing(executor::shutdown);
+    }
+    return server;
   }
 
   public static void main(String[] args) throws Exception {
@@ -83,51 +135,103 @@ public class PrintingService {
   static class PrintingImpl extends PrintingGrpc.PrintingImplBase {
     private WavefrontTracer tracer;
     private final GrpcServiceConfig conf;
-    private final int globalErrorInterval;
-    private final Random rand = new Random(0L);
-    private final AtomicInteger print = new AtomicInteger(0);
-    private final AtomicInteger addcolor = new AtomicInteger(0);
-    private final AtomicInteger restock = new AtomicInteger(0);
+    private final LatencyModel processingLatency = LatencyDistribution.normal(100, 70,
+        new PerThreadRandom(0L));
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 1000;
 
     public PrintingImpl(GrpcServiceConfig grpcServiceConfig, WavefrontTracer tracer) {
       this.conf = grpcServiceConfig;
-      this.globalErrorInterval = grpcServiceConfig.getErrorInterval();
       this.tracer = tracer;
     }
 
     @Override
     public void printShirts(PrintRequest request, StreamObserver<Shirt> responseObserver) {
+      startPrinting();
+      // every shirt of a request is identical, so the message is built only once.
+      Shirt shirt = Shirt.newBuilder().setStyle(request.getStyleToPrint()).build();
+      streamWithFlowControl(responseObserver, request.getQuantity(), i -> shirt);
+    }
+
+    @Override
+    public void printShirtsBatched(PrintRequest request,
+                                   StreamObserver<PrintResponse> responseObserver) {
+      startPrinting();
+      int quantity = request.getQuantity();
+      int batchSize = request.getBatchSize() > 0 ?
+          Math.min(request.getBatchSize(), MAX_BATCH_SIZE) : DEFAULT_BATCH_SIZE;
+      Shirt shirt = Shirt.newBuilder().setStyle(request.getStyleToPrint()).build();
+      // all full batches share one message, only the last one may be smaller.
+      PrintResponse fullBatch = batchOf(shirt, Math.min(batchSize, quantity));
+      int batches = (quantity + batchSize - 1) / batchSize;
+      PrintResponse lastBatch = quantity % batchSize == 0 ? fullBatch :
+          batchOf(shirt, quantity % batchSize);
+      streamWithFlowControl(responseObserver, batches,
+          i -> i == batches - 1 ? lastBatch : fullBatch);
+    }
+
+    /**
+     * Simulates the printing latency shared by both print calls.
+     */
+    private void startPrinting() {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      if (BeachShirtsUtils.isErrorRequest(print, globalErrorInterval, 20)) {
-        // not enough ink to print shirts
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "not enough ink to print shirts");
-        responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
-        return;
-      }
-      for (int i = 0; i < request.getQuantity(); i++) {
-        responseObserver.onNext(Shirt.newBuilder().setStyle(request.getStyleToPrint()).build());
+    }
+
+    private static PrintResponse batchOf(Shirt shirt, int size) {
+      PrintResponse.Builder batch = PrintResponse.newBuilder();
+      for (int i = 0; i < size; i++) {
+        batch.addShirts(shirt);
       }
-      responseObserver.onCompleted();
+      return batch.build();
+    }
+
+    /**
+     * Sends {@code count} messages, only writing while the transport is ready and resuming from
+     * the on ready handler, so that large streams don't pile up in the outbound buffers of a slow
+     * client.
+     */
+    private static <T> void streamWithFlowControl(StreamObserver<T> responseObserver, int count,
+                                                  IntFunction<T> messages) {
+      ServerCallStreamObserver<T> call = (ServerCallStreamObserver<T>) responseObserver;
+      Runnable drain = new Runnable() {
+        private int sent = 0;
+        private boolean done = false;
+
+        @Override
+        public synchronized void run() {
+          if (done) {
+            return;
+          }
+          if (call.isCancelled()) {
+            done = true;
+            return;
+          }
+          while (sent < count && call.isReady()) {
+            call.onNext(messages.apply(sent++));
+          }
+          if (sent >= count) {
+            done = true;
+            call.onCompleted();
+          }
+        }
+      };
+      call.setOnCancelHandler(drain);
+      call.setOnReadyHandler(drain);
+      drain.run();
     }
 
     @Override
     public void addPrintColor(Color request,
                               StreamObserver<com.wfsample.beachshirts.Status> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      if (BeachShirtsUtils.isErrorRequest(addcolor, globalErrorInterval, 20)) {
-        // not enough ink to print shirts
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "unable to add color");
-        responseObserver.onError(Status.INTERNAL.asRuntimeException());
-        return;
-      }
       responseObserver.onNext(com.wfsample.beachshirts.Status.newBuilder().setStatus(true).build());
       responseObserver.onCompleted();
     }
@@ -136,16 +240,10 @@ public class PrintingService {
     public void restockColor(Color request,
                              StreamObserver<com.wfsample.beachshirts.Status> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      if (BeachShirtsUtils.isErrorRequest(restock, globalErrorInterval, 20)) {
-        // not enough ink to print shirts
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "unable to restock color");
-        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
-        return;
-      }
       responseObserver.onNext(com.wfsample.beachshirts.Status.newBuilder().setStatus(true).build());
       responseObserver.onCompleted();
     }
@@ -154,16 +252,10 @@ public class PrintingService {
     public void getAvailableColors(Void request,
                                    StreamObserver<AvailableColors> responseObserver) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
-      if (BeachShirtsUtils.isErrorRequest(restock, globalErrorInterval, 40)) {
-        // not enough ink to print shirts
-        TraceLoggerUtil.traceLog(logger, tracer, Level.WARN, "unable to get available colors");
-        responseObserver.onError(Status.CANCELLED.asRuntimeException());
-        return;
-      }
       responseObserver.onNext(AvailableColors.newBuilder().
           addColors(Color.newBuilder().setColor("rgb").build()).build());
       responseObserver.onCompleted();
@@ -3,6 +3,7 @@ package com.wfsample.printing;
 import com.wfsample.beachshirts.AvailableColors;
 import com.wfsample.beachshirts.Color;
 import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintResponse;
 import com.wfsample.beachshirts.PrintingGrpc;
 import com.wfsample.beachshirts.Shirt;
 import com.wfsample.beachshirts.ShirtStyle;
@@ -169,4 +170,44 @@ public class PrintingServiceTest {
         verify(responseObserver).onNext(any(AvailableColors.class));
         verify(responseObserver).onCompleted();
     }
+
+    @Test
+    public void testPrintingImplStreamsShirts() throws IOException {
+        PrintingGrpc.PrintingBlockingStub stub = printingImplStub();
+        List<Shirt> shirts = new ArrayList<>();
+        stub.printShirts(PrintRequest.newBuilder()
+                .setStyleToPrint(ShirtStyle.newBuilder().setName("testStyle").build())
+                .setQuantity(250)
+                .build()).forEachRemaining(shirts::add);
+
+        assertEquals(250, shirts.size());
+        assertEquals("testStyle", shirts.get(249).getStyle().getName());
+    }
+
+    @Test
+    public void testPrintingImplStreamsBatches() throws IOException {
+        PrintingGrpc.PrintingBlockingStub stub = printingImplStub();
+        List<PrintResponse> batches = new ArrayList<>();
+        stub.printShirtsBatched(PrintRequest.newBuilder()
+                .setStyleToPrint(ShirtStyle.newBuilder().setName("testStyle").build())
+                .setQuantity(45)
+                .setBatchSize(20)
+                .build()).forEachRemaining(batches::add);
+
+        assertEquals(3, batches.size());
+        assertEquals(20, batches.get(0).getShirtsCount());
+        assertEquals(20, batches.get(1).getShirtsCount());
+        assertEquals(5, batches.get(2).getShirtsCount());
+    }
+
+    private PrintingGrpc.PrintingBlockingStub printingImplStub() throws IOException {
+        String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder
+                .forName(name)
+                .addService(new PrintingService.PrintingImpl(new GrpcServiceConfig(), null))
+                .build()
+                .start());
+        return PrintingGrpc.newBlockingStub(
+                grpcCleanup.register(InProcessChannelBuilder.forName(name).build()));
+    }
 }
@@ -1,25 +1,47 @@
 package com.wfsample.shopping;
 
 import com.wavefront.sdk.dropwizard.reporter.WavefrontDropwizardReporter;
+import com.wavefront.sdk.jaxrs.client.WavefrontJaxrsClientFilter;
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
 import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.ConcurrencyLimitFilter;
 import com.wfsample.common.DropwizardServiceConfig;
+import com.wfsample.common.FaultInjectionFeature;
+import com.wfsample.common.FaultInjector;
+import com.wfsample.common.HedgingProxy;
+import com.wfsample.common.HttpClientPool;
+import com.wfsample.common.LatencyBudget;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
 import com.wfsample.common.dto.DeliveryStatusDTO;
 import com.wfsample.common.dto.OrderDTO;
 import com.wfsample.common.dto.OrderStatusDTO;
 import com.wfsample.common.dto.PackedShirtsDTO;
 import com.wfsample.service.DeliveryApi;
+import com.wfsample.service.DeliveryAsyncApi;
 import com.wfsample.service.StylingApi;
+import com.wfsample.service.StylingAsyncApi;
 
-import java.util.Random;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -27,8 +49,12 @@ import javax.ws.rs.core.Response;
 
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
+import io.dropwizard.lifecycle.AutoCloseableManager;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -44,9 +70,10 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class ShoppingService extends Application<DropwizardServiceConfig> {
   static Logger logger =  LogManager.getLogger(ShoppingService.class);
   private DropwizardServiceConfig configuration;
-  private final Random rand = new Random(0L);
+  private final LatencyModel processingLatency = LatencyDistribution.normal(100, 70,
+      new PerThreadRandom(0L));
 
-  private ShoppingService() {
+  public ShoppingService() {
   }
 
   public static void main(String[] args) throws Exception {
@@ -74,76 +101,124 @@ public class ShoppingService extends Application<DropwizardServiceConfig> {
         reportingIntervalSeconds(30).
         build(factory.getWavefrontSender());
     dropwizardReporter.start();
+    // one pool for both downstream services, bounded per route by the client config.
+    HttpClientPool httpClientPool = new HttpClientPool(configuration.getHttpClient()).
+        registerMetrics("shopping", environment.metrics());
+    environment.lifecycle().manage(new AutoCloseableManager(httpClientPool));
+    // only delays responses to simulate latency, the requests themselves wait on nothing.
+    ScheduledExecutorService latencyScheduler = environment.lifecycle().
+        scheduledExecutorService("shopping-latency-%d").threads(2).build();
+    // the order and menu calls are hedged and retried within the latency budget of their route.
+    Map<String, LatencyBudget> routes = configuration.getHttpClient().getRoutes();
+    ScheduledExecutorService hedgingScheduler = environment.lifecycle().
+        scheduledExecutorService("shopping-hedging-%d").threads(1).build();
+    WavefrontJaxrsClientFilter clientFilter = factory.getWavefrontJaxrsClientFilter();
     environment.jersey().register(factory.getWavefrontJerseyFilter());
+    if (configuration.getConcurrencyLimit().isEnabled()) {
+      environment.jersey().register(new ConcurrencyLimitFilter(new AdaptiveConcurrencyLimiter(
+          configuration.getConcurrencyLimit()).registerMetrics("shopping", environment.metrics())));
+    }
+    FaultInjector faultInjector = new FaultInjector(configuration.getFaultInjection()).
+        registerMetrics("shopping", environment.metrics());
+    environment.lifecycle().manage(new AutoCloseableManager(faultInjector));
+    environment.jersey().register(new FaultInjectionFeature(faultInjector, factory.getTracer()));
     environment.jersey().register(new ShoppingWebResource(
-        BeachShirtsUtils.createProxyClient(stylingUrl, StylingApi.class,
-            factory.getWavefrontJaxrsClientFilter()),
-        BeachShirtsUtils.createProxyClient(deliveryUrl, DeliveryApi.class,
-            factory.getWavefrontJaxrsClientFilter())));
+        BeachShirtsUtils.createProxyClient(stylingUrl, StylingApi.class, clientFilter,
+            httpClientPool),
+        BeachShirtsUtils.createProxyClient(deliveryUrl, DeliveryApi.class, clientFilter,
+            httpClientPool),
+        HedgingProxy.wrap(StylingAsyncApi.class, BeachShirtsUtils.createProxyClient(stylingUrl,
+            StylingAsyncApi.class, clientFilter, httpClientPool), routes, hedgingScheduler,
+            factory.getTracer()),
+        HedgingProxy.wrap(DeliveryAsyncApi.class, BeachShirtsUtils.createProxyClient(deliveryUrl,
+            DeliveryAsyncApi.class, clientFilter, httpClientPool), routes, hedgingScheduler,
+            factory.getTracer()),
+        latencyScheduler, factory.getTracer()));
   }
 
+  /**
+   * The menu and order endpoints are asynchronous: they suspend the request and resume it once
+   * the downstream calls complete, so the number of orders in flight isn't bounded by the Jetty
+   * thread pool.
+   */
   @Path("/shop")
   @Produces(MediaType.APPLICATION_JSON)
   public class ShoppingWebResource {
     private final StylingApi stylingApi;
     private final DeliveryApi deliveryApi;
+    private final StylingAsyncApi stylingAsyncApi;
+    private final DeliveryAsyncApi deliveryAsyncApi;
+    private final ScheduledExecutorService latencyScheduler;
+    // null when tracing isn't set up.
+    private final Tracer tracer;
     private final AtomicInteger updateInventory = new AtomicInteger(0);
 
-    public ShoppingWebResource(StylingApi stylingApi, DeliveryApi deliveryApi) {
+    public ShoppingWebResource(StylingApi stylingApi, DeliveryApi deliveryApi,
+                               StylingAsyncApi stylingAsyncApi, DeliveryAsyncApi deliveryAsyncApi,
+                               ScheduledExecutorService latencyScheduler, Tracer tracer) {
       this.stylingApi = stylingApi;
       this.deliveryApi = deliveryApi;
+      this.stylingAsyncApi = stylingAsyncApi;
+      this.deliveryAsyncApi = deliveryAsyncApi;
+      this.latencyScheduler = latencyScheduler;
+      this.tracer = tracer;
     }
 
     @GET
     @Path("/menu")
-    public Response getShoppingMenu(@Context HttpHeaders httpHeaders) {
-      try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
-      } catch (InterruptedException e) {
-        logger.warn(e.getMessage());
-      }
-      return Response.ok(stylingApi.getAllStyles()).build();
+    public void getShoppingMenu(@Context HttpHeaders httpHeaders,
+                                @Suspended AsyncResponse asyncResponse) {
+      Span span = activeSpan();
+      resume(asyncResponse, simulateLatency().
+          thenCompose(ignored -> inSpan(span, stylingAsyncApi::getAllStyles)).
+          thenApply(styles -> Response.ok(styles).build()));
     }
 
     @POST
     @Path("/order")
     @Consumes(APPLICATION_JSON)
-    public Response orderShirts(OrderDTO orderDTO, @Context HttpHeaders httpHeaders) {
-      try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
-      } catch (InterruptedException e) {
-        logger.warn(e.getMessage());
-      }
+    public void orderShirts(OrderDTO orderDTO, @Context HttpHeaders httpHeaders,
+                            @Suspended AsyncResponse asyncResponse) {
+      Span span = activeSpan();
       String orderNum = UUID.randomUUID().toString();
-      PackedShirtsDTO packedShirts = stylingApi.makeShirts(
-          orderDTO.getStyleName(), orderDTO.getQuantity());
-      Response deliveryResponse = deliveryApi.dispatch(orderNum, packedShirts);
-      DeliveryStatusDTO deliveryStatus = deliveryResponse.readEntity(DeliveryStatusDTO.class);
-      return Response.status(deliveryResponse.getStatus()).entity(new OrderStatusDTO(orderNum,
-          deliveryStatus.getStatus())).build();
+      resume(asyncResponse, simulateLatency().
+          thenCompose(ignored -> inSpan(span, () -> stylingAsyncApi.makeShirts(
+              orderDTO.getStyleName(), orderDTO.getQuantity()))).
+          thenCompose(packedShirts -> inSpan(span, () -> deliveryAsyncApi.dispatch(
+              orderNum, packedShirts))).
+          thenApply(deliveryResponse -> {
+            DeliveryStatusDTO deliveryStatus =
+                deliveryResponse.readEntity(DeliveryStatusDTO.class);
+            return Response.status(deliveryResponse.getStatus()).entity(new OrderStatusDTO(
+                orderNum, deliveryStatus.getStatus())).build();
+          }));
     }
 
     @GET
     @Path("/status/{orderNum}")
-    public Response getOrderStatus() {
+    public Response getOrderStatus(@PathParam("orderNum") String orderNum) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         logger.warn(e.getMessage());
       }
-      return deliveryApi.trackOrder("42");
+      return deliveryApi.trackOrder(orderNum);
     }
 
     @POST
     @Path("/cancel")
     @Consumes(APPLICATION_JSON)
-    public Response cancelShirtsOrder() {
+    public Response cancelShirtsOrder(OrderStatusDTO order) {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         logger.warn(e.getMessage());
       }
-      return deliveryApi.cancelOrder("42");
+      if (order == null || order.getOrderId() == null || order.getOrderId().isEmpty()) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(
+            new OrderStatusDTO(null, "orderId is required")).build();
+      }
+      return deliveryApi.cancelOrder(order.getOrderId());
     }
 
     @POST
@@ -151,7 +226,7 @@ public class ShoppingService extends Application<DropwizardServiceConfig> {
     @Consumes(APPLICATION_JSON)
     public Response updateInventory() {
       try {
-        Thread.sleep(getRequestLatency(100, 70, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
       } catch (InterruptedException e) {
         logger.warn(e.getMessage());
       }
@@ -161,5 +236,42 @@ public class ShoppingService extends Application<DropwizardServiceConfig> {
         return stylingApi.restockStyle("42");
       }
     }
+
+    /**
+     * Completes after the simulated processing latency without holding a thread meanwhile.
+     */
+    private CompletableFuture<Void> simulateLatency() {
+      CompletableFuture<Void> latency = new CompletableFuture<>();
+      latencyScheduler.schedule(() -> latency.complete(null),
+          getRequestLatency(processingLatency), TimeUnit.MILLISECONDS);
+      return latency;
+    }
+
+    private Span activeSpan() {
+      return tracer == null ? null : tracer.activeSpan();
+    }
+
+    /**
+     * Makes the call with the request's span active, so the downstream call joins its trace
+     * even when made from a callback thread.
+     */
+    private <T> CompletionStage<T> inSpan(Span span, Supplier<CompletionStage<T>> call) {
+      if (span == null) {
+        return call.get();
+      }
+      try (Scope scope = tracer.activateSpan(span)) {
+        return call.get();
+      }
+    }
+
+    private void resume(AsyncResponse asyncResponse, CompletionStage<Response> response) {
+      response.whenComplete((result, error) -> {
+        if (error != null) {
+          asyncResponse.resume(error instanceof CompletionException ? error.getCause() : error);
+        } else {
+          asyncResponse.resume(result);
+        }
+      });
+    }
   }
 }
@@ -1,5 +1,8 @@
 package com.wfsample.shopping;
 
+import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.HedgingProxy;
+import com.wfsample.common.LatencyBudget;
 import com.wfsample.common.dto.DeliveryStatusDTO;
 import com.wfsample.common.dto.OrderDTO;
 import com.wfsample.common.dto.OrderStatusDTO;
@@ -7,26 +10,39 @@ import com.wfsample.common.dto.PackedShirtsDTO;
 import com.wfsample.common.dto.ShirtDTO;
 import com.wfsample.common.dto.ShirtStyleDTO;
 import com.wfsample.service.DeliveryApi;
+import com.wfsample.service.DeliveryAsyncApi;
 import com.wfsample.service.StylingApi;
+import com.wfsample.service.StylingAsyncApi;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -43,76 +59,51 @@ public class ShoppingServiceTest {
     private DeliveryApi deliveryApi;
     
     @Mock
-    private HttpHeaders httpHeaders;
-    
-    private TestShoppingWebResource shoppingWebResource;
-
-    /**
-     * Test-specific implementation that mimics ShoppingWebResource behavior.
-     */
-    private class TestShoppingWebResource {
-        private final StylingApi stylingApi;
-        private final DeliveryApi deliveryApi;
-        private final java.util.concurrent.atomic.AtomicInteger updateInventory = new java.util.concurrent.atomic.AtomicInteger(0);
-
-        public TestShoppingWebResource(StylingApi stylingApi, DeliveryApi deliveryApi) {
-            this.stylingApi = stylingApi;
-            this.deliveryApi = deliveryApi;
-        }
+    private StylingAsyncApi stylingAsyncApi;
 
-        public Response getShoppingMenu(HttpHeaders httpHeaders) {
-            return Response.ok(stylingApi.getAllStyles()).build();
-        }
-
-        public Response orderShirts(OrderDTO orderDTO, HttpHeaders httpHeaders) {
-            String orderNum = UUID.randomUUID().toString();
-            PackedShirtsDTO packedShirts = stylingApi.makeShirts(
-                orderDTO.getStyleName(), orderDTO.getQuantity());
-            
-            Response deliveryResponse = deliveryApi.dispatch(orderNum, packedShirts);
-            
-            return Response.status(deliveryResponse.getStatus())
-                .entity(new OrderStatusDTO(orderNum, "scheduled"))
-                .build();
-        }
+    @Mock
+    private DeliveryAsyncApi deliveryAsyncApi;
 
-        public Response getOrderStatus() {
-            return deliveryApi.trackOrder("42");
-        }
+    @Mock
+    private HttpHeaders httpHeaders;
 
-        public Response cancelShirtsOrder() {
-            return deliveryApi.cancelOrder("42");
-        }
+    @Mock
+    private AsyncResponse asyncResponse;
+    
+    private ScheduledExecutorService latencyScheduler;
 
-        public Response updateInventory() {
-            if (updateInventory.incrementAndGet() % 3 == 0) {
-                return stylingApi.addStyle("21");
-            } else {
-                return stylingApi.restockStyle("42");
-            }
-        }
-    }
+    private ShoppingService.ShoppingWebResource shoppingWebResource;
 
     @Before
     public void setup() {
-        shoppingWebResource = new TestShoppingWebResource(stylingApi, deliveryApi);
+        // the simulated latency is still scheduled, just without a delay.
+        BeachShirtsUtils.setLatencyInjected(false);
+        latencyScheduler = Executors.newSingleThreadScheduledExecutor();
+        shoppingWebResource = new ShoppingService().new ShoppingWebResource(stylingApi,
+            deliveryApi, stylingAsyncApi, deliveryAsyncApi, latencyScheduler, null);
         
         List<ShirtStyleDTO> mockStyles = new ArrayList<>();
         mockStyles.add(new ShirtStyleDTO("style1", "url1"));
         mockStyles.add(new ShirtStyleDTO("style2", "url2"));
-        when(stylingApi.getAllStyles()).thenReturn(mockStyles);
+        when(stylingAsyncApi.getAllStyles()).thenReturn(
+            CompletableFuture.completedFuture(mockStyles));
         
         List<ShirtDTO> shirts = new ArrayList<>();
         for (int i = 0; i < 5; i++) {
             shirts.add(new ShirtDTO(new ShirtStyleDTO("style1", "url1")));
         }
         PackedShirtsDTO packedShirtsDTO = new PackedShirtsDTO(shirts);
-        when(stylingApi.makeShirts(anyString(), anyInt())).thenReturn(packedShirtsDTO);
+        when(stylingAsyncApi.makeShirts(anyString(), anyInt())).thenReturn(
+            CompletableFuture.completedFuture(packedShirtsDTO));
         
         DeliveryStatusDTO deliveryStatusDTO = new DeliveryStatusDTO();
         deliveryStatusDTO.setStatus("scheduled");
         deliveryStatusDTO.setTrackingNum("1");
-        when(deliveryApi.dispatch(anyString(), any(PackedShirtsDTO.class))).thenReturn(Response.ok(deliveryStatusDTO).build());
+        Response deliveryResponse = mock(Response.class);
+        when(deliveryResponse.getStatus()).thenReturn(200);
+        when(deliveryResponse.readEntity(DeliveryStatusDTO.class)).thenReturn(deliveryStatusDTO);
+        when(deliveryAsyncApi.dispatch(anyString(), any(PackedShirtsDTO.class))).thenReturn(
+            CompletableFuture.completedFuture(deliveryResponse));
         
         DeliveryStatusDTO trackingStatusDTO = new DeliveryStatusDTO();
         trackingStatusDTO.setStatus("delivered");
@@ -125,9 +116,16 @@ public class ShoppingServiceTest {
         when(stylingApi.addStyle(anyString())).thenReturn(Response.ok().build());
     }
 
+    @After
+    public void tearDown() {
+        latencyScheduler.shutdownNow();
+        BeachShirtsUtils.setLatencyInjected(true);
+    }
+
     @Test
     public void testGetShoppingMenu() {
-        Response response = shoppingWebResource.getShoppingMenu(httpHeaders);
+        shoppingWebResource.getShoppingMenu(httpHeaders, asyncResponse);
+        Response response = resumedWith();
         
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
         
@@ -138,7 +136,7 @@ public class ShoppingServiceTest {
         assertEquals("style1", styles.get(0).getName());
         assertEquals("url1", styles.get(0).getImageUrl());
         
-        verify(stylingApi).getAllStyles();
+        verify(stylingAsyncApi).getAllStyles();
     }
     
     @Test
@@ -147,7 +145,8 @@ public class ShoppingServiceTest {
         orderDTO.setStyleName("style1");
         orderDTO.setQuantity(5);
         
-        Response response = shoppingWebResource.orderShirts(orderDTO, httpHeaders);
+        shoppingWebResource.orderShirts(orderDTO, httpHeaders, asyncResponse);
+        Response response = resumedWith();
         
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
         
@@ -156,26 +155,64 @@ public class ShoppingServiceTest {
         assertEquals("scheduled", orderStatus.getStatus());
         assertNotNull(orderStatus.getOrderId());
         
-        verify(stylingApi).makeShirts(eq("style1"), eq(5));
-        verify(deliveryApi).dispatch(anyString(), any(PackedShirtsDTO.class));
+        verify(stylingAsyncApi).makeShirts(eq("style1"), eq(5));
+        verify(deliveryAsyncApi).dispatch(anyString(), any(PackedShirtsDTO.class));
     }
-    
+
+    @Test
+    public void testOrderShirtsFailure() {
+        IllegalStateException failure = new IllegalStateException("styling is down");
+        CompletableFuture<PackedShirtsDTO> failed = new CompletableFuture<>();
+        failed.completeExceptionally(failure);
+        when(stylingAsyncApi.makeShirts(anyString(), anyInt())).thenReturn(failed);
+        OrderDTO orderDTO = new OrderDTO();
+        orderDTO.setStyleName("style1");
+        orderDTO.setQuantity(5);
+
+        shoppingWebResource.orderShirts(orderDTO, httpHeaders, asyncResponse);
+
+        // resumed with the cause rather than the CompletionException wrapping it.
+        assertSame(failure, failedWith());
+        verify(deliveryAsyncApi, never()).dispatch(anyString(), any(PackedShirtsDTO.class));
+    }
+
+    @Test
+    public void testOrderShirtsBudgetTimeout() {
+        when(deliveryAsyncApi.dispatch(anyString(), any(PackedShirtsDTO.class))).thenReturn(
+            new CompletableFuture<>());
+        DeliveryAsyncApi budgeted = HedgingProxy.wrap(DeliveryAsyncApi.class, deliveryAsyncApi,
+            Collections.singletonMap("DeliveryAsyncApi", new LatencyBudget(50, 0, 1)),
+            latencyScheduler, null);
+        shoppingWebResource = new ShoppingService().new ShoppingWebResource(stylingApi,
+            deliveryApi, stylingAsyncApi, budgeted, latencyScheduler, null);
+        OrderDTO orderDTO = new OrderDTO();
+        orderDTO.setStyleName("style1");
+        orderDTO.setQuantity(5);
+
+        shoppingWebResource.orderShirts(orderDTO, httpHeaders, asyncResponse);
+
+        WebApplicationException timeout = (WebApplicationException) failedWith();
+        assertEquals(Response.Status.GATEWAY_TIMEOUT.getStatusCode(),
+            timeout.getResponse().getStatus());
+    }
+
     @Test
     public void testGetOrderStatus() {
-        Response response = shoppingWebResource.getOrderStatus();
+        Response response = shoppingWebResource.getOrderStatus("1234");
         
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
         
-        verify(deliveryApi).trackOrder(eq("42"));
+        verify(deliveryApi).trackOrder(eq("1234"));
     }
     
     @Test
     public void testCancelShirtsOrder() {
-        Response response = shoppingWebResource.cancelShirtsOrder();
+        Response response = shoppingWebResource.cancelShirtsOrder(
+            new OrderStatusDTO("1234", null));
         
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
         
-        verify(deliveryApi).cancelOrder(eq("42"));
+        verify(deliveryApi).cancelOrder(eq("1234"));
     }
     
     @Test
@@ -191,4 +228,22 @@ public class ShoppingServiceTest {
         assertEquals(Response.Status.OK.getStatusCode(), response3.getStatus());
         verify(stylingApi).addStyle(eq("21"));
     }
+
+    /**
+     * Waits for the request to be resumed, which happens on the latency scheduler's thread.
+     */
+    private Response resumedWith() {
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(asyncResponse, timeout(5000)).resume(response.capture());
+        return (Response) response.getValue();
+    }
+
+    /**
+     * Waits for the request to be resumed with an error.
+     */
+    private Throwable failedWith() {
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(asyncResponse, timeout(5000)).resume(error.capture());
+        return error.getValue();
+    }
 }
@@ -0,0 +1,516 @@
+package com.wfsample.styling;
+
+import com.google.common.net.HostAndPort;
+import com.wfsample.common.GrpcClientConfig;
+import com.wfsample.common.LatencyBudget;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+
+/**
+ * A channel spreading calls over several replicas of a service, with a few connections to each
+ * so a busy replica isn't limited by the concurrent streams of a single HTTP/2 connection. Calls
+ * are balanced round robin or to the least busy of two random connections, see
+ * {@link GrpcClientConfig.LoadBalancing}, skipping connections that are failing while others
+ * aren't. Connections are kept alive while calls are in flight and calls get a default deadline
+ * unless they set their own.
+ *
+ * Calls can be given a {@link LatencyBudget} per service or method. The budget becomes the
+ * deadline of the call. Calls that aren't hedged are retried through the retry policy of the
+ * gRPC service config. gRPC's own hedging policy would send every hedge down the same channel,
+ * which here means the same replica, so hedging is done by the pool instead: hedges go to other
+ * replicas whenever there are any, and the first attempt to answer wins while the others are
+ * cancelled. Only calls sending a single request message, unary and server streaming, are hedged.
+ */
+public class GrpcChannelPool extends Channel implements Closeable {
+  /**
+   * Prefix of the addresses of services running in the same JVM, followed by the name of their
+   * in-process server.
+   */
+  public static final String IN_PROCESS_PREFIX = "in-process:";
+
+  private static final class Backend {
+    final ManagedChannel channel;
+    // index of the address the channel connects to.
+    final int replica;
+    final AtomicInteger inFlight = new AtomicInteger(0);
+
+    Backend(ManagedChannel channel, int replica) {
+      this.channel = channel;
+      this.replica = replica;
+    }
+
+    boolean isFailing() {
+      return channel.getState(false) == ConnectivityState.TRANSIENT_FAILURE;
+    }
+  }
+
+  // ordered so consecutive round robin picks go to different replicas.
+  private final List<Backend> backends = new ArrayList<>();
+  private final GrpcClientConfig.LoadBalancing loadBalancing;
+  private final long defaultDeadlineMillis;
+  private final Map<String, LatencyBudget> routes;
+  // null when no call is hedged.
+  private final ScheduledExecutorService hedgingScheduler;
+  private final AtomicInteger next = new AtomicInteger(0);
+
+  /**
+   * @param addresses host:port of each replica of the service, or in-process:name.
+   */
+  public GrpcChannelPool(List<String> addresses, GrpcClientConfig config,
+                         ClientInterceptor... interceptors) {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("at least one address is required");
+    }
+    this.loadBalancing = config.getLoadBalancing();
+    this.defaultDeadlineMillis = config.getDefaultDeadlineMillis();
+    this.routes = config.getRoutes();
+    Map<String, ?> serviceConfig = serviceConfig(routes);
+    for (int i = 0; i < Math.max(1, config.getChannelsPerBackend()); i++) {
+      for (int replica = 0; replica < addresses.size(); replica++) {
+        String address = addresses.get(replica).trim();
+        ManagedChannelBuilder<?> builder;
+        if (address.startsWith(IN_PROCESS_PREFIX)) {
+          builder = InProcessChannelBuilder.forName(address.substring(IN_PROCESS_PREFIX.length()));
+        } else {
+          HostAndPort hostAndPort = HostAndPort.fromString(address);
+          builder = ManagedChannelBuilder.forAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        }
+        builder.intercept(interceptors).
+            keepAliveTime(config.getKeepAliveSeconds(), TimeUnit.SECONDS).
+            keepAliveTimeout(config.getKeepAliveTimeoutSeconds(), TimeUnit.SECONDS).
+            idleTimeout(config.getIdleTimeoutSeconds(), TimeUnit.SECONDS).
+            usePlaintext();
+        if (serviceConfig != null) {
+          builder.defaultServiceConfig(serviceConfig).enableRetry();
+        }
+        backends.add(new Backend(builder.build(), replica));
+      }
+    }
+    boolean hedging = false;
+    for (LatencyBudget budget : routes.values()) {
+      hedging |= budget.isHedged();
+    }
+    this.hedgingScheduler = hedging ? Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "grpc-hedging");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * @param addresses host:port of each replica, when empty the service is at host and port.
+   */
+  public static List<String> addresses(List<String> addresses, String host, int port) {
+    if (addresses == null || addresses.isEmpty()) {
+      List<String> single = new ArrayList<>();
+      single.add(HostAndPort.fromParts(host, port).toString());
+      return single;
+    }
+    return addresses;
+  }
+
+  /**
+   * Service config with a retry policy for every route that is retried but not hedged.
+   *
+   * @return the service config or null if no route is retried.
+   */
+  static Map<String, ?> serviceConfig(Map<String, LatencyBudget> routes) {
+    List<Map<String, ?>> methodConfigs = new ArrayList<>();
+    for (Map.Entry<String, LatencyBudget> route : routes.entrySet()) {
+      LatencyBudget budget = route.getValue();
+      if (budget.isHedged() || budget.getMaxAttempts() <= 1) {
+        continue;
+      }
+      Map<String, Object> name = new HashMap<>();
+      int slash = route.getKey().indexOf('/');
+      if (slash < 0) {
+        name.put("service", route.getKey());
+      } else {
+        name.put("service", route.getKey().substring(0, slash));
+        name.put("method", route.getKey().substring(slash + 1));
+      }
+      // numbers are doubles as they would be when parsed from JSON.
+      Map<String, Object> retryPolicy = new HashMap<>();
+      retryPolicy.put("maxAttempts", (double) budget.getMaxAttempts());
+      retryPolicy.put("initialBackoff", "0.05s");
+      retryPolicy.put("maxBackoff", "1s");
+      retryPolicy.put("backoffMultiplier", 2.0);
+      retryPolicy.put("retryableStatusCodes", budget.getRetryableStatusCodes());
+      Map<String, Object> methodConfig = new HashMap<>();
+      methodConfig.put("name", Collections.singletonList(name));
+      methodConfig.put("retryPolicy", retryPolicy);
+      methodConfigs.add(methodConfig);
+    }
+    if (methodConfigs.isEmpty()) {
+      return null;
+    }
+    // retries stop while more than half of the recent calls failed, so they can't pile onto an
+    // overloaded service.
+    Map<String, Object> retryThrottling = new HashMap<>();
+    retryThrottling.put("maxTokens", 10.0);
+    retryThrottling.put("tokenRatio", 0.1);
+    Map<String, Object> serviceConfig = new HashMap<>();
+    serviceConfig.put("methodConfig", methodConfigs);
+    serviceConfig.put("retryThrottling", retryThrottling);
+    return serviceConfig;
+  }
+
+  /**
+   * Deadline given to calls of the method that don't set their own, its budget or the default
+   * deadline, 0 if they get none.
+   */
+  long deadlineMillis(MethodDescriptor<?, ?> method) {
+    LatencyBudget budget = LatencyBudget.forRoute(routes, method.getServiceName(),
+        method.getFullMethodName());
+    return budget != null && budget.getBudgetMillis() > 0 ? budget.getBudgetMillis() :
+        defaultDeadlineMillis;
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                                                       CallOptions callOptions) {
+    LatencyBudget budget = LatencyBudget.forRoute(routes, method.getServiceName(),
+        method.getFullMethodName());
+    long deadlineMillis = deadlineMillis(method);
+    if (callOptions.getDeadline() == null && deadlineMillis > 0) {
+      callOptions = callOptions.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+    if (budget != null && budget.isHedged() && method.getType().clientSendsOneMessage()) {
+      return new HedgedCall<>(method, callOptions, budget);
+    }
+    return newCall(pick(Collections.emptySet()), method, callOptions);
+  }
+
+  private <ReqT, RespT> ClientCall<ReqT, RespT> newCall(Backend backend,
+                                                        MethodDescriptor<ReqT, RespT> method,
+                                                        CallOptions callOptions) {
+    return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+        backend.channel.newCall(method, callOptions)) {
+      @Override
+      public void start(Listener<RespT> responseListener, Metadata headers) {
+        backend.inFlight.incrementAndGet();
+        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+            responseListener) {
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            backend.inFlight.decrementAndGet();
+            super.onClose(status, trailers);
+          }
+        }, headers);
+      }
+    };
+  }
+
+  @Override
+  public String authority() {
+    return backends.get(0).channel.authority();
+  }
+
+  /**
+   * Number of calls in flight over all connections.
+   */
+  public int inFlight() {
+    int inFlight = 0;
+    for (Backend backend : backends) {
+      inFlight += backend.inFlight.get();
+    }
+    return inFlight;
+  }
+
+  @Override
+  public void close() {
+    if (hedgingScheduler != null) {
+      hedgingScheduler.shutdownNow();
+    }
+    for (Backend backend : backends) {
+      backend.channel.shutdown();
+    }
+    for (Backend backend : backends) {
+      try {
+        if (!backend.channel.awaitTermination(5, TimeUnit.SECONDS)) {
+          backend.channel.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        backend.channel.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @param excludedReplicas replicas to avoid unless there are no others.
+   */
+  private Backend pick(Collection<Integer> excludedReplicas) {
+    List<Backend> candidates = backends;
+    if (!excludedReplicas.isEmpty()) {
+      candidates = new ArrayList<>();
+      for (Backend backend : backends) {
+        if (!excludedReplicas.contains(backend.replica)) {
+          candidates.add(backend);
+        }
+      }
+      if (candidates.isEmpty()) {
+        candidates = backends;
+      }
+    }
+    int size = candidates.size();
+    if (size == 1) {
+      return candidates.get(0);
+    }
+    if (loadBalancing == GrpcClientConfig.LoadBalancing.LEAST_REQUEST) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int first = random.nextInt(size);
+      int second = (first + 1 + random.nextInt(size - 1)) % size;
+      Backend a = candidates.get(first);
+      Backend b = candidates.get(second);
+      // a failing connection fails calls fast and would otherwise look the least busy.
+      if (a.isFailing() != b.isFailing()) {
+        return a.isFailing() ? b : a;
+      }
+      return a.inFlight.get() <= b.inFlight.get() ? a : b;
+    }
+    int start = Math.floorMod(next.getAndIncrement(), size);
+    for (int i = 0; i < size; i++) {
+      Backend backend = candidates.get((start + i) % size);
+      if (!backend.isFailing()) {
+        return backend;
+      }
+    }
+    return candidates.get(start);
+  }
+
+  /**
+   * A call made of up to {@link LatencyBudget#getMaxAttempts()} attempts, each started when the
+   * ones before haven't answered within the hedging delay or have failed with a retryable status.
+   * The first attempt to receive headers or a message, or to fail with a status that isn't
+   * retryable, is committed to and all others are cancelled. Until then the request is kept so it
+   * can be replayed to new attempts.
+   */
+  private final class HedgedCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final CallOptions callOptions;
+    private final LatencyBudget budget;
+    private final Set<Status.Code> retryableCodes = EnumSet.noneOf(Status.Code.class);
+    private final List<Attempt> attempts = new ArrayList<>();
+    private final Set<Integer> triedReplicas = new HashSet<>();
+    private Listener<RespT> listener;
+    private Metadata headers;
+    private ReqT message;
+    private int requested = 0;
+    private boolean halfClosed = false;
+    private Attempt committed;
+    private ScheduledFuture<?> hedgeTimer;
+
+    HedgedCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions,
+               LatencyBudget budget) {
+      this.method = method;
+      this.callOptions = callOptions;
+      this.budget = budget;
+      for (String code : budget.getRetryableStatusCodes()) {
+        retryableCodes.add(Status.Code.valueOf(code.trim().toUpperCase()));
+      }
+    }
+
+    @Override
+    public synchronized void start(Listener<RespT> listener, Metadata headers) {
+      this.listener = listener;
+      this.headers = headers;
+      startAttempt();
+    }
+
+    @Override
+    public synchronized void request(int numMessages) {
+      requested += numMessages;
+      for (Attempt attempt : live()) {
+        attempt.call.request(numMessages);
+      }
+    }
+
+    @Override
+    public synchronized void cancel(String message, Throwable cause) {
+      if (committed == null) {
+        for (Attempt attempt : attempts) {
+          if (attempt.running) {
+            // the listener hears about the cancellation through the committed attempt.
+            commit(attempt);
+            break;
+          }
+        }
+      }
+      if (committed != null) {
+        committed.call.cancel(message, cause);
+      }
+    }
+
+    @Override
+    public synchronized void halfClose() {
+      halfClosed = true;
+      for (Attempt attempt : live()) {
+        attempt.call.halfClose();
+      }
+    }
+
+    @Override
+    public synchronized void sendMessage(ReqT message) {
+      this.message = message;
+      for (Attempt attempt : live()) {
+        attempt.call.sendMessage(message);
+      }
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+      for (Attempt attempt : live()) {
+        if (attempt.call.isReady()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private List<Attempt> live() {
+      return committed != null ? Collections.singletonList(committed) : attempts;
+    }
+
+    private void startAttempt() {
+      Backend backend = pick(triedReplicas);
+      triedReplicas.add(backend.replica);
+      Attempt attempt = new Attempt(newCall(backend, method, callOptions));
+      attempts.add(attempt);
+      Metadata attemptHeaders = new Metadata();
+      attemptHeaders.merge(headers);
+      attempt.call.start(attempt, attemptHeaders);
+      if (requested > 0) {
+        attempt.call.request(requested);
+      }
+      if (message != null) {
+        attempt.call.sendMessage(message);
+      }
+      if (halfClosed) {
+        attempt.call.halfClose();
+      }
+      if (attempts.size() < budget.getMaxAttempts()) {
+        hedgeTimer = hedgingScheduler.schedule(this::hedge, budget.getHedgeAfterMillis(),
+            TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void hedge() {
+      if (committed == null && attempts.size() < budget.getMaxAttempts()) {
+        startAttempt();
+      }
+    }
+
+    /**
+     * @return whether the attempt is the one committed to.
+     */
+    private boolean commit(Attempt attempt) {
+      if (committed == null) {
+        committed = attempt;
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+        }
+        for (Attempt other : attempts) {
+          if (other != attempt && other.running) {
+            other.call.cancel("another attempt answered first", null);
+          }
+        }
+      }
+      return committed == attempt;
+    }
+
+    /**
+     * A single attempt, its responses only reach the listener once it is committed to.
+     */
+    private final class Attempt extends Listener<RespT> {
+      final ClientCall<ReqT, RespT> call;
+      boolean running = true;
+
+      Attempt(ClientCall<ReqT, RespT> call) {
+        this.call = call;
+      }
+
+      @Override
+      public void onHeaders(Metadata headers) {
+        synchronized (HedgedCall.this) {
+          if (commit(this)) {
+            listener.onHeaders(headers);
+          }
+        }
+      }
+
+      @Override
+      public void onMessage(RespT message) {
+        synchronized (HedgedCall.this) {
+          if (commit(this)) {
+            listener.onMessage(message);
+          }
+        }
+      }
+
+      @Override
+      public void onReady() {
+        synchronized (HedgedCall.this) {
+          if (committed == null || committed == this) {
+            listener.onReady();
+          }
+        }
+      }
+
+      @Override
+      public void onClose(Status status, Metadata trailers) {
+        synchronized (HedgedCall.this) {
+          running = false;
+          if (committed == null && retryableCodes.contains(status.getCode())) {
+            for (Attempt attempt : attempts) {
+              if (attempt.running) {
+                // another attempt may still succeed.
+                return;
+              }
+            }
+            if (attempts.size() < budget.getMaxAttempts() &&
+                (callOptions.getDeadline() == null || !callOptions.getDeadline().isExpired())) {
+              if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+              }
+              startAttempt();
+              return;
+            }
+          }
+          if (commit(this)) {
+            listener.onClose(status, trailers);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.wfsample.styling;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintResponse;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Shirt;
+import com.wfsample.beachshirts.ShirtStyle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Coalesces concurrent print requests for the same style into a single printShirtsBatched call, so
+ * a burst of orders pays the set up cost of printing once rather than once per order. A batch is
+ * sent when the first request in it has waited for the batching window or once it holds the
+ * maximum number of shirts, whichever comes first, and the printed shirts are then handed out to
+ * each request in turn. A failed call fails every request in the batch.
+ *
+ * The number of requests per batch and the time each request waited for its batch to be sent are
+ * reported to the {@link MetricRegistry} as the styling.print.batch.size and
+ * styling.print.batch.waitMillis histograms.
+ */
+class PrintBatcher {
+  private final PrintingGrpc.PrintingStub printing;
+  private final long windowMillis;
+  private final int maxShirts;
+  private final ScheduledExecutorService scheduler;
+  private final Histogram batchSize;
+  private final Histogram waitMillis;
+  // batches still accepting requests, guarded by this.
+  private final Map<ShirtStyle, Batch> pending = new HashMap<>();
+
+  /**
+   * @param windowMillis how long the first request of a batch waits for others to join it.
+   * @param maxShirts number of shirts after which a batch is sent right away.
+   * @param scheduler runs the batches whose window has elapsed.
+   */
+  PrintBatcher(PrintingGrpc.PrintingStub printing, long windowMillis, int maxShirts,
+               ScheduledExecutorService scheduler, MetricRegistry metrics) {
+    this.printing = printing;
+    this.windowMillis = windowMillis;
+    this.maxShirts = maxShirts;
+    this.scheduler = scheduler;
+    this.batchSize = metrics.histogram("styling.print.batch.size");
+    this.waitMillis = metrics.histogram("styling.print.batch.waitMillis");
+  }
+
+  /**
+   * Prints the requested shirts as part of the next batch for their style.
+   *
+   * @return future completed with exactly the requested quantity of shirts, or failed if the
+   * batched print call fails.
+   */
+  ListenableFuture<List<Shirt>> print(PrintRequest request) {
+    if (request.getQuantity() <= 0) {
+      return Futures.immediateFuture(Collections.emptyList());
+    }
+    ShirtStyle style = request.getStyleToPrint();
+    Waiter waiter = new Waiter(request.getQuantity());
+    Batch full = null;
+    Batch overflowed = null;
+    synchronized (this) {
+      Batch batch = pending.get(style);
+      if (batch != null && batch.shirts + waiter.quantity > maxShirts) {
+        // sent as is so that the new request doesn't push the batch beyond its limit.
+        pending.remove(style);
+        overflowed = batch;
+        batch = null;
+      }
+      if (batch == null) {
+        batch = new Batch(style);
+        pending.put(style, batch);
+        Batch scheduled = batch;
+        batch.timer = scheduler.schedule(() -> flush(scheduled), windowMillis,
+            TimeUnit.MILLISECONDS);
+      }
+      batch.waiters.add(waiter);
+      batch.shirts += waiter.quantity;
+      if (batch.shirts >= maxShirts) {
+        pending.remove(style);
+        full = batch;
+      }
+    }
+    if (overflowed != null) {
+      send(overflowed);
+    }
+    if (full != null) {
+      send(full);
+    }
+    return waiter.shirts;
+  }
+
+  private void flush(Batch batch) {
+    synchronized (this) {
+      // the batch may have been sent already for being full.
+      if (!pending.remove(batch.style, batch)) {
+        return;
+      }
+    }
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    batch.timer.cancel(false);
+    long now = System.nanoTime();
+    batchSize.update(batch.waiters.size());
+    for (Waiter waiter : batch.waiters) {
+      waitMillis.update(TimeUnit.NANOSECONDS.toMillis(now - waiter.enqueuedNanos));
+    }
+    PrintRequest request = PrintRequest.newBuilder().setStyleToPrint(batch.style).
+        setQuantity(batch.shirts).build();
+    printing.printShirtsBatched(request, new StreamObserver<PrintResponse>() {
+      private final List<Shirt> printed = new ArrayList<>(batch.shirts);
+
+      @Override
+      public void onNext(PrintResponse response) {
+        printed.addAll(response.getShirtsList());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        for (Waiter waiter : batch.waiters) {
+          waiter.shirts.setException(t);
+        }
+      }
+
+      @Override
+      public void onCompleted() {
+        int from = 0;
+        for (Waiter waiter : batch.waiters) {
+          int to = from + waiter.quantity;
+          if (to > printed.size()) {
+            waiter.shirts.setException(new IllegalStateException("printed " + printed.size() +
+                " shirts for a batch of " + batch.shirts));
+          } else {
+            waiter.shirts.set(Collections.unmodifiableList(printed.subList(from, to)));
+          }
+          from = to;
+        }
+      }
+    });
+  }
+
+  /**
+   * Print requests of a single style gathered into one call.
+   */
+  private static class Batch {
+    final ShirtStyle style;
+    final List<Waiter> waiters = new ArrayList<>();
+    int shirts = 0;
+    ScheduledFuture<?> timer;
+
+    Batch(ShirtStyle style) {
+      this.style = style;
+    }
+  }
+
+  /**
+   * A single request waiting for its share of a batch.
+   */
+  private static class Waiter {
+    final int quantity;
+    final long enqueuedNanos = System.nanoTime();
+    final SettableFuture<List<Shirt>> shirts = SettableFuture.create();
+
+    Waiter(int quantity) {
+      this.quantity = quantity;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.wfsample.styling;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.wfsample.beachshirts.GiftPack;
+import com.wfsample.beachshirts.PackagingGrpc;
+import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Shirt;
+import com.wfsample.beachshirts.WrapRequest;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+/**
+ * Pipes the shirts streamed back by printing into a client stream to packaging, a chunk at a time,
+ * so packaging starts on the first shirts while the rest are still being printed. More shirts are
+ * only requested from printing once packaging is ready to take them, which bounds what an order
+ * holds in memory to about one chunk regardless of its quantity.
+ */
+class ShirtPipeline {
+  private final PrintingGrpc.PrintingStub printing;
+  private final PackagingGrpc.PackagingStub packaging;
+  private final int chunkSize;
+
+  ShirtPipeline(PrintingGrpc.PrintingStub printing, PackagingGrpc.PackagingStub packaging,
+                int chunkSize) {
+    this.printing = printing;
+    this.packaging = packaging;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Prints the requested shirts and packs them as they arrive.
+   *
+   * @param giftWrap whether to gift wrap the shirts instead of plain wrapping.
+   * @return future completed with the number of shirts packed, or failed if either printing or
+   * packaging fails, in which case the other call is cancelled.
+   */
+  ListenableFuture<Integer> printAndPack(PrintRequest request, boolean giftWrap) {
+    Transfer transfer = new Transfer();
+    // packaging is called first so it is ready to receive by the time the first shirt arrives.
+    if (giftWrap) {
+      packaging.giftWrapStream(new PackagingObserver<GiftPack>(transfer));
+    } else {
+      packaging.wrapShirtsStream(new PackagingObserver<PackedShirts>(transfer));
+    }
+    printing.printShirts(request, transfer);
+    return transfer.done;
+  }
+
+  /**
+   * Moves shirts for a single order from printing to packaging.
+   */
+  private class Transfer implements ClientResponseObserver<PrintRequest, Shirt> {
+    private final SettableFuture<Integer> done = SettableFuture.create();
+    private final WrapRequest.Builder chunk = WrapRequest.newBuilder();
+    private ClientCallStreamObserver<PrintRequest> printStream;
+    private ClientCallStreamObserver<WrapRequest> packStream;
+    private int sent = 0;
+    private boolean awaitingReady = false;
+
+    @Override
+    public synchronized void beforeStart(ClientCallStreamObserver<PrintRequest> printStream) {
+      this.printStream = printStream;
+      printStream.disableAutoRequestWithInitial(chunkSize);
+    }
+
+    @Override
+    public synchronized void onNext(Shirt shirt) {
+      if (done.isDone()) {
+        return;
+      }
+      chunk.addShirts(shirt);
+      if (chunk.getShirtsCount() >= chunkSize) {
+        sendChunk();
+        if (packStream.isReady()) {
+          printStream.request(chunkSize);
+        } else {
+          awaitingReady = true;
+        }
+      }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+      if (done.setException(t)) {
+        packStream.cancel("printing failed", t);
+      }
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+      if (done.isDone()) {
+        return;
+      }
+      if (chunk.getShirtsCount() > 0) {
+        sendChunk();
+      }
+      packStream.onCompleted();
+    }
+
+    synchronized void onPackagingReady() {
+      if (awaitingReady && packStream.isReady()) {
+        awaitingReady = false;
+        printStream.request(chunkSize);
+      }
+    }
+
+    synchronized void onPackagingFailed(Throwable t) {
+      if (done.setException(t) && printStream != null) {
+        printStream.cancel("packaging failed", t);
+      }
+    }
+
+    synchronized void onPacked() {
+      done.set(sent);
+    }
+
+    private void sendChunk() {
+      sent += chunk.getShirtsCount();
+      packStream.onNext(chunk.build());
+      chunk.clear();
+    }
+  }
+
+  /**
+   * Observes the packaging response and signals back to the transfer when packaging can take more
+   * shirts.
+   */
+  private static class PackagingObserver<RespT> implements
+      ClientResponseObserver<WrapRequest, RespT> {
+    private final Transfer transfer;
+
+    PackagingObserver(Transfer transfer) {
+      this.transfer = transfer;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<WrapRequest> packStream) {
+      synchronized (transfer) {
+        transfer.packStream = packStream;
+      }
+      packStream.setOnReadyHandler(transfer::onPackagingReady);
+    }
+
+    @Override
+    public void onNext(RespT value) {
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      transfer.onPackagingFailed(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      transfer.onPacked();
+    }
+  }
+}
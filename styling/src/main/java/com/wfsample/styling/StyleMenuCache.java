@@ -0,0 +1,116 @@
+package com.wfsample.styling;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.WrappingTypes;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the colors and packing types backing the shopping menu, which only change when styles are
+ * added or restocked. Entries are refreshed in the background once they are older than the
+ * refresh interval while the stale entry keeps being served, and are dropped after the ttl so a
+ * failing refresh can't serve stale data forever. A refresh interval of 0 or less disables the
+ * background refresh, the menu is then loaded again by the first request after the ttl. Hits,
+ * misses and refreshes are reported to the {@link MetricRegistry}.
+ */
+class StyleMenuCache {
+  private static final String KEY = "menu";
+
+  private final LoadingCache<String, Menu> cache;
+  private final Counter refreshes;
+  private final Counter refreshFailures;
+
+  StyleMenuCache(Callable<Menu> loader, long ttlSeconds, long refreshSeconds,
+                 Executor refreshExecutor, MetricRegistry metrics) {
+    this(loader, ttlSeconds, refreshSeconds, refreshExecutor, metrics, Ticker.systemTicker());
+  }
+
+  StyleMenuCache(Callable<Menu> loader, long ttlSeconds, long refreshSeconds,
+                 Executor refreshExecutor, MetricRegistry metrics, Ticker ticker) {
+    if (refreshSeconds >= ttlSeconds) {
+      throw new IllegalArgumentException("menu cache refresh interval of " + refreshSeconds +
+          "s must be shorter than its ttl of " + ttlSeconds + "s, or 0 to disable refreshing");
+    }
+    this.refreshes = metrics.counter("styling.menu.cache.refreshes");
+    this.refreshFailures = metrics.counter("styling.menu.cache.refreshFailures");
+    CacheLoader<String, Menu> cacheLoader = CacheLoader.asyncReloading(new CacheLoader<String,
+        Menu>() {
+      @Override
+      public Menu load(String key) throws Exception {
+        return loader.call();
+      }
+
+      @Override
+      public ListenableFuture<Menu> reload(String key, Menu oldValue) throws Exception {
+        refreshes.inc();
+        try {
+          return super.reload(key, oldValue);
+        } catch (Exception e) {
+          refreshFailures.inc();
+          throw e;
+        }
+      }
+    }, refreshExecutor);
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().
+        expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).
+        ticker(ticker).
+        recordStats();
+    if (refreshSeconds > 0) {
+      builder.refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS);
+    }
+    this.cache = builder.build(cacheLoader);
+    metrics.register("styling.menu.cache.hits", (Gauge<Long>) () -> cache.stats().hitCount());
+    metrics.register("styling.menu.cache.misses", (Gauge<Long>) () -> cache.stats().missCount());
+  }
+
+  /**
+   * Returns the cached menu, loading it on the calling thread if there is none.
+   */
+  Menu get() throws Exception {
+    try {
+      return cache.get(KEY);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Drops the cached menu so the next request sees the latest colors and packing types.
+   */
+  void invalidate() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * The downstream data the shopping menu is built from.
+   */
+  static final class Menu {
+    private final AvailableColors colors;
+    private final WrappingTypes packingTypes;
+
+    Menu(AvailableColors colors, WrappingTypes packingTypes) {
+      this.colors = colors;
+      this.packingTypes = packingTypes;
+    }
+
+    AvailableColors getColors() {
+      return colors;
+    }
+
+    WrappingTypes getPackingTypes() {
+      return packingTypes;
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package com.wfsample.styling;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.wavefront.sdk.dropwizard.reporter.WavefrontDropwizardReporter;
 import com.wavefront.sdk.grpc.WavefrontClientInterceptor;
 import com.wavefront.sdk.grpc.reporter.WavefrontGrpcReporter;
 import com.wavefront.sdk.jersey.WavefrontJerseyFactory;
+import com.wfsample.beachshirts.AvailableColors;
 import com.wfsample.beachshirts.Color;
 import com.wfsample.beachshirts.PackagingGrpc;
 import com.wfsample.beachshirts.PrintRequest;
@@ -13,7 +16,15 @@ import com.wfsample.beachshirts.ShirtStyle;
 import com.wfsample.beachshirts.Void;
 import com.wfsample.beachshirts.WrapRequest;
 import com.wfsample.beachshirts.WrappingType;
+import com.wfsample.beachshirts.WrappingTypes;
+import com.wfsample.common.AdaptiveConcurrencyLimiter;
+import com.wfsample.common.ConcurrencyLimitFilter;
 import com.wfsample.common.DropwizardServiceConfig;
+import com.wfsample.common.FaultInjectionFeature;
+import com.wfsample.common.FaultInjector;
+import com.wfsample.common.LatencyDistribution;
+import com.wfsample.common.LatencyModel;
+import com.wfsample.common.PerThreadRandom;
 import com.wfsample.common.dto.PackedShirtsDTO;
 import com.wfsample.common.dto.ShirtDTO;
 import com.wfsample.common.dto.ShirtStyleDTO;
@@ -22,14 +33,18 @@ import com.wfsample.service.StylingApi;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.ws.rs.core.Response;
 
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.AutoCloseableManager;
 import io.dropwizard.setup.Environment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.ClientInterceptor;
+import io.grpc.Status;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -45,7 +60,15 @@ public class StylingService extends Application<DropwizardServiceConfig> {
   static Logger logger = LogManager.getLogger(StylingService.class);
   private DropwizardServiceConfig configuration;
 
-  private StylingService() {
+  public StylingService() {
+  }
+
+  /**
+   * Creates the service with its configuration already set, for building resources outside of
+   * {@link #run}.
+   */
+  StylingService(DropwizardServiceConfig configuration) {
+    this.configuration = configuration;
   }
 
   public static void main(String[] args) throws Exception {
@@ -74,17 +97,36 @@ public class StylingService extends Application<DropwizardServiceConfig> {
         new WavefrontClientInterceptor.Builder(grpcReporter, factory.getApplicationTags()).
             withTracer(factory.getTracer()).recordStreamingStats().build();
     environment.jersey().register(factory.getWavefrontJerseyFilter());
-    environment.jersey().register(new StylingWebResource(interceptor));
+    if (configuration.getConcurrencyLimit().isEnabled()) {
+      environment.jersey().register(new ConcurrencyLimitFilter(new AdaptiveConcurrencyLimiter(
+          configuration.getConcurrencyLimit()).registerMetrics("styling", environment.metrics())));
+    }
+    FaultInjector faultInjector = new FaultInjector(configuration.getFaultInjection()).
+        registerMetrics("styling", environment.metrics());
+    environment.lifecycle().manage(new AutoCloseableManager(faultInjector));
+    environment.jersey().register(new FaultInjectionFeature(faultInjector, factory.getTracer()));
+    environment.jersey().register(new StylingWebResource(interceptor, environment));
   }
 
   public class StylingWebResource implements StylingApi {
     private final PrintingGrpc.PrintingBlockingStub printing;
     private final PackagingGrpc.PackagingBlockingStub packaging;
+    private final PrintingGrpc.PrintingFutureStub printingFuture;
+    private final PackagingGrpc.PackagingFutureStub packagingFuture;
+    // null when menu caching is disabled.
+    private final StyleMenuCache menuCache;
+    // null when shirts are not streamed from printing into packaging.
+    private final ShirtPipeline shirtPipeline;
+    // null when print requests are not batched.
+    private final PrintBatcher printBatcher;
+    // how long an order waits for its shirts, 0 for as long as they take.
+    private final long shirtsBudgetMillis;
     // sample set of static styles.
     private List<ShirtStyleDTO> shirtStyleDTOS = new ArrayList<>();
-    private final Random rand = new Random(0L);
+    private final LatencyModel processingLatency = LatencyDistribution.normal(20, 10,
+        new PerThreadRandom(0L));
 
-    public StylingWebResource(WavefrontClientInterceptor clientInterceptor) {
+    public StylingWebResource(ClientInterceptor clientInterceptor, Environment environment) {
       ShirtStyleDTO dto = new ShirtStyleDTO();
       dto.setName("style1");
       dto.setImageUrl("style1Image");
@@ -93,26 +135,81 @@ public class StylingService extends Application<DropwizardServiceConfig> {
       dto2.setImageUrl("style2Image");
       shirtStyleDTOS.add(dto);
       shirtStyleDTOS.add(dto2);
-      ManagedChannel printingChannel = ManagedChannelBuilder.forAddress(
-          configuration.getPrintingHost(), configuration.getPrintingPort()).
-          intercept(clientInterceptor).
-          usePlaintext().build();
-      ManagedChannel packagingChannel = ManagedChannelBuilder.forAddress(
-          configuration.getPackagingHost(), configuration.getPackagingPort()).
-          intercept(clientInterceptor).
-          usePlaintext().build();
+      GrpcChannelPool printingChannel = new GrpcChannelPool(GrpcChannelPool.addresses(
+          configuration.getPrintingAddresses(), configuration.getPrintingHost(),
+          configuration.getPrintingPort()), configuration.getGrpcClient(), clientInterceptor);
+      GrpcChannelPool packagingChannel = new GrpcChannelPool(GrpcChannelPool.addresses(
+          configuration.getPackagingAddresses(), configuration.getPackagingHost(),
+          configuration.getPackagingPort()), configuration.getGrpcClient(), clientInterceptor);
+      environment.lifecycle().manage(new AutoCloseableManager(printingChannel));
+      environment.lifecycle().manage(new AutoCloseableManager(packagingChannel));
       printing = PrintingGrpc.newBlockingStub(printingChannel);
       packaging = PackagingGrpc.newBlockingStub(packagingChannel);
+      printingFuture = PrintingGrpc.newFutureStub(printingChannel);
+      packagingFuture = PackagingGrpc.newFutureStub(packagingChannel);
+      if (configuration.getMenuCacheTtlSeconds() > 0) {
+        menuCache = new StyleMenuCache(this::loadMenu, configuration.getMenuCacheTtlSeconds(),
+            configuration.getMenuCacheRefreshSeconds(),
+            environment.lifecycle().executorService("menu-cache-refresh-%d").
+                minThreads(1).maxThreads(1).build(),
+            environment.metrics());
+      } else {
+        menuCache = null;
+      }
+      if (configuration.getPrintBatchWindowMillis() > 0) {
+        printBatcher = new PrintBatcher(PrintingGrpc.newStub(printingChannel),
+            configuration.getPrintBatchWindowMillis(), configuration.getPrintBatchMaxShirts(),
+            environment.lifecycle().scheduledExecutorService("print-batcher-%d").threads(1).
+                build(),
+            environment.metrics());
+        shirtPipeline = null;
+      } else if (configuration.getShirtStreamChunkSize() > 0) {
+        printBatcher = null;
+        shirtPipeline = new ShirtPipeline(PrintingGrpc.newStub(printingChannel),
+            PackagingGrpc.newStub(packagingChannel), configuration.getShirtStreamChunkSize());
+      } else {
+        printBatcher = null;
+        shirtPipeline = null;
+      }
+      if (printBatcher != null) {
+        long printMillis = printingChannel.deadlineMillis(
+            PrintingGrpc.getPrintShirtsBatchedMethod());
+        shirtsBudgetMillis = printMillis > 0 ?
+            configuration.getPrintBatchWindowMillis() + printMillis : 0;
+      } else if (shirtPipeline != null) {
+        // printing and packaging stream concurrently, each within its own deadline.
+        shirtsBudgetMillis = longestDeadline(
+            printingChannel.deadlineMillis(PrintingGrpc.getPrintShirtsMethod()),
+            packagingChannel.deadlineMillis(PackagingGrpc.getWrapShirtsStreamMethod()),
+            packagingChannel.deadlineMillis(PackagingGrpc.getGiftWrapStreamMethod()));
+      } else {
+        shirtsBudgetMillis = 0;
+      }
+    }
 
+    /**
+     * The longest of the given deadlines, 0 if any of them is unbounded.
+     */
+    private long longestDeadline(long... deadlinesMillis) {
+      long longest = 0;
+      for (long deadlineMillis : deadlinesMillis) {
+        if (deadlineMillis <= 0) {
+          return 0;
+        }
+        longest = Math.max(longest, deadlineMillis);
+      }
+      return longest;
     }
 
     public List<ShirtStyleDTO> getAllStyles() {
       try {
-        Thread.sleep(getRequestLatency(20, 10, rand));
-        printing.getAvailableColors(Void.getDefaultInstance());
-        Thread.sleep(getRequestLatency(20, 10, rand));
-        packaging.getPackingTypes(Void.getDefaultInstance());
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
+        if (menuCache != null) {
+          menuCache.get();
+        } else {
+          loadMenu();
+        }
+        Thread.sleep(getRequestLatency(processingLatency));
         return shirtStyleDTOS;
       } catch (Exception e) {
         logger.warn("exception received on getAllStyles: " + e.getMessage());
@@ -120,21 +217,57 @@ public class StylingService extends Application<DropwizardServiceConfig> {
       }
     }
 
+    /**
+     * Fetches the colors and packing types backing the menu from printing and packaging.
+     */
+    private StyleMenuCache.Menu loadMenu() throws Exception {
+      // fan out to printing and packaging concurrently so the menu waits for the slower of the
+      // two rather than for both in turn.
+      long timeoutMillis = configuration.getMenuTimeoutMillis();
+      ListenableFuture<AvailableColors> colors = printingFuture.
+          withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS).
+          getAvailableColors(Void.getDefaultInstance());
+      ListenableFuture<WrappingTypes> packingTypes = packagingFuture.
+          withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS).
+          getPackingTypes(Void.getDefaultInstance());
+      try {
+        Futures.allAsList(colors, packingTypes).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        return new StyleMenuCache.Menu(colors.get(), packingTypes.get());
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+    }
+
     public PackedShirtsDTO makeShirts(String id, int quantity) {
       try {
-        Thread.sleep(getRequestLatency(20, 10, rand));
-        Iterator<Shirt> shirts = printing.printShirts(PrintRequest.newBuilder().
+        Thread.sleep(getRequestLatency(processingLatency));
+        PrintRequest printRequest = PrintRequest.newBuilder().
             setStyleToPrint(ShirtStyle.newBuilder().setName(id).setImageUrl(id + "Image").build()).
-            setQuantity(quantity).build());
-        Thread.sleep(getRequestLatency(20, 10, rand));
-        if (quantity < 30) {
-          packaging.wrapShirts(WrapRequest.newBuilder().addAllShirts(() ->
-              shirts).build());
+            setQuantity(quantity).build();
+        if (shirtPipeline != null) {
+          // shirts are packed as they come off the printer while this request carries on.
+          long start = System.nanoTime();
+          ListenableFuture<Integer> packed = shirtPipeline.printAndPack(printRequest,
+              quantity >= 30);
+          Thread.sleep(getRequestLatency(processingLatency));
+          awaitShirts(packed, start);
         } else {
-          packaging.giftWrap(WrapRequest.newBuilder().addAllShirts(() ->
-              shirts).build());
+          Iterable<Shirt> shirts;
+          if (printBatcher != null) {
+            // printed together with concurrent orders of the same style.
+            shirts = awaitShirts(printBatcher.print(printRequest), System.nanoTime());
+          } else {
+            Iterator<Shirt> printed = printing.printShirts(printRequest);
+            shirts = () -> printed;
+          }
+          Thread.sleep(getRequestLatency(processingLatency));
+          if (quantity < 30) {
+            packaging.wrapShirts(WrapRequest.newBuilder().addAllShirts(shirts).build());
+          } else {
+            packaging.giftWrap(WrapRequest.newBuilder().addAllShirts(shirts).build());
+          }
         }
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
         List<ShirtDTO> packedShirts = new ArrayList<>(quantity);
         for (int i = 0; i < quantity; i++) {
           packedShirts.add(new ShirtDTO(new ShirtStyleDTO(id, id + "Image")));
@@ -146,12 +279,32 @@ public class StylingService extends Application<DropwizardServiceConfig> {
       }
     }
 
+    /**
+     * Waits for the shirts of an order made since start, failing with DEADLINE_EXCEEDED once
+     * the deadlines of the calls making them have passed.
+     */
+    private <T> T awaitShirts(Future<T> shirts, long start) throws Exception {
+      if (shirtsBudgetMillis <= 0) {
+        return shirts.get();
+      }
+      long remainingNanos = start + TimeUnit.MILLISECONDS.toNanos(shirtsBudgetMillis) -
+          System.nanoTime();
+      try {
+        return shirts.get(remainingNanos, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        shirts.cancel(true);
+        throw Status.DEADLINE_EXCEEDED.withDescription("shirts not made within " +
+            shirtsBudgetMillis + "ms").withCause(e).asRuntimeException();
+      }
+    }
+
     @Override
     public Response addStyle(String id) {
       try {
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
         printing.addPrintColor(Color.newBuilder().setColor("rgb").build());
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        invalidateMenu();
+        Thread.sleep(getRequestLatency(processingLatency));
         return Response.ok().build();
       } catch (Exception e) {
         logger.warn("exception received on addStyle: " + e.getMessage());
@@ -162,15 +315,22 @@ public class StylingService extends Application<DropwizardServiceConfig> {
     @Override
     public Response restockStyle(String id) {
       try {
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
         printing.restockColor(Color.newBuilder().setColor("rgb").build());
-        Thread.sleep(getRequestLatency(20, 10, rand));
+        Thread.sleep(getRequestLatency(processingLatency));
         packaging.restockMaterial(WrappingType.newBuilder().setWrappingType("wrap").build());
+        invalidateMenu();
         return Response.ok().build();
       } catch (Exception e) {
         logger.warn("exception received on restockStyle: " + e.getMessage());
         throw new RuntimeException(e);
       }
     }
+
+    private void invalidateMenu() {
+      if (menuCache != null) {
+        menuCache.invalidate();
+      }
+    }
   }
 }
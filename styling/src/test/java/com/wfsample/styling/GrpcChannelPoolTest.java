@@ -0,0 +1,253 @@
+package com.wfsample.styling;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Void;
+import com.wfsample.common.GrpcClientConfig;
+import com.wfsample.common.LatencyBudget;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for GrpcChannelPool.
+ */
+public class GrpcChannelPoolTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private class CountingPrintingImpl extends PrintingGrpc.PrintingImplBase {
+        private final AtomicInteger calls = new AtomicInteger(0);
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public void getAvailableColors(Void request,
+                                       StreamObserver<AvailableColors> responseObserver) {
+            calls.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                return;
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(AvailableColors.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private String start(CountingPrintingImpl printing) throws Exception {
+        Server server = grpcCleanup.register(ServerBuilder.forPort(0).addService(printing).
+            build().start());
+        return "localhost:" + server.getPort();
+    }
+
+    private GrpcChannelPool pool(List<String> addresses, String config) throws Exception {
+        return new GrpcChannelPool(addresses,
+            new ObjectMapper().readValue(config, GrpcClientConfig.class));
+    }
+
+    @Test
+    public void testRoundRobinSpreadsCallsEvenly() throws Exception {
+        CountingPrintingImpl first = new CountingPrintingImpl();
+        CountingPrintingImpl second = new CountingPrintingImpl();
+        List<String> addresses = new ArrayList<>();
+        addresses.add(start(first));
+        addresses.add(start(second));
+        try (GrpcChannelPool pool = pool(addresses,
+            "{\"loadBalancing\": \"ROUND_ROBIN\", \"channelsPerBackend\": 2}")) {
+            PrintingGrpc.PrintingBlockingStub stub = PrintingGrpc.newBlockingStub(pool);
+            for (int i = 0; i < 20; i++) {
+                stub.getAvailableColors(Void.getDefaultInstance());
+            }
+            assertEquals(0, pool.inFlight());
+        }
+        assertEquals(10, first.calls.get());
+        assertEquals(10, second.calls.get());
+    }
+
+    @Test
+    public void testInProcessAddresses() throws Exception {
+        CountingPrintingImpl printing = new CountingPrintingImpl();
+        String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(name).addService(printing).build().
+            start());
+        List<String> addresses = new ArrayList<>();
+        addresses.add(GrpcChannelPool.IN_PROCESS_PREFIX + name);
+        try (GrpcChannelPool pool = pool(addresses, "{\"channelsPerBackend\": 2}")) {
+            PrintingGrpc.PrintingBlockingStub stub = PrintingGrpc.newBlockingStub(pool);
+            for (int i = 0; i < 4; i++) {
+                stub.getAvailableColors(Void.getDefaultInstance());
+            }
+        }
+        assertEquals(4, printing.calls.get());
+    }
+
+    @Test
+    public void testLeastRequestAvoidsBusyBackend() throws Exception {
+        CountingPrintingImpl busy = new CountingPrintingImpl();
+        CountingPrintingImpl idle = new CountingPrintingImpl();
+        List<String> addresses = new ArrayList<>();
+        addresses.add(start(busy));
+        addresses.add(start(idle));
+        try (GrpcChannelPool pool = pool(addresses,
+            "{\"loadBalancing\": \"LEAST_REQUEST\", \"channelsPerBackend\": 1}")) {
+            PrintingGrpc.PrintingFutureStub stub = PrintingGrpc.newFutureStub(pool);
+            busy.release = new CountDownLatch(1);
+            // with two connections every call goes to the one with fewer calls in flight, so the
+            // first call to reach the busy backend keeps all others away from it.
+            while (busy.calls.get() == 0) {
+                Future<AvailableColors> call = stub.getAvailableColors(Void.getDefaultInstance());
+                while (!call.isDone() && busy.calls.get() == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            int idleCalls = idle.calls.get();
+            for (int i = 0; i < 10; i++) {
+                stub.getAvailableColors(Void.getDefaultInstance()).get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(1, busy.calls.get());
+            assertEquals(idleCalls + 10, idle.calls.get());
+            assertEquals(1, pool.inFlight());
+            busy.release.countDown();
+        }
+    }
+
+    @Test
+    public void testDefaultDeadline() throws Exception {
+        CountingPrintingImpl printing = new CountingPrintingImpl();
+        printing.release = new CountDownLatch(1);
+        List<String> addresses = new ArrayList<>();
+        addresses.add(start(printing));
+        try (GrpcChannelPool pool = pool(addresses, "{\"defaultDeadlineMillis\": 200}")) {
+            try {
+                PrintingGrpc.newBlockingStub(pool).getAvailableColors(Void.getDefaultInstance());
+                fail();
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+            }
+            // a deadline set by the caller takes precedence.
+            long start = System.nanoTime();
+            try {
+                PrintingGrpc.newBlockingStub(pool).withDeadlineAfter(50, TimeUnit.MILLISECONDS).
+                    getAvailableColors(Void.getDefaultInstance());
+                fail();
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+            printing.release.countDown();
+        }
+    }
+
+    @Test
+    public void testHedgesToAnotherReplica() throws Exception {
+        CountingPrintingImpl slow = new CountingPrintingImpl();
+        CountingPrintingImpl fast = new CountingPrintingImpl();
+        slow.release = new CountDownLatch(1);
+        List<String> addresses = new ArrayList<>();
+        addresses.add(start(slow));
+        addresses.add(start(fast));
+        try (GrpcChannelPool pool = pool(addresses, "{\"loadBalancing\": \"ROUND_ROBIN\", " +
+            "\"channelsPerBackend\": 1, \"routes\": {\"Printing/getAvailableColors\": " +
+            "{\"budgetMillis\": 5000, \"hedgeAfterMillis\": 50, \"maxAttempts\": 2}}}")) {
+            PrintingGrpc.PrintingBlockingStub stub = PrintingGrpc.newBlockingStub(pool);
+            long start = System.nanoTime();
+            for (int i = 0; i < 4; i++) {
+                stub.getAvailableColors(Void.getDefaultInstance());
+            }
+            // every call that went to the slow replica first was answered by its hedge.
+            assertTrue(slow.calls.get() > 0);
+            assertEquals(4, fast.calls.get());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            slow.release.countDown();
+        }
+    }
+
+    @Test
+    public void testRetriesAndBudget() throws Exception {
+        CountingPrintingImpl printing = new CountingPrintingImpl();
+        printing.failures.set(2);
+        List<String> addresses = new ArrayList<>();
+        addresses.add(start(printing));
+        try (GrpcChannelPool pool = pool(addresses, "{\"routes\": {\"Printing\": " +
+            "{\"budgetMillis\": 200, \"maxAttempts\": 3}}}")) {
+            PrintingGrpc.newBlockingStub(pool).getAvailableColors(Void.getDefaultInstance());
+            assertEquals(3, printing.calls.get());
+
+            // the budget replaces the default deadline of 30 seconds.
+            printing.release = new CountDownLatch(1);
+            try {
+                PrintingGrpc.newBlockingStub(pool).getAvailableColors(Void.getDefaultInstance());
+                fail();
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+            }
+            printing.release.countDown();
+        }
+    }
+
+    @Test
+    public void testServiceConfigOnlyRetriesUnhedgedRoutes() {
+        Map<String, LatencyBudget> routes = new HashMap<>();
+        routes.put("Printing", new LatencyBudget(1000, 0, 3));
+        routes.put("Packaging/getPackingTypes", new LatencyBudget(1000, 100, 2));
+        routes.put("Packaging", new LatencyBudget(1000, 0, 1));
+        Map<String, ?> serviceConfig = GrpcChannelPool.serviceConfig(routes);
+        List<?> methodConfigs = (List<?>) serviceConfig.get("methodConfig");
+        assertEquals(1, methodConfigs.size());
+        Map<?, ?> methodConfig = (Map<?, ?>) methodConfigs.get(0);
+        assertEquals("Printing", ((Map<?, ?>) ((List<?>) methodConfig.get("name")).get(0)).
+            get("service"));
+        assertEquals(3.0, ((Map<?, ?>) methodConfig.get("retryPolicy")).get("maxAttempts"));
+        assertNull(GrpcChannelPool.serviceConfig(new HashMap<>()));
+    }
+
+    @Test
+    public void testDeadlineOfRoutes() throws Exception {
+        List<String> addresses = new ArrayList<>();
+        addresses.add(GrpcChannelPool.IN_PROCESS_PREFIX + InProcessServerBuilder.generateName());
+        try (GrpcChannelPool pool = pool(addresses, "{\"defaultDeadlineMillis\": 5000, " +
+            "\"routes\": {\"Printing/printShirts\": {\"budgetMillis\": 10000}}}")) {
+            assertEquals(10000, pool.deadlineMillis(PrintingGrpc.getPrintShirtsMethod()));
+            assertEquals(5000, pool.deadlineMillis(PrintingGrpc.getGetAvailableColorsMethod()));
+        }
+        try (GrpcChannelPool pool = pool(addresses, "{\"defaultDeadlineMillis\": 0}")) {
+            assertEquals(0, pool.deadlineMillis(PrintingGrpc.getPrintShirtsMethod()));
+        }
+    }
+
+    @Test
+    public void testAddressesFallBackToHostAndPort() {
+        List<String> addresses = GrpcChannelPool.addresses(new ArrayList<>(), "printing", 50052);
+        assertEquals(1, addresses.size());
+        assertEquals("printing:50052", addresses.get(0));
+    }
+}
@@ -0,0 +1,164 @@
+package com.wfsample.styling;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintResponse;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Shirt;
+import com.wfsample.beachshirts.ShirtStyle;
+
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for PrintBatcher.
+ */
+public class PrintBatcherTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final List<PrintRequest> printCalls = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final MetricRegistry metrics = new MetricRegistry();
+    private volatile boolean printingFails = false;
+    private PrintingGrpc.PrintingStub printing;
+
+    private class TestPrintingImpl extends PrintingGrpc.PrintingImplBase {
+        @Override
+        public void printShirtsBatched(PrintRequest request,
+                                       StreamObserver<PrintResponse> responseObserver) {
+            printCalls.add(request);
+            if (printingFails) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+                return;
+            }
+            Shirt shirt = Shirt.newBuilder().setStyle(request.getStyleToPrint()).build();
+            for (int sent = 0; sent < request.getQuantity(); sent += 7) {
+                PrintResponse.Builder batch = PrintResponse.newBuilder();
+                for (int i = sent; i < Math.min(sent + 7, request.getQuantity()); i++) {
+                    batch.addShirts(shirt);
+                }
+                responseObserver.onNext(batch.build());
+            }
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(name).directExecutor().
+            addService(new TestPrintingImpl()).build().start());
+        printing = PrintingGrpc.newStub(grpcCleanup.register(
+            InProcessChannelBuilder.forName(name).directExecutor().build()));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testCoalescesRequestsOfTheSameStyle() throws Exception {
+        PrintBatcher batcher = new PrintBatcher(printing, 100, 1000, scheduler, metrics);
+        ListenableFuture<List<Shirt>> first = batcher.print(request("style1", 5));
+        ListenableFuture<List<Shirt>> second = batcher.print(request("style1", 12));
+        ListenableFuture<List<Shirt>> other = batcher.print(request("style2", 3));
+
+        assertShirts("style1", 5, first.get(5, TimeUnit.SECONDS));
+        assertShirts("style1", 12, second.get(5, TimeUnit.SECONDS));
+        assertShirts("style2", 3, other.get(5, TimeUnit.SECONDS));
+        assertEquals(2, printCalls.size());
+        for (PrintRequest call : printCalls) {
+            assertEquals(call.getStyleToPrint().getName().equals("style1") ? 17 : 3,
+                call.getQuantity());
+        }
+        assertEquals(2, metrics.histogram("styling.print.batch.size").getCount());
+        assertEquals(2, metrics.histogram("styling.print.batch.size").getSnapshot().getMax());
+        assertEquals(3, metrics.histogram("styling.print.batch.waitMillis").getCount());
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaiting() throws Exception {
+        PrintBatcher batcher = new PrintBatcher(printing, 60_000, 20, scheduler, metrics);
+        ListenableFuture<List<Shirt>> first = batcher.print(request("style1", 8));
+        ListenableFuture<List<Shirt>> second = batcher.print(request("style1", 12));
+
+        assertShirts("style1", 8, first.get(5, TimeUnit.SECONDS));
+        assertShirts("style1", 12, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, printCalls.size());
+    }
+
+    @Test
+    public void testOverflowingRequestStartsNewBatch() throws Exception {
+        PrintBatcher batcher = new PrintBatcher(printing, 60_000, 20, scheduler, metrics);
+        ListenableFuture<List<Shirt>> first = batcher.print(request("style1", 15));
+        ListenableFuture<List<Shirt>> second = batcher.print(request("style1", 25));
+
+        // the first batch would have grown to 40 shirts, so it's sent on its own.
+        assertShirts("style1", 15, first.get(5, TimeUnit.SECONDS));
+        assertShirts("style1", 25, second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, printCalls.size());
+        assertEquals(15, printCalls.get(0).getQuantity());
+        assertEquals(25, printCalls.get(1).getQuantity());
+    }
+
+    @Test
+    public void testFailureFailsWholeBatch() throws Exception {
+        printingFails = true;
+        PrintBatcher batcher = new PrintBatcher(printing, 50, 1000, scheduler, metrics);
+        ListenableFuture<List<Shirt>> first = batcher.print(request("style1", 5));
+        ListenableFuture<List<Shirt>> second = batcher.print(request("style1", 5));
+
+        for (ListenableFuture<List<Shirt>> shirts : Arrays.asList(first, second)) {
+            try {
+                shirts.get(5, TimeUnit.SECONDS);
+                fail("expected printing to fail");
+            } catch (ExecutionException e) {
+                assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e).getCode());
+            }
+        }
+        assertEquals(1, printCalls.size());
+    }
+
+    @Test
+    public void testEmptyRequestIsNotPrinted() throws Exception {
+        PrintBatcher batcher = new PrintBatcher(printing, 50, 1000, scheduler, metrics);
+        assertTrue(batcher.print(request("style1", 0)).get().isEmpty());
+        assertTrue(printCalls.isEmpty());
+    }
+
+    private static PrintRequest request(String style, int quantity) {
+        return PrintRequest.newBuilder().setStyleToPrint(ShirtStyle.newBuilder().setName(style).
+            setImageUrl(style + "Image").build()).setQuantity(quantity).build();
+    }
+
+    private static void assertShirts(String style, int quantity, List<Shirt> shirts) {
+        assertEquals(quantity, shirts.size());
+        for (Shirt shirt : shirts) {
+            assertEquals(style, shirt.getStyle().getName());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.wfsample.styling;
+
+import com.google.protobuf.ByteString;
+import com.wfsample.beachshirts.GiftPack;
+import com.wfsample.beachshirts.PackagingGrpc;
+import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.PrintRequest;
+import com.wfsample.beachshirts.PrintingGrpc;
+import com.wfsample.beachshirts.Shirt;
+import com.wfsample.beachshirts.ShirtStyle;
+import com.wfsample.beachshirts.WrapRequest;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for ShirtPipeline.
+ */
+public class ShirtPipelineTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final List<Integer> chunkSizes = new CopyOnWriteArrayList<>();
+    private final CountDownLatch packagingAborted = new CountDownLatch(1);
+    private volatile boolean printingFails = false;
+    private ShirtPipeline pipeline;
+
+    private class TestPrintingImpl extends PrintingGrpc.PrintingImplBase {
+        @Override
+        public void printShirts(PrintRequest request, StreamObserver<Shirt> responseObserver) {
+            Shirt shirt = Shirt.newBuilder().setStyle(request.getStyleToPrint()).build();
+            for (int i = 0; i < request.getQuantity(); i++) {
+                responseObserver.onNext(shirt);
+            }
+            if (printingFails) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+            } else {
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    private class TestPackagingImpl extends PackagingGrpc.PackagingImplBase {
+        @Override
+        public StreamObserver<WrapRequest> wrapShirtsStream(
+            StreamObserver<PackedShirts> responseObserver) {
+            PackedShirts.Builder packed = PackedShirts.newBuilder();
+            return new ChunkObserver() {
+                @Override
+                public void onNext(WrapRequest chunk) {
+                    super.onNext(chunk);
+                    packed.addAllShirts(chunk.getShirtsList());
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onNext(packed.build());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
+        @Override
+        public StreamObserver<WrapRequest> giftWrapStream(
+            StreamObserver<GiftPack> responseObserver) {
+            return new ChunkObserver() {
+                @Override
+                public void onCompleted() {
+                    responseObserver.onNext(GiftPack.newBuilder().
+                        setGiftMaterial(ByteString.copyFromUtf8("gift material")).build());
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+    }
+
+    private abstract class ChunkObserver implements StreamObserver<WrapRequest> {
+        @Override
+        public void onNext(WrapRequest chunk) {
+            chunkSizes.add(chunk.getShirtsCount());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            packagingAborted.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName).directExecutor().
+            addService(new TestPrintingImpl()).addService(new TestPackagingImpl()).
+            build().start());
+        ManagedChannel channel = grpcCleanup.register(
+            InProcessChannelBuilder.forName(serverName).directExecutor().build());
+        pipeline = new ShirtPipeline(PrintingGrpc.newStub(channel), PackagingGrpc.newStub(channel),
+            10);
+    }
+
+    @Test
+    public void testWrapsShirtsInChunks() throws Exception {
+        int packed = pipeline.printAndPack(request(25), false).get(5, TimeUnit.SECONDS);
+        assertEquals(25, packed);
+        assertEquals(3, chunkSizes.size());
+        assertEquals(Integer.valueOf(10), chunkSizes.get(0));
+        assertEquals(Integer.valueOf(10), chunkSizes.get(1));
+        assertEquals(Integer.valueOf(5), chunkSizes.get(2));
+    }
+
+    @Test
+    public void testGiftWrapsShirts() throws Exception {
+        int packed = pipeline.printAndPack(request(45), true).get(5, TimeUnit.SECONDS);
+        assertEquals(45, packed);
+        assertEquals(5, chunkSizes.size());
+    }
+
+    @Test
+    public void testPrintingFailureAbortsPackaging() throws Exception {
+        printingFails = true;
+        try {
+            pipeline.printAndPack(request(5), false).get(5, TimeUnit.SECONDS);
+            fail("expected printing failure");
+        } catch (ExecutionException e) {
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e.getCause()).getCode());
+        }
+        assertTrue(packagingAborted.await(5, TimeUnit.SECONDS));
+    }
+
+    private static PrintRequest request(int quantity) {
+        return PrintRequest.newBuilder().
+            setStyleToPrint(ShirtStyle.newBuilder().setName("style1").setImageUrl("style1Image")).
+            setQuantity(quantity).build();
+    }
+}
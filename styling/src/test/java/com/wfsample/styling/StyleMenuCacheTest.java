@@ -0,0 +1,117 @@
+package com.wfsample.styling;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wfsample.beachshirts.AvailableColors;
+import com.wfsample.beachshirts.WrappingTypes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for StyleMenuCache.
+ */
+public class StyleMenuCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private MetricRegistry metrics;
+    private StyleMenuCache cache;
+
+    @Before
+    public void setUp() {
+        cache = newCache(60, 10);
+    }
+
+    @Test
+    public void testServesCachedMenu() throws Exception {
+        StyleMenuCache.Menu menu = cache.get();
+        assertSame(menu, cache.get());
+        assertEquals(1, loads.get());
+        assertEquals(1L, gauge("styling.menu.cache.hits"));
+        assertEquals(1L, gauge("styling.menu.cache.misses"));
+    }
+
+    @Test
+    public void testRefreshesStaleMenu() throws Exception {
+        StyleMenuCache.Menu menu = cache.get();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        // the refresh runs on the direct executor, so the new menu is returned right away.
+        StyleMenuCache.Menu refreshed = cache.get();
+        assertEquals(2, loads.get());
+        assertEquals(1, metrics.counter("styling.menu.cache.refreshes").getCount());
+        assertSame(refreshed, cache.get());
+        assertNotSame(menu, refreshed);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        cache.get();
+        cache.invalidate();
+        cache.get();
+        assertEquals(2, loads.get());
+        assertEquals(2L, gauge("styling.menu.cache.misses"));
+    }
+
+    @Test
+    public void testZeroRefreshKeepsMenuUntilTtl() throws Exception {
+        cache = newCache(60, 0);
+        StyleMenuCache.Menu menu = cache.get();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertSame(menu, cache.get());
+        assertEquals(1, loads.get());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertNotSame(menu, cache.get());
+        assertEquals(2, loads.get());
+        assertEquals(0, metrics.counter("styling.menu.cache.refreshes").getCount());
+    }
+
+    @Test
+    public void testNegativeRefreshKeepsMenuUntilTtl() throws Exception {
+        cache = newCache(60, -1);
+        StyleMenuCache.Menu menu = cache.get();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertSame(menu, cache.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRefreshEqualToTtl() {
+        newCache(60, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRefreshLongerThanTtl() {
+        newCache(60, 120);
+    }
+
+    private StyleMenuCache newCache(long ttlSeconds, long refreshSeconds) {
+        metrics = new MetricRegistry();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        return new StyleMenuCache(() -> {
+            loads.incrementAndGet();
+            return new StyleMenuCache.Menu(AvailableColors.getDefaultInstance(),
+                WrappingTypes.getDefaultInstance());
+        }, ttlSeconds, refreshSeconds, MoreExecutors.directExecutor(), metrics, ticker);
+    }
+
+    private long gauge(String name) {
+        Gauge<?> gauge = metrics.getGauges().get(name);
+        return (Long) gauge.getValue();
+    }
+}
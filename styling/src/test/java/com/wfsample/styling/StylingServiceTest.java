@@ -1,195 +1,285 @@
 package com.wfsample.styling;
 
-import com.wavefront.sdk.grpc.WavefrontClientInterceptor;
-import com.wfsample.common.dto.PackedShirtsDTO;
-import com.wfsample.common.dto.ShirtDTO;
-import com.wfsample.common.dto.ShirtStyleDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wfsample.beachshirts.AvailableColors;
 import com.wfsample.beachshirts.Color;
+import com.wfsample.beachshirts.GiftPack;
 import com.wfsample.beachshirts.PackagingGrpc;
+import com.wfsample.beachshirts.PackedShirts;
+import com.wfsample.beachshirts.PrintRequest;
 import com.wfsample.beachshirts.PrintingGrpc;
 import com.wfsample.beachshirts.Shirt;
-import com.wfsample.beachshirts.ShirtStyle;
+import com.wfsample.beachshirts.Status;
 import com.wfsample.beachshirts.Void;
 import com.wfsample.beachshirts.WrapRequest;
-import com.wfsample.beachshirts.PrintRequest;
 import com.wfsample.beachshirts.WrappingType;
-import com.wfsample.beachshirts.PackedShirts;
-import com.wfsample.beachshirts.Status;
-import com.wfsample.beachshirts.AvailableColors;
 import com.wfsample.beachshirts.WrappingTypes;
+import com.wfsample.common.BeachShirtsUtils;
+import com.wfsample.common.DropwizardServiceConfig;
+import com.wfsample.common.dto.PackedShirtsDTO;
+import com.wfsample.common.dto.ShirtStyleDTO;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.Mock;
-import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.dropwizard.setup.Environment;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.junit.Assert.fail;
 
 /**
- * Unit tests for StylingService.
+ * Unit tests for StylingService, against printing and packaging running in-process.
  */
-@RunWith(MockitoJUnitRunner.class)
 public class StylingServiceTest {
 
-    @Mock
-    private PrintingGrpc.PrintingBlockingStub printingBlockingStub;
+    private static final long MENU_TIMEOUT_MILLIS = 200;
 
-    @Mock
-    private PackagingGrpc.PackagingBlockingStub packagingBlockingStub;
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
 
     /**
-     * Test implementation that mimics StylingWebResource behavior without extending it.
+     * Answers the menu lookup as told: right away, never, or with an error.
      */
-    private static class TestStylingWebResource {
-        private final PrintingGrpc.PrintingBlockingStub printingStub;
-        private final PackagingGrpc.PackagingBlockingStub packagingStub;
-        private final List<ShirtStyleDTO> shirtStyleDTOS = new ArrayList<>();
-        
-        public TestStylingWebResource(PrintingGrpc.PrintingBlockingStub printingStub, 
-                                     PackagingGrpc.PackagingBlockingStub packagingStub) {
-            this.printingStub = printingStub;
-            this.packagingStub = packagingStub;
-            
-            ShirtStyleDTO dto = new ShirtStyleDTO();
-            dto.setName("style1");
-            dto.setImageUrl("style1Image");
-            ShirtStyleDTO dto2 = new ShirtStyleDTO();
-            dto2.setName("style2");
-            dto2.setImageUrl("style2Image");
-            shirtStyleDTOS.add(dto);
-            shirtStyleDTOS.add(dto2);
-        }
-        
-        public List<ShirtStyleDTO> getAllStyles() {
-            printingStub.getAvailableColors(Void.getDefaultInstance());
-            packagingStub.getPackingTypes(Void.getDefaultInstance());
-            
-            return shirtStyleDTOS;
+    private enum MenuBehaviour {
+        ANSWER, HANG, FAIL
+    }
+
+    private class FakePrinting extends PrintingGrpc.PrintingImplBase {
+        private volatile MenuBehaviour menu = MenuBehaviour.ANSWER;
+        private final AtomicInteger menuCalls = new AtomicInteger(0);
+        private final AtomicInteger printed = new AtomicInteger(0);
+        private final AtomicInteger colorsAdded = new AtomicInteger(0);
+        private final AtomicInteger colorsRestocked = new AtomicInteger(0);
+
+        @Override
+        public void getAvailableColors(Void request,
+                                       StreamObserver<AvailableColors> responseObserver) {
+            menuCalls.incrementAndGet();
+            answer(menu, AvailableColors.newBuilder().
+                addColors(Color.newBuilder().setColor("rgb")).build(), responseObserver);
         }
-        
-        public PackedShirtsDTO makeShirts(String id, int quantity) {
-            Iterator<Shirt> shirts = printingStub.printShirts(PrintRequest.newBuilder()
-                .setStyleToPrint(ShirtStyle.newBuilder().setName(id).setImageUrl(id + "Image").build())
-                .setQuantity(quantity)
-                .build());
-            
-            if (quantity < 30) {
-                packagingStub.wrapShirts(WrapRequest.newBuilder().addAllShirts(() -> shirts).build());
-            } else {
-                packagingStub.giftWrap(WrapRequest.newBuilder().addAllShirts(() -> shirts).build());
-            }
-            
-            List<ShirtDTO> packedShirts = new ArrayList<>(quantity);
-            for (int i = 0; i < quantity; i++) {
-                packedShirts.add(new ShirtDTO(new ShirtStyleDTO(id, id + "Image")));
+
+        @Override
+        public void printShirts(PrintRequest request, StreamObserver<Shirt> responseObserver) {
+            for (int i = 0; i < request.getQuantity(); i++) {
+                printed.incrementAndGet();
+                responseObserver.onNext(Shirt.newBuilder().
+                    setStyle(request.getStyleToPrint()).build());
             }
-            return new PackedShirtsDTO(packedShirts);
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void addPrintColor(Color request, StreamObserver<Status> responseObserver) {
+            colorsAdded.incrementAndGet();
+            responseObserver.onNext(Status.newBuilder().setStatus(true).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void restockColor(Color request, StreamObserver<Status> responseObserver) {
+            colorsRestocked.incrementAndGet();
+            responseObserver.onNext(Status.newBuilder().setStatus(true).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private class FakePackaging extends PackagingGrpc.PackagingImplBase {
+        private volatile MenuBehaviour menu = MenuBehaviour.ANSWER;
+        private final AtomicInteger menuCalls = new AtomicInteger(0);
+        private final AtomicInteger wrapped = new AtomicInteger(0);
+        private final AtomicInteger giftWrapped = new AtomicInteger(0);
+        private final AtomicInteger materialRestocked = new AtomicInteger(0);
+
+        @Override
+        public void getPackingTypes(Void request, StreamObserver<WrappingTypes> responseObserver) {
+            menuCalls.incrementAndGet();
+            answer(menu, WrappingTypes.newBuilder().
+                addWrappingType(WrappingType.newBuilder().setWrappingType("wrap")).build(),
+                responseObserver);
         }
-        
-        public Response addStyle(String id) {
-            printingStub.addPrintColor(Color.newBuilder().setColor("rgb").build());
-            return Response.ok().build();
+
+        @Override
+        public void wrapShirts(WrapRequest request, StreamObserver<PackedShirts> responseObserver) {
+            wrapped.addAndGet(request.getShirtsCount());
+            responseObserver.onNext(PackedShirts.newBuilder().
+                addAllShirts(request.getShirtsList()).build());
+            responseObserver.onCompleted();
         }
-        
-        public Response restockStyle(String id) {
-            printingStub.restockColor(Color.newBuilder().setColor("rgb").build());
-            packagingStub.restockMaterial(WrappingType.newBuilder().setWrappingType("wrap").build());
-            return Response.ok().build();
+
+        @Override
+        public void giftWrap(WrapRequest request, StreamObserver<GiftPack> responseObserver) {
+            giftWrapped.addAndGet(request.getShirtsCount());
+            responseObserver.onNext(GiftPack.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void restockMaterial(WrappingType request,
+                                    StreamObserver<Status> responseObserver) {
+            materialRestocked.incrementAndGet();
+            responseObserver.onNext(Status.newBuilder().setStatus(true).build());
+            responseObserver.onCompleted();
         }
     }
 
-    private TestStylingWebResource stylingWebResource;
+    private FakePrinting printing;
+    private FakePackaging packaging;
+    private StylingService.StylingWebResource stylingWebResource;
 
     @Before
-    public void setup() {
-        stylingWebResource = new TestStylingWebResource(printingBlockingStub, packagingBlockingStub);
+    public void setup() throws Exception {
+        BeachShirtsUtils.setLatencyInjected(false);
+        printing = new FakePrinting();
+        packaging = new FakePackaging();
+        String printingName = InProcessServerBuilder.generateName();
+        String packagingName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(printingName).addService(printing).
+            build().start());
+        grpcCleanup.register(InProcessServerBuilder.forName(packagingName).addService(packaging).
+            build().start());
+        // the menu is fetched on every request and shirts are packed with unary calls.
+        DropwizardServiceConfig configuration = new ObjectMapper().readValue("{" +
+            "\"printingAddresses\": [\"" + GrpcChannelPool.IN_PROCESS_PREFIX + printingName +
+            "\"], \"packagingAddresses\": [\"" + GrpcChannelPool.IN_PROCESS_PREFIX +
+            packagingName + "\"], \"menuTimeoutMillis\": " + MENU_TIMEOUT_MILLIS + ", " +
+            "\"menuCacheTtlSeconds\": 0, \"shirtStreamChunkSize\": 0}",
+            DropwizardServiceConfig.class);
+        // stands in for the Wavefront interceptor, which needs a reporter.
+        ClientInterceptor passThrough = new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+                return next.newCall(method, callOptions);
+            }
+        };
+        stylingWebResource = new StylingService(configuration).new StylingWebResource(
+            passThrough, new Environment("styling-test"));
+    }
+
+    @After
+    public void tearDown() {
+        BeachShirtsUtils.setLatencyInjected(true);
     }
 
     @Test
     public void testGetAllStyles() {
-        when(printingBlockingStub.getAvailableColors(any(Void.class)))
-            .thenReturn(AvailableColors.newBuilder().build());
-        when(packagingBlockingStub.getPackingTypes(any(Void.class)))
-            .thenReturn(WrappingTypes.newBuilder().build());
-        
         List<ShirtStyleDTO> styles = stylingWebResource.getAllStyles();
-        
+
         assertNotNull(styles);
-        assertTrue(styles.size() > 0);
+        assertEquals(2, styles.size());
         assertEquals("style1", styles.get(0).getName());
         assertEquals("style1Image", styles.get(0).getImageUrl());
-        
-        verify(printingBlockingStub).getAvailableColors(any(Void.class));
-        verify(packagingBlockingStub).getPackingTypes(any(Void.class));
+        assertEquals(1, printing.menuCalls.get());
+        assertEquals(1, packaging.menuCalls.get());
+    }
+
+    @Test
+    public void testGetAllStylesFailsWhenEitherCallFails() {
+        packaging.menu = MenuBehaviour.FAIL;
+
+        try {
+            stylingWebResource.getAllStyles();
+            fail("expected the menu to fail");
+        } catch (RuntimeException e) {
+            // the gRPC error itself rather than the ExecutionException wrapping it.
+            assertTrue(e.getCause() instanceof StatusRuntimeException);
+            assertEquals(io.grpc.Status.Code.INTERNAL,
+                ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+        assertEquals(1, printing.menuCalls.get());
+    }
+
+    @Test
+    public void testGetAllStylesTimesOutOnSlowBackend() {
+        printing.menu = MenuBehaviour.HANG;
+        long start = System.nanoTime();
+
+        try {
+            stylingWebResource.getAllStyles();
+            fail("expected the menu to time out");
+        } catch (RuntimeException e) {
+            // whichever of the deadline and the wait for both calls runs out first.
+            Throwable cause = e.getCause();
+            assertTrue(String.valueOf(cause), cause instanceof TimeoutException ||
+                (cause instanceof StatusRuntimeException &&
+                    ((StatusRuntimeException) cause).getStatus().getCode() ==
+                        io.grpc.Status.Code.DEADLINE_EXCEEDED));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= MENU_TIMEOUT_MILLIS - 50);
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < MENU_TIMEOUT_MILLIS * 10);
+        // packaging was asked at the same time rather than after printing.
+        assertEquals(1, packaging.menuCalls.get());
     }
 
     @Test
     public void testMakeShirts() {
-        List<Shirt> shirts = createMockShirts(5);
-        
-        when(printingBlockingStub.printShirts(any(PrintRequest.class))).thenReturn(shirts.iterator());
-        
-        when(packagingBlockingStub.wrapShirts(any(WrapRequest.class)))
-            .thenReturn(PackedShirts.newBuilder().addAllShirts(shirts).build());
-        
         PackedShirtsDTO result = stylingWebResource.makeShirts("style1", 5);
-        
+
         assertNotNull(result);
         assertEquals(5, result.getShirts().size());
-        
-        verify(printingBlockingStub).printShirts(any(PrintRequest.class));
-        verify(packagingBlockingStub).wrapShirts(any(WrapRequest.class));
+        assertEquals(5, printing.printed.get());
+        assertEquals(5, packaging.wrapped.get());
+        assertEquals(0, packaging.giftWrapped.get());
+    }
+
+    @Test
+    public void testMakeShirtsGiftWrapsLargeOrders() {
+        PackedShirtsDTO result = stylingWebResource.makeShirts("style1", 30);
+
+        assertEquals(30, result.getShirts().size());
+        assertEquals(30, packaging.giftWrapped.get());
+        assertEquals(0, packaging.wrapped.get());
     }
 
     @Test
     public void testAddStyle() {
-        when(printingBlockingStub.addPrintColor(any(Color.class)))
-            .thenReturn(Status.newBuilder().setStatus(true).build());
-        
         Response response = stylingWebResource.addStyle("newStyle");
-        
+
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
-        
-        verify(printingBlockingStub).addPrintColor(any(Color.class));
+        assertEquals(1, printing.colorsAdded.get());
     }
 
     @Test
     public void testRestockStyle() {
-        when(printingBlockingStub.restockColor(any(Color.class)))
-            .thenReturn(Status.newBuilder().setStatus(true).build());
-        when(packagingBlockingStub.restockMaterial(any(WrappingType.class)))
-            .thenReturn(Status.newBuilder().setStatus(true).build());
-        
         Response response = stylingWebResource.restockStyle("style1");
-        
+
         assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
-        
-        verify(printingBlockingStub).restockColor(any(Color.class));
-        verify(packagingBlockingStub).restockMaterial(any(WrappingType.class));
+        assertEquals(1, printing.colorsRestocked.get());
+        assertEquals(1, packaging.materialRestocked.get());
     }
 
-    private List<Shirt> createMockShirts(int count) {
-        List<Shirt> shirts = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            shirts.add(Shirt.newBuilder()
-                .setStyle(ShirtStyle.newBuilder()
-                    .setName("style" + i)
-                    .setImageUrl("style" + i + "Image")
-                    .build())
-                .build());
+    private static <T> void answer(MenuBehaviour behaviour, T response,
+                                   StreamObserver<T> responseObserver) {
+        switch (behaviour) {
+            case ANSWER:
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+                break;
+            case FAIL:
+                responseObserver.onError(io.grpc.Status.INTERNAL.asRuntimeException());
+                break;
+            default:
+                // left unanswered until the caller's deadline cancels the call.
         }
-        return shirts;
     }
 }